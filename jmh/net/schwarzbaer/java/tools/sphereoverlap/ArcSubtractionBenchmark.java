@@ -0,0 +1,58 @@
+package net.schwarzbaer.java.tools.sphereoverlap;
+
+import java.util.Random;
+import java.util.concurrent.TimeUnit;
+
+import org.openjdk.jmh.annotations.Benchmark;
+import org.openjdk.jmh.annotations.BenchmarkMode;
+import org.openjdk.jmh.annotations.Mode;
+import org.openjdk.jmh.annotations.OutputTimeUnit;
+import org.openjdk.jmh.annotations.Param;
+import org.openjdk.jmh.annotations.Scope;
+import org.openjdk.jmh.annotations.Setup;
+import org.openjdk.jmh.annotations.State;
+import org.openjdk.jmh.infra.Blackhole;
+
+import net.schwarzbaer.java.tools.sphereoverlap.OverlapEdgeCircle.Arc;
+import net.schwarzbaer.java.tools.sphereoverlap.OverlapEdgeCircle.ArcList;
+import net.schwarzbaer.java.tools.sphereoverlap.OverlapEdgeCircle.ArcSubstractionResult;
+
+@State(Scope.Benchmark)
+@BenchmarkMode(Mode.AverageTime)
+@OutputTimeUnit(TimeUnit.NANOSECONDS)
+public class ArcSubtractionBenchmark {
+
+	// seeded random arcs, like cutOut creates them: min in [-2PI,2PI], length below 2PI
+	
+	@Param({"1024"}) int arcCount;
+	
+	private Arc[] base, other;
+	private double[] out;
+
+	@Setup public void setup() {
+		Random random = new Random(BenchmarkSpheres.SEED);
+		base  = new Arc[arcCount];
+		other = new Arc[arcCount];
+		for (int i=0; i<arcCount; i++) {
+			base [i] = createArc(random);
+			other[i] = createArc(random);
+		}
+		out = new double[4];
+	}
+
+	private static Arc createArc(Random random) {
+		double min = (random.nextDouble()*2-1) * 2*Math.PI;
+		double length = (0.05 + 0.9*random.nextDouble()) * 2*Math.PI; // neither empty nor a full circle
+		return new Arc(min, min+length);
+	}
+
+	@Benchmark public void compute(Blackhole bh) {
+		for (int i=0; i<arcCount; i++)
+			bh.consume(ArcSubstractionResult.compute(base[i], other[i]));
+	}
+
+	@Benchmark public void subtractPrimitive(Blackhole bh) {
+		for (int i=0; i<arcCount; i++)
+			bh.consume(ArcList.subtract(base[i].min, base[i].max, other[i].min, other[i].max, out, 0));
+	}
+}
@@ -0,0 +1,27 @@
+package net.schwarzbaer.java.tools.sphereoverlap;
+
+import java.util.Random;
+
+import net.schwarzbaer.java.tools.sphereoverlap.SphereOverlap.Sphere;
+
+class BenchmarkSpheres {
+
+	// seeded sphere sets, so benchmark runs on different commits work on the same input
+
+	static final long SEED = 0x5EED_5FE7L;
+	static final double MIN_RADIUS = 20;
+	static final double MAX_RADIUS = 50;
+
+	static Sphere[] create(int nSpheres, int nPoints, double density) {
+		double size = getCubeSize(nSpheres, density);
+		return Sphere.createRandomSpheres(new Random(SEED), nSpheres, MIN_RADIUS, MAX_RADIUS, size, size, size, nPoints);
+	}
+
+	static double getCubeSize(int nSpheres, double density) {
+		// density = expected number of overlapping neighbours of a sphere
+		// two spheres overlap, if their distance is below r1+r2 -> each sphere "reaches" a ball of radius r1+r2
+		double reach = MIN_RADIUS + MAX_RADIUS;
+		double volume = nSpheres * 4/3.0*Math.PI*reach*reach*reach / density;
+		return Math.cbrt(volume);
+	}
+}
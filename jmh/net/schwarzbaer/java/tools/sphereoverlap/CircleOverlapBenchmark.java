@@ -0,0 +1,66 @@
+package net.schwarzbaer.java.tools.sphereoverlap;
+
+import java.util.concurrent.TimeUnit;
+
+import org.openjdk.jmh.annotations.Benchmark;
+import org.openjdk.jmh.annotations.BenchmarkMode;
+import org.openjdk.jmh.annotations.Mode;
+import org.openjdk.jmh.annotations.OutputTimeUnit;
+import org.openjdk.jmh.annotations.Param;
+import org.openjdk.jmh.annotations.Scope;
+import org.openjdk.jmh.annotations.Setup;
+import org.openjdk.jmh.annotations.State;
+import org.openjdk.jmh.infra.Blackhole;
+
+import net.schwarzbaer.java.tools.sphereoverlap.OverlapEdgeCircle.CircleOverlap;
+import net.schwarzbaer.java.tools.sphereoverlap.SphereOverlap.Sphere;
+
+@State(Scope.Benchmark)
+@BenchmarkMode(Mode.AverageTime)
+@OutputTimeUnit(TimeUnit.NANOSECONDS)
+public class CircleOverlapBenchmark {
+
+	// (distance, r1, r2) of the sphere pairs, that the grid offers as neighbours
+	// -> the same mix of separated, overlapping and nested pairs as in a real run
+
+	@Param({"1000"}) int sphereCount;
+	@Param({"0.5", "2", "8"}) double density;
+
+	private double[] distance, r1, r2;
+
+	@Setup public void setup() {
+		Sphere[] spheres = BenchmarkSpheres.create(sphereCount, 0, density);
+		SphereGrid grid = new SphereGrid(spheres);
+		IndexList pairs = new IndexList();
+		for (int i=0; i<spheres.length; i++) {
+			int i_ = i;
+			grid.forEachIntersecting(i, j->{ if (i_<j) { pairs.add(i_); pairs.add(j); } });
+		}
+		int n = pairs.size()/2;
+		distance = new double[n];
+		r1 = new double[n];
+		r2 = new double[n];
+		for (int p=0; p<n; p++) {
+			Sphere sp1 = spheres[pairs.get(p*2)];
+			Sphere sp2 = spheres[pairs.get(p*2+1)];
+			distance[p] = sp1.center.getDistance(sp2.center);
+			r1[p] = sp1.radius;
+			r2[p] = sp2.radius;
+		}
+	}
+
+	@Benchmark public void compute(Blackhole bh) {
+		for (int p=0; p<distance.length; p++)
+			bh.consume(CircleOverlap.compute(distance[p], r1[p], r2[p]));
+	}
+
+	@Benchmark public void computePrimitive(Blackhole bh) {
+		// the object free variant used by OverlapEdgeCircle.cutOut
+		for (int p=0; p<distance.length; p++) {
+			double d = distance[p];
+			if (CircleOverlap.isNoOverlap(d, r1[p], r2[p]) || CircleOverlap.isFullCoverage(d, r1[p], r2[p])) continue;
+			double height = CircleOverlap.computeHeight(d, r1[p], r2[p]);
+			bh.consume(CircleOverlap.computePos(d, r1[p], r2[p], height));
+		}
+	}
+}
@@ -0,0 +1,49 @@
+package net.schwarzbaer.java.tools.sphereoverlap;
+
+import java.util.Random;
+import java.util.concurrent.TimeUnit;
+
+import org.openjdk.jmh.annotations.Benchmark;
+import org.openjdk.jmh.annotations.BenchmarkMode;
+import org.openjdk.jmh.annotations.Mode;
+import org.openjdk.jmh.annotations.OutputTimeUnit;
+import org.openjdk.jmh.annotations.Param;
+import org.openjdk.jmh.annotations.Scope;
+import org.openjdk.jmh.annotations.Setup;
+import org.openjdk.jmh.annotations.State;
+
+@State(Scope.Benchmark)
+@BenchmarkMode(Mode.AverageTime)
+@OutputTimeUnit(TimeUnit.MICROSECONDS)
+public class CoverageQueryBenchmark {
+
+	// queries at random points in the cube of the spheres, each invocation runs a batch of QUERIES points
+
+	private static final int QUERIES = 1000;
+
+	@Param({"100", "1000", "10000"}) int sphereCount;
+	@Param({"0.5", "2", "8"}) double density;
+
+	private CoverageIndex index;
+	private double[] xyz;
+
+	@Setup public void setup() {
+		ParallelEngine engine = new ParallelEngine(1);
+		index = CoverageIndex.build(BenchmarkSpheres.create(sphereCount, 1, density), engine);
+		engine.shutdown();
+
+		double size = BenchmarkSpheres.getCubeSize(sphereCount, density);
+		Random random = new Random(BenchmarkSpheres.SEED);
+		xyz = new double[QUERIES*3];
+		for (int i=0; i<xyz.length; i++)
+			xyz[i] = (random.nextDouble()-0.5)*size;
+	}
+
+	@Benchmark public int[] depths() {
+		return index.getDepths(xyz);
+	}
+
+	@Benchmark public CoverageIndex.ExposedPoint[] nearestExposedPoints() {
+		return index.getNearestExposedPoints(xyz);
+	}
+}
@@ -0,0 +1,46 @@
+package net.schwarzbaer.java.tools.sphereoverlap;
+
+import java.util.BitSet;
+import java.util.concurrent.TimeUnit;
+
+import org.openjdk.jmh.annotations.Benchmark;
+import org.openjdk.jmh.annotations.BenchmarkMode;
+import org.openjdk.jmh.annotations.Mode;
+import org.openjdk.jmh.annotations.OutputTimeUnit;
+import org.openjdk.jmh.annotations.Param;
+import org.openjdk.jmh.annotations.Scope;
+import org.openjdk.jmh.annotations.Setup;
+import org.openjdk.jmh.annotations.State;
+
+@State(Scope.Benchmark)
+@BenchmarkMode(Mode.AverageTime)
+@OutputTimeUnit(TimeUnit.MICROSECONDS)
+public class CullingKernelBenchmark {
+
+	// one template against one sphere, that covers about a third of its points
+
+	@Param({"100", "1000", "4000"}) int pointsPerSphere;
+
+	private SphereTemplates.Template template;
+	private CullingKernel scalar;
+	private BitSet covered;
+
+	@Setup public void setup() {
+		template = SphereTemplates.get(pointsPerSphere);
+		scalar = new CullingKernel.Scalar();
+		covered = new BitSet(template.size());
+	}
+
+	@Benchmark public BitSet scalar() {
+		covered.clear();
+		scalar.markCovered(template.x, template.y, template.z, 1, 0, 0, -0.3, covered);
+		return covered;
+	}
+
+	@Benchmark public BitSet selected() {
+		// VectorCullingKernel, if jdk.incubator.vector is available
+		covered.clear();
+		CullingKernel.INSTANCE.markCovered(template.x, template.y, template.z, 1, 0, 0, -0.3, covered);
+		return covered;
+	}
+}
@@ -0,0 +1,61 @@
+package net.schwarzbaer.java.tools.sphereoverlap;
+
+import java.util.Vector;
+import java.util.concurrent.TimeUnit;
+
+import org.openjdk.jmh.annotations.Benchmark;
+import org.openjdk.jmh.annotations.BenchmarkMode;
+import org.openjdk.jmh.annotations.Mode;
+import org.openjdk.jmh.annotations.OutputTimeUnit;
+import org.openjdk.jmh.annotations.Param;
+import org.openjdk.jmh.annotations.Scope;
+import org.openjdk.jmh.annotations.Setup;
+import org.openjdk.jmh.annotations.State;
+import org.openjdk.jmh.annotations.TearDown;
+
+import net.schwarzbaer.java.tools.sphereoverlap.SphereOverlap.Sphere;
+
+@State(Scope.Benchmark)
+@BenchmarkMode(Mode.AverageTime)
+@OutputTimeUnit(TimeUnit.MILLISECONDS)
+public class EdgeCircleBenchmark {
+
+	// edge circles don't need surface points -> spheres without points, up to 100k of them
+
+	@Param({"10", "100", "1000", "10000", "100000"}) int sphereCount;
+	@Param({"0.5", "2", "8"}) double density;
+	@Param({"1"}) int threads;
+
+	private Sphere[] spheres;
+	private SphereGrid grid;
+	private ParallelEngine engine;
+	private Vector<OverlapEdgeCircle> circles;
+
+	@Setup public void setup() {
+		spheres = BenchmarkSpheres.create(sphereCount, 0, density);
+		grid = new SphereGrid(spheres);
+		engine = new ParallelEngine(threads);
+		circles = OverlapEdgeCircle.computeAll(spheres, grid, engine);
+	}
+
+	@TearDown public void tearDown() {
+		engine.shutdown();
+	}
+
+	@Benchmark public Vector<OverlapEdgeCircle> computeAll() {
+		return OverlapEdgeCircle.computeAll(spheres, grid, engine);
+	}
+
+	@Benchmark public BoundaryArrangement buildArrangement() {
+		// same circles and arcs as computeAll, plus shared triple point vertices and boundary loops
+		return BoundaryArrangement.build(spheres, grid, engine);
+	}
+
+	@Benchmark public EdgeLineSet createLineSetFixed() {
+		return EdgeLineSet.create(circles, ArcTessellation.fixed(OverlapEdgeCircle.ARC_SEGMENTS));
+	}
+
+	@Benchmark public EdgeLineSet createLineSetAdaptive() {
+		return EdgeLineSet.create(circles, ArcTessellation.adaptive(ArcTessellation.DEFAULT_CHORD_ERROR));
+	}
+}
@@ -0,0 +1,48 @@
+package net.schwarzbaer.java.tools.sphereoverlap;
+
+import java.util.concurrent.TimeUnit;
+
+import org.openjdk.jmh.annotations.Benchmark;
+import org.openjdk.jmh.annotations.BenchmarkMode;
+import org.openjdk.jmh.annotations.Mode;
+import org.openjdk.jmh.annotations.OutputTimeUnit;
+import org.openjdk.jmh.annotations.Param;
+import org.openjdk.jmh.annotations.Scope;
+import org.openjdk.jmh.annotations.Setup;
+import org.openjdk.jmh.annotations.State;
+import org.openjdk.jmh.annotations.TearDown;
+
+import net.schwarzbaer.java.tools.sphereoverlap.SphereOverlap.Sphere;
+
+@State(Scope.Benchmark)
+@BenchmarkMode(Mode.AverageTime)
+@OutputTimeUnit(TimeUnit.MILLISECONDS)
+public class RemoveOverlapLargeBenchmark {
+
+	// RemoveOverlapBenchmark with 100k spheres, only with the small point counts
+	// (JMH runs all combinations of the parameters, 100k spheres with 4000 points each would need several GB)
+
+	@Param({"100000"}) int sphereCount;
+	@Param({"100", "1000"}) int pointsPerSphere;
+	@Param({"0.5", "2", "8"}) double density;
+	@Param({"1"}) int threads;
+
+	private Sphere[] spheres;
+	private SphereGrid grid;
+	private ParallelEngine engine;
+
+	@Setup public void setup() {
+		spheres = BenchmarkSpheres.create(sphereCount, pointsPerSphere, density);
+		grid = new SphereGrid(spheres);
+		engine = new ParallelEngine(threads);
+	}
+
+	@TearDown public void tearDown() {
+		engine.shutdown();
+	}
+
+	@Benchmark public Sphere[] removeOverlap() {
+		SphereOverlap.removeOverlap(spheres, grid, engine);
+		return spheres;
+	}
+}
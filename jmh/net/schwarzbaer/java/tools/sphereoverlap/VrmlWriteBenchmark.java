@@ -0,0 +1,73 @@
+package net.schwarzbaer.java.tools.sphereoverlap;
+
+import java.awt.Color;
+import java.io.File;
+import java.io.IOException;
+import java.util.concurrent.TimeUnit;
+
+import org.openjdk.jmh.annotations.Benchmark;
+import org.openjdk.jmh.annotations.BenchmarkMode;
+import org.openjdk.jmh.annotations.Mode;
+import org.openjdk.jmh.annotations.OutputTimeUnit;
+import org.openjdk.jmh.annotations.Param;
+import org.openjdk.jmh.annotations.Scope;
+import org.openjdk.jmh.annotations.Setup;
+import org.openjdk.jmh.annotations.State;
+import org.openjdk.jmh.annotations.TearDown;
+
+import net.schwarzbaer.java.tools.sphereoverlap.SphereOverlap.Sphere;
+
+@State(Scope.Benchmark)
+@BenchmarkMode(Mode.AverageTime)
+@OutputTimeUnit(TimeUnit.MILLISECONDS)
+public class VrmlWriteBenchmark {
+
+	// writes the surviving points of a culled sphere set into a temp file
+	// with the library writer (VrmlTools + IndexedFaceSet), the streaming VRML writer and the PLY writer
+
+	private static final String COORD_FORMAT = "%1.3f";
+	private static final double POINT_SIZE = 1;
+
+	@Param({"10", "100", "1000"}) int sphereCount;
+	@Param({"100", "1000", "4000"}) int pointsPerSphere;
+	@Param({"0.5", "2", "8"}) double density;
+
+	private Sphere[] spheres;
+	private SphereGrid grid;
+	private EdgeLineSet edges;
+	private File file;
+
+	@Setup public void setup() throws IOException {
+		spheres = BenchmarkSpheres.create(sphereCount, pointsPerSphere, density);
+		grid = new SphereGrid(spheres);
+		ParallelEngine engine = new ParallelEngine(1);
+		SphereOverlap.removeOverlap(spheres, grid, engine);
+		edges = EdgeLineSet.create(OverlapEdgeCircle.computeAll(spheres, grid, engine), ArcTessellation.adaptive(ArcTessellation.DEFAULT_CHORD_ERROR*POINT_SIZE));
+		file = File.createTempFile("SphereOverlapBenchmark", ".wrl");
+	}
+
+	@TearDown public void tearDown() {
+		file.delete();
+	}
+
+	@Benchmark public long writeLibraryVRML() {
+		SphereOverlap.writeToVRMLasPointFaces(file, spheres, POINT_SIZE, COORD_FORMAT, Color.GREEN, null);
+		return file.length();
+	}
+
+	@Benchmark public long writeStreamingVRML() {
+		VrmlStreamWriter.writePointFaces(file, spheres, POINT_SIZE, COORD_FORMAT, Color.GREEN, null);
+		return file.length();
+	}
+
+	@Benchmark public long writeSurvivingStreamingVRML() {
+		// culls the points while writing, without the covered masks of removeOverlap
+		VrmlStreamWriter.writeSurvivingPointFaces(file, spheres, grid, POINT_SIZE, COORD_FORMAT, Color.GREEN, new int[spheres.length], null);
+		return file.length();
+	}
+
+	@Benchmark public long writePLY() {
+		PlyWriter.write(file, spheres, POINT_SIZE, edges, null);
+		return file.length();
+	}
+}
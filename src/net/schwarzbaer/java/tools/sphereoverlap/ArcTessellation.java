@@ -0,0 +1,58 @@
+package net.schwarzbaer.java.tools.sphereoverlap;
+
+class ArcTessellation {
+
+	// number of line segments for an arc of an edge circle
+	// fixed:    same count for every arc, however small or big it is
+	// adaptive: as few segments as possible, with a chord error (distance between segment and arc) below a maximum
+
+	static final String PROPERTY = "sphereoverlap.chordError"; // "fixed" or max chord error relative to the point size
+	static final double DEFAULT_CHORD_ERROR = 0.5; // relative to the point size -> the lines don't leave the point faces
+	private static final int MAX_SEGMENTS = 1024;
+
+	private final int fixedSegments;
+	private final double maxChordError;
+
+	private ArcTessellation(int fixedSegments, double maxChordError) {
+		this.fixedSegments = fixedSegments;
+		this.maxChordError = maxChordError;
+	}
+
+	static ArcTessellation fixed(int segments) {
+		if (segments<3) throw new IllegalArgumentException();
+		return new ArcTessellation(segments, Double.NaN);
+	}
+
+	static ArcTessellation adaptive(double maxChordError) {
+		if (!(maxChordError>0)) throw new IllegalArgumentException();
+		return new ArcTessellation(0, maxChordError);
+	}
+
+	static ArcTessellation fromSystemProperty(double pointSize) {
+		String value = System.getProperty(PROPERTY);
+		if (value!=null) {
+			if (value.trim().equalsIgnoreCase("fixed"))
+				return fixed(OverlapEdgeCircle.ARC_SEGMENTS);
+			try {
+				double factor = Double.parseDouble(value.trim());
+				if (factor>0) return adaptive(factor*pointSize);
+			} catch (NumberFormatException e) { /* reported below */ }
+			System.err.printf("Unknown chord error \"%s\" in system property \"%s\" -> use %s%n", value, PROPERTY, DEFAULT_CHORD_ERROR);
+		}
+		return adaptive(DEFAULT_CHORD_ERROR*pointSize);
+	}
+
+	int getSegmentCount(double radius, double span, boolean isFullCircle) {
+		if (fixedSegments>0) return fixedSegments;
+		int minSegments = isFullCircle ? 3 : 1;
+		if (maxChordError >= radius) return minSegments;
+		// chord error of a segment with angle a: radius*(1-cos(a/2))
+		double maxAngle = 2*Math.acos(1 - maxChordError/radius);
+		int n = (int) Math.ceil(span/maxAngle);
+		return Math.max(minSegments, Math.min(n, MAX_SEGMENTS));
+	}
+
+	@Override public String toString() {
+		return fixedSegments>0 ? String.format("ArcTessellation [fixed %d segments]", fixedSegments) : String.format("ArcTessellation [max chord error %s]", maxChordError);
+	}
+}
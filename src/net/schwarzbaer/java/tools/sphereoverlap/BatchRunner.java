@@ -0,0 +1,274 @@
+package net.schwarzbaer.java.tools.sphereoverlap;
+
+import java.awt.Color;
+import java.io.File;
+import java.io.IOException;
+import java.io.PrintWriter;
+import java.io.UncheckedIOException;
+import java.nio.charset.StandardCharsets;
+import java.nio.file.Files;
+import java.util.HashMap;
+import java.util.List;
+import java.util.Locale;
+import java.util.Vector;
+import java.util.concurrent.ExecutionException;
+import java.util.concurrent.ExecutorService;
+import java.util.concurrent.Executors;
+import java.util.concurrent.Future;
+import java.util.concurrent.Semaphore;
+import java.util.function.Function;
+import java.util.function.Supplier;
+
+import net.schwarzbaer.java.tools.sphereoverlap.SphereOverlap.OutputFormat;
+import net.schwarzbaer.java.tools.sphereoverlap.SphereOverlap.Sphere;
+import net.schwarzbaer.java.tools.sphereoverlap.SphereOverlap.TestCase;
+
+class BatchRunner {
+
+	// runs the test cases of a manifest concurrently and writes a summary
+	// manifest: one test case per line, fields separated by ';', empty lines and lines starting with '#' are ignored
+	//    label ; sphere file (SphereFile, relative to the manifest) ; point size ; color (e.g. 0xFF8000) ; output format (empty -> system property) [; point coordinate format]
+	//    the label is the output file name -> unique in the manifest (ignoring case), no path separators
+	// a fixed number of test cases runs at the same time (each one uses the shared ParallelEngine for its phases),
+	// and only a few of them write their output at the same time -> the others wait (WRITE_QUEUE) and hold back the next test cases
+	// a failing test case is reported in the summary, the others aren't affected
+
+	static final String CASES_PROPERTY   = "sphereoverlap.batchCases";
+	static final String WRITERS_PROPERTY = "sphereoverlap.batchWriters";
+	private static final String DEFAULT_POINT_COORD_FORMAT = "%1.3f";
+
+	static class Entry {
+		final int line;
+		final TestCase testCase;
+		final OutputFormat format;
+		final String error; // of the manifest line
+
+		Entry(int line, TestCase testCase, OutputFormat format, String error) {
+			this.line = line;
+			this.testCase = testCase;
+			this.format = format;
+			this.error = error;
+		}
+	}
+
+	static class Result {
+		final Entry entry;
+		final String label;
+		int nSpheres = 0;
+		long nSurvivingPoints = 0;
+		OverlapMetrics metrics = null;
+		String error = null;
+
+		Result(Entry entry, String label) {
+			this.entry = entry;
+			this.label = label;
+		}
+
+		boolean isOk() {
+			return error==null;
+		}
+	}
+
+	static void run(File manifest, File outputFolder, ParallelEngine engine) {
+		Vector<Entry> entries;
+		try {
+			entries = readManifest(manifest);
+		} catch (IOException e) {
+			System.err.printf("IOException while reading \"%s\": %s%n", manifest.getAbsolutePath(), e.getMessage());
+			return;
+		}
+		if (!outputFolder.isDirectory() && !outputFolder.mkdirs()) {
+			System.err.printf("Can't create folder \"%s\"%n", outputFolder.getAbsolutePath());
+			return;
+		}
+
+		int nConcurrentCases = Math.max(1, Integer.getInteger(CASES_PROPERTY, Math.max(2, Runtime.getRuntime().availableProcessors()/4)));
+		int nOutputSlots     = Math.max(1, Integer.getInteger(WRITERS_PROPERTY, 2));
+		Semaphore outputSlots = new Semaphore(nOutputSlots, true);
+
+		long start = System.nanoTime();
+		ExecutorService executor = Executors.newFixedThreadPool(nConcurrentCases);
+		Vector<Future<Result>> futures = new Vector<>();
+		for (Entry entry : entries) {
+			if (entry.testCase!=null) entry.testCase.outputFolder = outputFolder;
+			futures.add(executor.submit(()->runCase(entry, engine, outputSlots)));
+		}
+		executor.shutdown();
+
+		Vector<Result> results = new Vector<>();
+		for (int i=0; i<entries.size(); i++) {
+			Entry entry = entries.get(i);
+			try {
+				results.add(futures.get(i).get());
+			} catch (InterruptedException | ExecutionException e) {
+				// runCase catches everything, that isn't an Error
+				Result result = new Result(entry, entry.testCase==null ? "line "+entry.line : entry.testCase.label);
+				result.error = e.getCause()!=null ? e.getCause().toString() : e.toString();
+				results.add(result);
+			}
+		}
+		double totalSeconds = (System.nanoTime()-start)/1e9;
+
+		File summaryFile = new File(outputFolder, "batch_summary.txt");
+		try (PrintWriter out = new PrintWriter(summaryFile, StandardCharsets.UTF_8)) {
+			writeSummary(out, manifest, results, nConcurrentCases, nOutputSlots, totalSeconds);
+		} catch (IOException e) {
+			System.err.printf("IOException while writing \"%s\": %s%n", summaryFile.getAbsolutePath(), e.getMessage());
+		}
+		PrintWriter out = new PrintWriter(System.out);
+		writeSummary(out, manifest, results, nConcurrentCases, nOutputSlots, totalSeconds);
+		out.flush();
+	}
+
+	static Result runCase(Entry entry, ParallelEngine engine, Semaphore outputSlots) {
+		if (entry.testCase==null) {
+			Result result = new Result(entry, "line "+entry.line);
+			result.error = entry.error;
+			System.err.printf("Wrong manifest entry: %s%n", result.error);
+			return result;
+		}
+		TestCase tc = entry.testCase;
+		Result result = new Result(entry, tc.label);
+		try {
+			result.metrics = SphereOverlap.run(tc, entry.format, engine, outputSlots);
+			result.nSpheres = tc.spheres.length;
+			result.nSurvivingPoints = tc.getSurvivingPointCount();
+			if (tc.outputFile==null || !tc.outputFile.isFile())
+				result.error = "no output written";
+		} catch (UncheckedIOException e) {
+			result.error = e.getMessage();
+		} catch (Exception e) {
+			result.error = e.toString();
+		} finally {
+			tc.spheres = null; // the test case stays in the manifest list, its points are no longer needed
+		}
+		if (!result.isOk())
+			System.err.printf("Test case \"%s\" failed: %s%n", result.label, result.error);
+		return result;
+	}
+
+	private static Vector<Entry> readManifest(File manifest) throws IOException {
+		File folder = manifest.getAbsoluteFile().getParentFile();
+		List<String> lines = Files.readAllLines(manifest.toPath(), StandardCharsets.UTF_8);
+		Vector<Entry> entries = new Vector<>();
+		HashMap<String,Integer> labelLines = new HashMap<>(); // labels are output file names -> unique, also on case-insensitive file systems
+		for (int i=0; i<lines.size(); i++) {
+			String line = lines.get(i).trim();
+			if (line.isEmpty() || line.startsWith("#")) continue;
+			try {
+				Entry entry = parseEntry(i+1, line, name->readSphereFile(folder, name));
+				Integer firstLine = labelLines.putIfAbsent(getLabelKey(entry.testCase.label), i+1);
+				if (firstLine!=null)
+					throw new IllegalArgumentException(String.format("line %d: label \"%s\" is already used in line %d", i+1, entry.testCase.label, firstLine));
+				entries.add(entry);
+			} catch (IllegalArgumentException e) {
+				entries.add(new Entry(i+1, null, null, e.getMessage()));
+			}
+		}
+		return entries;
+	}
+
+	static boolean isValidLabel(String label) {
+		// the output file is <output folder>/<label>.<extension> -> no path separators, nothing that leaves the folder
+		if (label.equals(".") || label.equals("..")) return false;
+		for (int i=0; i<label.length(); i++) {
+			char ch = label.charAt(i);
+			if (ch=='/' || ch=='\\' || ch==':' || ch<' ') return false;
+		}
+		return new File(label).getName().equals(label);
+	}
+
+	static String getLabelKey(String label) {
+		return label.toLowerCase(Locale.ENGLISH);
+	}
+
+	static Supplier<Sphere[]> readSphereFile(File folder, String name) {
+		File file = new File(name);
+		if (!file.isAbsolute()) file = new File(folder, name);
+		File file_ = file;
+		return ()->{
+			try {
+				return SphereFile.open(file_).createSpheres();
+			} catch (IOException e) {
+				throw new UncheckedIOException(String.format("IOException while reading \"%s\": %s", file_.getAbsolutePath(), e.getMessage()), e);
+			}
+		};
+	}
+
+	static Entry parseEntry(int lineNumber, String line, Function<String,Supplier<Sphere[]>> sphereSource) {
+		// sphereSource: sphere field -> spheres of the test case
+		String[] fields = line.split(";", -1);
+		for (int i=0; i<fields.length; i++)
+			fields[i] = fields[i].trim();
+		if (fields.length<5 || fields.length>6)
+			throw new IllegalArgumentException(String.format("line %d: 5 or 6 fields expected, found %d", lineNumber, fields.length));
+
+		String label = fields[0];
+		if (label.isEmpty())
+			throw new IllegalArgumentException(String.format("line %d: empty label", lineNumber));
+		if (!isValidLabel(label))
+			throw new IllegalArgumentException(String.format("line %d: label \"%s\" isn't usable as a file name in the output folder", lineNumber, label));
+
+		double pointSize;
+		Color color;
+		OutputFormat format;
+		try {
+			pointSize = Double.parseDouble(fields[2]);
+			color = Color.decode(fields[3]);
+		} catch (NumberFormatException e) {
+			throw new IllegalArgumentException(String.format("line %d: wrong number (%s)", lineNumber, e.getMessage()));
+		}
+		try {
+			format = fields[4].isEmpty() ? OutputFormat.fromSystemProperty() : OutputFormat.valueOf(fields[4].toUpperCase(Locale.ENGLISH).replace('-', '_'));
+		} catch (IllegalArgumentException e) {
+			throw new IllegalArgumentException(String.format("line %d: unknown output format \"%s\"", lineNumber, fields[4]));
+		}
+		String pointCoordFormat = fields.length>5 && !fields[5].isEmpty() ? fields[5] : DEFAULT_POINT_COORD_FORMAT;
+
+		TestCase tc = new TestCase(label, pointSize, pointCoordFormat, color, sphereSource.apply(fields[1]));
+		return new Entry(lineNumber, tc, format, null);
+	}
+
+	private static void writeSummary(PrintWriter out, File manifest, Vector<Result> results, int nConcurrentCases, int nOutputSlots, double totalSeconds) {
+		int nFailed = 0;
+		for (Result result : results)
+			if (!result.isOk()) nFailed++;
+		out.printf(Locale.ENGLISH, "Batch \"%s\": %d test cases, %d ok, %d failed (%d concurrent, %d output slots) in %1.1f s%n",
+				manifest.getName(), results.size(), results.size()-nFailed, nFailed, nConcurrentCases, nOutputSlots, totalSeconds);
+
+		out.printf("%-30s %10s %16s %12s", "test case", "spheres", "surviving points", "total ms");
+		for (OverlapMetrics.Phase phase : OverlapMetrics.Phase.values())
+			out.printf(" %16s", phase);
+		if (OverlapMetrics.ENABLED)
+			for (OverlapMetrics.Counter counter : OverlapMetrics.Counter.values())
+				out.printf(" %26s", counter);
+		out.printf("   %s%n", "output / error");
+
+		for (Result result : results) {
+			out.printf(Locale.ENGLISH, "%-30s %10d %16d", result.label, result.nSpheres, result.nSurvivingPoints);
+			if (result.metrics==null) {
+				out.printf(" %12s", "-");
+				for (int i=0; i<OverlapMetrics.Phase.values().length; i++)
+					out.printf(" %16s", "-");
+				if (OverlapMetrics.ENABLED)
+					for (int i=0; i<OverlapMetrics.Counter.values().length; i++)
+						out.printf(" %26s", "-");
+			} else {
+				long totalNanos = 0;
+				for (OverlapMetrics.Phase phase : OverlapMetrics.Phase.values())
+					totalNanos += result.metrics.getPhaseNanos(phase);
+				out.printf(Locale.ENGLISH, " %12.1f", totalNanos/1e6);
+				for (OverlapMetrics.Phase phase : OverlapMetrics.Phase.values())
+					out.printf(Locale.ENGLISH, " %16.1f", result.metrics.getPhaseNanos(phase)/1e6);
+				// counters of this test case only, also while other test cases run
+				if (OverlapMetrics.ENABLED)
+					for (OverlapMetrics.Counter counter : OverlapMetrics.Counter.values())
+						out.printf(" %26d", result.metrics.get(counter));
+			}
+			if (result.isOk())
+				out.printf("   %s%n", result.entry.testCase.outputFile.getName());
+			else
+				out.printf("   FAILED: %s%n", result.error);
+		}
+	}
+}
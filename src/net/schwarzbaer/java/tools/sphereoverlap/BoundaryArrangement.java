@@ -0,0 +1,434 @@
+package net.schwarzbaer.java.tools.sphereoverlap;
+
+import java.util.Arrays;
+import java.util.HashMap;
+import java.util.HashSet;
+import java.util.Vector;
+
+import net.schwarzbaer.java.tools.sphereoverlap.SphereOverlap.Sphere;
+
+class BoundaryArrangement {
+
+	// boundary of the union of all spheres as a connected graph:
+	//    vertices  points, where 3 spheres meet (triple points), computed analytically from the 3 spheres
+	//    arcs      remaining parts of the edge circles, each arc runs from one vertex to another one (or is a full circle)
+	//    loops     closed chains of arcs around the exposed regions of each sphere
+	// a circle isn't trimmed by a cut-out per sphere (OverlapEdgeCircle.compute), but at once:
+	// the angle ranges of all spheres, that reach the circle, are sorted and merged -> the gaps are the remaining arcs
+	// and each end of a gap is the triple point of the circle's spheres with the sphere, whose range ends there
+	// each triple point gets one vertex, that is shared by the 3 circles through it
+	// a sphere, that reaches a point of the circle of spheres i,j, overlaps i and j
+	// -> the candidates of a circle are the common neighbours of i and j (merge of 2 sorted lists instead of a grid query per circle)
+
+	static final String PROPERTY = "sphereoverlap.arrangement";
+	static final boolean ENABLED = Boolean.getBoolean(PROPERTY);
+
+	final Vector<OverlapEdgeCircle> circles; // with their remaining arcs, same order as OverlapEdgeCircle.computeAll
+	private final double[] vertices;         // x,y,z
+	private final int[] vertexSpheres;       // the 3 spheres of each vertex (ascending)
+	private final int[] arcStart;            // first arc of circle c: arcStart[c], arcs of a circle are numbered like its arcs (getArcMin(a), getArcMax(a))
+	private final int[] arcVertices;         // vertex at min and at max of each arc, -1 for full circles
+	private final int[] arcCircles;          // circle of each arc
+	final IndexList loops;                   // per loop: arc*2 (+1, if the arc runs from max to min), terminated by -1
+	private final int[] loopStart;           // loops of sphere s: loops[ loopStart[s] .. loopStart[s+1]-1 ]
+	final int openLoopCount;                 // chains, that don't close (degenerate configurations, e.g. 4 spheres through one point)
+
+	private BoundaryArrangement(Vector<OverlapEdgeCircle> circles, double[] vertices, int[] vertexSpheres, int[] arcStart, int[] arcVertices, IndexList loops, int[] loopStart, int openLoopCount) {
+		this.circles = circles;
+		this.vertices = vertices;
+		this.vertexSpheres = vertexSpheres;
+		this.arcStart = arcStart;
+		this.arcVertices = arcVertices;
+		this.loops = loops;
+		this.loopStart = loopStart;
+		this.openLoopCount = openLoopCount;
+		arcCircles = new int[getArcCount()];
+		for (int c=0; c<circles.size(); c++)
+			Arrays.fill(arcCircles, arcStart[c], arcStart[c+1], c);
+	}
+
+	@Override public String toString() {
+		return String.format("BoundaryArrangement [%d circles, %d arcs, %d vertices, %d open loops]", circles.size(), getArcCount(), getVertexCount(), openLoopCount);
+	}
+
+	int getVertexCount() { return vertexSpheres.length/3; }
+	double getX(int v) { return vertices[v*3  ]; }
+	double getY(int v) { return vertices[v*3+1]; }
+	double getZ(int v) { return vertices[v*3+2]; }
+	int getVertexSphere(int v, int k) { return vertexSpheres[v*3+k]; }
+
+	int getArcCount() { return arcVertices.length/2; }
+	int getFirstArc(int circle) { return arcStart[circle]; }
+	int getArcMinVertex(int arc) { return arcVertices[arc*2  ]; }
+	int getArcMaxVertex(int arc) { return arcVertices[arc*2+1]; }
+	int getArcCircle(int arc) { return arcCircles[arc]; }
+
+	int getSphereCount() { return loopStart.length-1; }
+	int getLoopStart(int sphere) { return loopStart[sphere]; }
+	int getLoopEnd  (int sphere) { return loopStart[sphere+1]; }
+
+	private static class VertexKey {
+		final int a, b, c; // spheres, ascending
+		final boolean side; // side of the plane through the 3 centers
+
+		VertexKey(int i, int j, int k, boolean side) {
+			a = Math.min(i, Math.min(j, k));
+			c = Math.max(i, Math.max(j, k));
+			b = i+j+k-a-c;
+			this.side = side;
+		}
+
+		@Override public int hashCode() {
+			return ((a*31 + b)*31 + c)*2 + (side ? 1 : 0);
+		}
+
+		@Override public boolean equals(Object obj) {
+			if (!(obj instanceof VertexKey)) return false;
+			VertexKey other = (VertexKey) obj;
+			return a==other.a && b==other.b && c==other.c && side==other.side;
+		}
+	}
+
+	private static class CircleArcs {
+		// result of one circle: remaining arcs and the spheres, that end them (no arcs for a full circle)
+		final OverlapEdgeCircle circle;
+		double[] arcs = new double[8];
+		int[] arcSpheres = new int[8]; // sphere at min and at max
+		boolean[] arcSides = new boolean[8];
+		int size = 0;
+
+		CircleArcs(OverlapEdgeCircle circle) {
+			this.circle = circle;
+		}
+
+		void add(double min, double max, int sphereAtMin, boolean sideAtMin, int sphereAtMax, boolean sideAtMax) {
+			if (arcs.length < (size+1)*2) {
+				arcs       = Arrays.copyOf(arcs      , arcs.length*2);
+				arcSpheres = Arrays.copyOf(arcSpheres, arcs.length);
+				arcSides   = Arrays.copyOf(arcSides  , arcs.length);
+			}
+			arcs[size*2  ] = min;         arcs[size*2+1] = max;
+			arcSpheres[size*2  ] = sphereAtMin; arcSpheres[size*2+1] = sphereAtMax;
+			arcSides  [size*2  ] = sideAtMin;   arcSides  [size*2+1] = sideAtMax;
+			size++;
+		}
+	}
+
+	static BoundaryArrangement build(Sphere[] spheres, SphereGrid grid, ParallelEngine engine) {
+		// overlapping spheres of each sphere, sorted
+		IndexList[] neighbourLists = new IndexList[spheres.length];
+		engine.forEach(spheres.length, i->{
+			IndexList list = new IndexList();
+			Sphere sp = spheres[i];
+			grid.forEachIntersecting(i, j->{
+				if (!OverlapEdgeCircle.CircleOverlap.isNoOverlap(sp.center.getDistance(spheres[j].center), sp.radius, spheres[j].radius))
+					list.add(j);
+			});
+			list.sort();
+			neighbourLists[i] = list;
+		});
+		int[] neighbourStart = new int[spheres.length+1];
+		for (int i=0; i<spheres.length; i++)
+			neighbourStart[i+1] = neighbourStart[i] + neighbourLists[i].size();
+		int[] neighbours = new int[neighbourStart[spheres.length]];
+		for (int i=0; i<spheres.length; i++) {
+			for (int k=0; k<neighbourLists[i].size(); k++)
+				neighbours[neighbourStart[i]+k] = neighbourLists[i].get(k);
+			neighbourLists[i] = null;
+		}
+
+		// circles and their arcs: one fragment per first sphere of a pair, merged in index order (like OverlapEdgeCircle.computeAll)
+		@SuppressWarnings({"unchecked","rawtypes"})
+		Vector<CircleArcs>[] fragments = new Vector[spheres.length];
+		engine.forEach(spheres.length, i->{
+			IndexList candidates = new IndexList();
+			CutList cuts = new CutList();
+			Vector<CircleArcs> fragment = new Vector<>();
+			for (int k=neighbourStart[i]; k<neighbourStart[i+1]; k++) {
+				int j = neighbours[k];
+				if (j<i) continue;
+				CircleArcs result = computeArcs(spheres, i, j, neighbours, neighbourStart, candidates, cuts);
+				if (result!=null) fragment.add(result);
+			}
+			fragments[i] = fragment;
+		});
+
+		// vertices are numbered in circle order --> same result for any thread count
+		Vector<OverlapEdgeCircle> circles = new Vector<>();
+		HashMap<VertexKey,Integer> vertexIndices = new HashMap<>();
+		double[] vertices = new double[3*64];
+		IndexList vertexSpheres = new IndexList();
+		IndexList arcVertices = new IndexList();
+		IndexList arcStart = new IndexList();
+		double[] xyz = new double[3];
+		for (Vector<CircleArcs> fragment : fragments)
+			for (CircleArcs result : fragment) {
+				OverlapEdgeCircle circle = result.circle;
+				arcStart.add(arcVertices.size()/2);
+				circles.add(circle);
+				if (circle.isFullCircle()) {
+					arcVertices.add(-1);
+					arcVertices.add(-1);
+					continue;
+				}
+				for (int e=0; e<result.size*2; e++) {
+					VertexKey key = new VertexKey(circle.index1, circle.index2, result.arcSpheres[e], result.arcSides[e]);
+					Integer v = vertexIndices.get(key);
+					if (v==null) {
+						v = vertexSpheres.size()/3;
+						vertexIndices.put(key, v);
+						if (vertices.length < (v+1)*3)
+							vertices = Arrays.copyOf(vertices, vertices.length*2);
+						computeTriplePoint(spheres[key.a], spheres[key.b], spheres[key.c], key.side, xyz);
+						vertices[v*3  ] = xyz[0];
+						vertices[v*3+1] = xyz[1];
+						vertices[v*3+2] = xyz[2];
+						vertexSpheres.add(key.a);
+						vertexSpheres.add(key.b);
+						vertexSpheres.add(key.c);
+					}
+					arcVertices.add(v);
+				}
+			}
+		arcStart.add(arcVertices.size()/2);
+
+		int[] arcStartArray = toArray(arcStart);
+		int[] arcVerticesArray = toArray(arcVertices);
+		int nVertices = vertexSpheres.size()/3;
+
+		// loops of each sphere
+		IndexList[] circlesOfSphere = new IndexList[spheres.length];
+		for (int s=0; s<spheres.length; s++)
+			circlesOfSphere[s] = new IndexList();
+		for (int c=0; c<circles.size(); c++) {
+			circlesOfSphere[circles.get(c).index1].add(c);
+			circlesOfSphere[circles.get(c).index2].add(c);
+		}
+		IndexList[] loopsOfSphere = new IndexList[spheres.length];
+		int[] openLoops = new int[spheres.length];
+		engine.forEach(spheres.length, s->{
+			loopsOfSphere[s] = new IndexList();
+			if (circlesOfSphere[s].size()>0)
+				openLoops[s] = buildLoops(s, circles, circlesOfSphere[s], arcStartArray, arcVerticesArray, loopsOfSphere[s]);
+		});
+
+		IndexList loops = new IndexList();
+		int[] loopStart = new int[spheres.length+1];
+		int openLoopCount = 0;
+		for (int s=0; s<spheres.length; s++) {
+			loopStart[s] = loops.size();
+			for (int k=0; k<loopsOfSphere[s].size(); k++)
+				loops.add(loopsOfSphere[s].get(k));
+			openLoopCount += openLoops[s];
+		}
+		loopStart[spheres.length] = loops.size();
+
+		return new BoundaryArrangement(circles, Arrays.copyOf(vertices, nVertices*3), toArray(vertexSpheres), arcStartArray, arcVerticesArray, loops, loopStart, openLoopCount);
+	}
+
+	private static int[] toArray(IndexList list) {
+		int[] array = new int[list.size()];
+		for (int i=0; i<array.length; i++)
+			array[i] = list.get(i);
+		return array;
+	}
+
+	private static class CutList {
+		// angle ranges [min,max) of the spheres, that cut a circle, normalized to [0,2PI) (a range over 2PI is split)
+		double[] bounds = new double[16];
+		int[] spheres = new int[8];
+		int[] order = new int[8];
+		int size = 0;
+
+		void clear() {
+			size = 0;
+		}
+
+		void add(double min, double max, int sphere) {
+			double shift = Math.floor(min/(2*Math.PI))*2*Math.PI;
+			min -= shift;
+			max -= shift;
+			if (max > 2*Math.PI) {
+				put(min, 2*Math.PI, sphere);
+				put(0, max-2*Math.PI, sphere);
+			} else
+				put(min, max, sphere);
+		}
+
+		private void put(double min, double max, int sphere) {
+			if (spheres.length == size) {
+				bounds  = Arrays.copyOf(bounds , size*4);
+				spheres = Arrays.copyOf(spheres, size*2);
+				order   = Arrays.copyOf(order  , size*2);
+			}
+			bounds[size*2  ] = min;
+			bounds[size*2+1] = max;
+			spheres[size] = sphere;
+			order[size] = size;
+			size++;
+		}
+
+		void sort() {
+			// insertion sort of the indices by min -> a circle is cut by a few spheres only
+			for (int k=1; k<size; k++) {
+				int c = order[k];
+				double min = bounds[c*2];
+				int m = k;
+				for (; m>0 && bounds[order[m-1]*2] > min; m--)
+					order[m] = order[m-1];
+				order[m] = c;
+			}
+		}
+	}
+
+	private static CircleArcs computeArcs(Sphere[] spheres, int index1, int index2, int[] neighbours, int[] neighbourStart, IndexList candidates, CutList cuts) {
+		OverlapEdgeCircle circle = OverlapEdgeCircle.compute(spheres, index1, index2);
+		if (circle==null) return null;
+
+		// common neighbours, that reach the circle (same test as OverlapEdgeCircle.compute)
+		candidates.clear();
+		int k1 = neighbourStart[index1], end1 = neighbourStart[index1+1];
+		int k2 = neighbourStart[index2], end2 = neighbourStart[index2+1];
+		while (k1<end1 && k2<end2) {
+			int n1 = neighbours[k1], n2 = neighbours[k2];
+			if (n1<n2) { k1++; continue; }
+			if (n2<n1) { k2++; continue; }
+			Sphere sp = spheres[n1];
+			if (sp.center.getDistance(circle.pos) < sp.radius + circle.radius)
+				candidates.add(n1);
+			k1++;
+			k2++;
+		}
+
+		cuts.clear();
+		double[] cut = new double[2];
+		for (int k=0; k<candidates.size(); k++) {
+			int sphere = candidates.get(k);
+			switch (circle.computeCut(spheres[sphere], cut)) {
+			case OverlapEdgeCircle.CUT_NONE: break;
+			case OverlapEdgeCircle.CUT_ALL : return null;
+			case OverlapEdgeCircle.CUT_ARC : cuts.add(cut[0], cut[1], sphere); break;
+			}
+		}
+		CircleArcs result = new CircleArcs(circle);
+		if (cuts.size==0) return result; // full circle
+
+		// gaps between the merged ranges
+		cuts.sort();
+		double[] arcs = new double[2*cuts.size+2];
+		int[] arcSpheres = new int[2*cuts.size+2];
+		int nArcs = 0;
+		double coveredTo = Double.NEGATIVE_INFINITY;
+		int coveredToSphere = -1;
+		for (int k=0; k<cuts.size; k++) {
+			int c = cuts.order[k];
+			double min = cuts.bounds[c*2], max = cuts.bounds[c*2+1];
+			if (coveredToSphere>=0 && coveredTo < min) {
+				arcs[nArcs*2] = coveredTo; arcs[nArcs*2+1] = min;
+				arcSpheres[nArcs*2] = coveredToSphere; arcSpheres[nArcs*2+1] = cuts.spheres[c];
+				nArcs++;
+			}
+			if (coveredToSphere<0 || coveredTo < max) {
+				coveredTo = max;
+				coveredToSphere = cuts.spheres[c];
+			}
+		}
+		// gap over 2PI -> 0
+		int first = cuts.order[0];
+		double firstMin = cuts.bounds[first*2] + 2*Math.PI;
+		if (coveredTo < firstMin) {
+			arcs[nArcs*2] = coveredTo; arcs[nArcs*2+1] = firstMin;
+			arcSpheres[nArcs*2] = coveredToSphere; arcSpheres[nArcs*2+1] = cuts.spheres[first];
+			nArcs++;
+		}
+		if (nArcs==0) return null;
+
+		circle.setArcs(arcs, nArcs);
+		double[] xyz = new double[3];
+		for (int a=0; a<nArcs; a++) {
+			circle.getPointOnCircle(arcs[a*2  ], xyz); boolean sideAtMin = getSide(spheres, index1, index2, arcSpheres[a*2  ], xyz);
+			circle.getPointOnCircle(arcs[a*2+1], xyz); boolean sideAtMax = getSide(spheres, index1, index2, arcSpheres[a*2+1], xyz);
+			result.add(arcs[a*2], arcs[a*2+1], arcSpheres[a*2], sideAtMin, arcSpheres[a*2+1], sideAtMax);
+		}
+		return result;
+	}
+
+	private static boolean getSide(Sphere[] spheres, int i, int j, int k, double[] p) {
+		// side of p relative to the plane through the centers, with the spheres in ascending order (same for all 3 circles of the point)
+		int min = Math.min(i, Math.min(j, k));
+		int max = Math.max(i, Math.max(j, k));
+		Sphere a = spheres[min], b = spheres[i+j+k-min-max], c = spheres[max];
+		double ux = b.center.x-a.center.x, uy = b.center.y-a.center.y, uz = b.center.z-a.center.z;
+		double vx = c.center.x-a.center.x, vy = c.center.y-a.center.y, vz = c.center.z-a.center.z;
+		double wx = p[0]-a.center.x, wy = p[1]-a.center.y, wz = p[2]-a.center.z;
+		return (uy*vz-uz*vy)*wx + (uz*vx-ux*vz)*wy + (ux*vy-uy*vx)*wz > 0;
+	}
+
+	private static void computeTriplePoint(Sphere a, Sphere b, Sphere c, boolean side, double[] xyz) {
+		// trilateration in the frame ex (a->b), ey (towards c), ez = ex × ey
+		// z>0 <=> positive side (determinant of (b-a, c-a, p-a) = |b-a| * j * z, with j>0)
+		double dx = b.center.x-a.center.x, dy = b.center.y-a.center.y, dz = b.center.z-a.center.z;
+		double d = Math.sqrt(dx*dx+dy*dy+dz*dz);
+		double exX = dx/d, exY = dy/d, exZ = dz/d;
+		double cx = c.center.x-a.center.x, cy = c.center.y-a.center.y, cz = c.center.z-a.center.z;
+		double i = exX*cx + exY*cy + exZ*cz;
+		double eyX = cx-i*exX, eyY = cy-i*exY, eyZ = cz-i*exZ;
+		double j = Math.sqrt(eyX*eyX+eyY*eyY+eyZ*eyZ);
+		eyX /= j; eyY /= j; eyZ /= j;
+		double ezX = exY*eyZ-exZ*eyY, ezY = exZ*eyX-exX*eyZ, ezZ = exX*eyY-exY*eyX;
+
+		double ra = a.radius, rb = b.radius, rc = c.radius;
+		double x = (ra*ra - rb*rb + d*d) / (2*d);
+		double y = (ra*ra - rc*rc + i*i + j*j) / (2*j) - i/j*x;
+		double z = Math.sqrt(Math.max(0, ra*ra - x*x - y*y));
+		if (!side) z = -z;
+
+		xyz[0] = a.center.x + x*exX + y*eyX + z*ezX;
+		xyz[1] = a.center.y + x*exY + y*eyY + z*ezY;
+		xyz[2] = a.center.z + x*exZ + y*eyZ + z*ezZ;
+	}
+
+	private static int buildLoops(int s, Vector<OverlapEdgeCircle> circles, IndexList circleIndices, int[] arcStart, int[] arcVertices, IndexList loops) {
+		// arcs of sphere s run with the exposed region on their left (see SurfaceCoverage.getBoundaryDirection)
+		// at each vertex one arc of the sphere ends and one starts
+		HashMap<Integer,Integer> arcFromVertex = new HashMap<>(); // start vertex -> arc*2 + reversed
+		IndexList arcs = new IndexList();
+		for (int k=0; k<circleIndices.size(); k++) {
+			int c = circleIndices.get(k);
+			OverlapEdgeCircle circle = circles.get(c);
+			boolean reversed = SurfaceCoverage.getBoundaryDirection(circle, s) < 0;
+			for (int arc=arcStart[c]; arc<arcStart[c+1]; arc++) {
+				if (arcVertices[arc*2]<0) { // full circle -> loop of its own
+					loops.add(arc*2 + (reversed ? 1 : 0));
+					loops.add(-1);
+					continue;
+				}
+				int startVertex = arcVertices[arc*2 + (reversed ? 1 : 0)];
+				arcFromVertex.put(startVertex, arc*2 + (reversed ? 1 : 0));
+				arcs.add(arc*2 + (reversed ? 1 : 0));
+			}
+		}
+
+		int openLoops = 0;
+		HashSet<Integer> used = new HashSet<>();
+		for (int k=0; k<arcs.size(); k++) {
+			int first = arcs.get(k);
+			if (used.contains(first)) continue;
+			int current = first;
+			while (true) {
+				used.add(current);
+				loops.add(current);
+				int arc = current/2;
+				int endVertex = arcVertices[arc*2 + ((current&1)==0 ? 1 : 0)];
+				Integer next = arcFromVertex.get(endVertex);
+				if (next==null || used.contains(next)) {
+					if (next==null || next!=first) openLoops++;
+					break;
+				}
+				current = next;
+			}
+			loops.add(-1);
+		}
+		return openLoops;
+	}
+}
@@ -0,0 +1,258 @@
+package net.schwarzbaer.java.tools.sphereoverlap;
+
+import java.util.Arrays;
+import java.util.Vector;
+import java.util.function.IntConsumer;
+
+import net.schwarzbaer.java.tools.sphereoverlap.SphereOverlap.Sphere;
+
+public class CoverageIndex {
+
+	// coverage queries on a fixed set of spheres:
+	//    depth            number of spheres, that contain a point (strictly inside, like Sphere.isInside)
+	//    covering spheres indices of these spheres
+	//    nearest exposed  nearest point on the surface of the union of all spheres
+	// built once (SphereGrid + remaining arcs of the edge circles), immutable afterwards -> queries from any number of threads without locks
+	//
+	// nearest exposed point on one sphere: distance to the query point only grows with the angle to the direction of the query point
+	// -> it's the point in that direction, if that one is exposed, otherwise the nearest point on a boundary arc of the sphere
+
+	private final Sphere[] spheres;
+	private final SphereGrid grid;
+	private final Vector<OverlapEdgeCircle> circles;
+	private final int[] circleStart, circleIndices; // circles of sphere i: circleIndices[ circleStart[i] .. circleStart[i+1]-1 ]
+	private final double minX, minY, minZ, maxX, maxY, maxZ; // bounds of all spheres
+	private final double searchStart; // half size of the first search box of a nearest query
+
+	public static class ExposedPoint {
+		public final double x, y, z;
+		public final int sphereIndex;
+		public final double distance; // to the query point
+
+		ExposedPoint(double x, double y, double z, int sphereIndex, double distance) {
+			this.x = x;
+			this.y = y;
+			this.z = z;
+			this.sphereIndex = sphereIndex;
+			this.distance = distance;
+		}
+
+		@Override public String toString() {
+			return String.format("ExposedPoint [%s, %s, %s, sphere=%d, distance=%s]", x, y, z, sphereIndex, distance);
+		}
+	}
+
+	private CoverageIndex(Sphere[] spheres, SphereGrid grid, Vector<OverlapEdgeCircle> circles) {
+		this.spheres = spheres;
+		this.grid = grid;
+		this.circles = circles;
+
+		circleStart = new int[spheres.length+1];
+		for (OverlapEdgeCircle circle : circles) {
+			circleStart[circle.index1+1]++;
+			circleStart[circle.index2+1]++;
+		}
+		for (int i=0; i<spheres.length; i++)
+			circleStart[i+1] += circleStart[i];
+		circleIndices = new int[circleStart[spheres.length]];
+		int[] fill = Arrays.copyOf(circleStart, spheres.length);
+		for (int c=0; c<circles.size(); c++) {
+			OverlapEdgeCircle circle = circles.get(c);
+			circleIndices[fill[circle.index1]++] = c;
+			circleIndices[fill[circle.index2]++] = c;
+		}
+
+		double minX = Double.POSITIVE_INFINITY, minY = Double.POSITIVE_INFINITY, minZ = Double.POSITIVE_INFINITY;
+		double maxX = Double.NEGATIVE_INFINITY, maxY = Double.NEGATIVE_INFINITY, maxZ = Double.NEGATIVE_INFINITY;
+		double sumRadius = 0;
+		for (Sphere sp : spheres) {
+			minX = Math.min(minX, sp.center.x-sp.radius); maxX = Math.max(maxX, sp.center.x+sp.radius);
+			minY = Math.min(minY, sp.center.y-sp.radius); maxY = Math.max(maxY, sp.center.y+sp.radius);
+			minZ = Math.min(minZ, sp.center.z-sp.radius); maxZ = Math.max(maxZ, sp.center.z+sp.radius);
+			sumRadius += sp.radius;
+		}
+		this.minX = minX; this.maxX = maxX;
+		this.minY = minY; this.maxY = maxY;
+		this.minZ = minZ; this.maxZ = maxZ;
+		searchStart = spheres.length==0 || !(sumRadius>0) ? 1 : sumRadius/spheres.length;
+	}
+
+	public static CoverageIndex build(Sphere[] spheres) {
+		ParallelEngine engine = ParallelEngine.createDefault();
+		try {
+			return build(spheres, engine);
+		} finally {
+			engine.shutdown();
+		}
+	}
+
+	static CoverageIndex build(Sphere[] spheres, ParallelEngine engine) {
+		Sphere[] copy = spheres.clone(); // later changes of the caller's array don't matter
+		SphereGrid grid = new SphereGrid(copy);
+		return new CoverageIndex(copy, grid, copy.length > 1 ? OverlapEdgeCircle.computeAll(copy, grid, engine) : new Vector<>());
+	}
+
+	static CoverageIndex build(Sphere[] spheres, SphereGrid grid, Vector<OverlapEdgeCircle> circles) {
+		// grid and circles of an overlap run (same sphere array, that mustn't be changed afterwards)
+		return new CoverageIndex(spheres, grid, circles);
+	}
+
+	public int size() {
+		return spheres.length;
+	}
+
+	public Sphere getSphere(int i) {
+		return spheres[i];
+	}
+
+	public int getDepth(double x, double y, double z) {
+		int[] depth = new int[] { 0 };
+		grid.forEachCandidate(x, y, z, x, y, z, i->{
+			if (spheres[i].isInside(x, y, z)) depth[0]++;
+		});
+		return depth[0];
+	}
+
+	public boolean isCovered(double x, double y, double z) {
+		return getDepth(x, y, z) > 0;
+	}
+
+	public int[] getCoveringSpheres(double x, double y, double z) {
+		IndexList result = new IndexList();
+		grid.forEachCandidate(x, y, z, x, y, z, i->{
+			if (spheres[i].isInside(x, y, z)) result.add(i);
+		});
+		result.sort();
+		int[] indices = new int[result.size()];
+		for (int k=0; k<indices.length; k++)
+			indices[k] = result.get(k);
+		return indices;
+	}
+
+	// batch queries: xyz holds the query points (x,y,z, x,y,z, ...)
+
+	public int[] getDepths(double[] xyz) {
+		return getDepths(xyz, null);
+	}
+
+	int[] getDepths(double[] xyz, ParallelEngine engine) {
+		if (xyz.length%3!=0) throw new IllegalArgumentException();
+		int[] depths = new int[xyz.length/3];
+		forEachQuery(depths.length, engine, k->depths[k] = getDepth(xyz[k*3], xyz[k*3+1], xyz[k*3+2]));
+		return depths;
+	}
+
+	public ExposedPoint[] getNearestExposedPoints(double[] xyz) {
+		return getNearestExposedPoints(xyz, null);
+	}
+
+	ExposedPoint[] getNearestExposedPoints(double[] xyz, ParallelEngine engine) {
+		if (xyz.length%3!=0) throw new IllegalArgumentException();
+		ExposedPoint[] points = new ExposedPoint[xyz.length/3];
+		forEachQuery(points.length, engine, k->points[k] = getNearestExposedPoint(xyz[k*3], xyz[k*3+1], xyz[k*3+2]));
+		return points;
+	}
+
+	private static void forEachQuery(int n, ParallelEngine engine, IntConsumer query) {
+		if (engine==null)
+			for (int k=0; k<n; k++) query.accept(k);
+		else
+			engine.forEach(n, query);
+	}
+
+	public ExposedPoint getNearestExposedPoint(double x, double y, double z) {
+		// search boxes around the query point grow, until the best point found is inside the box (or the box contains all spheres)
+		// a sphere outside of the box has no surface point within the half box size
+		if (!Double.isFinite(x) || !Double.isFinite(y) || !Double.isFinite(z))
+			throw new IllegalArgumentException(String.format("query point isn't finite: %s, %s, %s", x, y, z)); // the boxes would grow forever
+		if (spheres.length==0) return null;
+		Nearest nearest = new Nearest(x, y, z);
+		for (double d=searchStart; ; d*=2) {
+			double d_ = d;
+			// spheres of the smaller boxes are checked again, but most of them end at the distance bound in checkSphere
+			grid.forEachCandidate(x-d, y-d, z-d, x+d, y+d, z+d, i->checkSphere(nearest, i));
+			if (nearest.sphereIndex>=0 && nearest.distance<=d_) break;
+			if (x-d<=minX && y-d<=minY && z-d<=minZ && maxX<=x+d && maxY<=y+d && maxZ<=z+d) break;
+		}
+		if (nearest.sphereIndex<0) return null; // all spheres are covered completely by others (duplicates)
+		return new ExposedPoint(nearest.px, nearest.py, nearest.pz, nearest.sphereIndex, nearest.distance);
+	}
+
+	private static class Nearest {
+		final double x, y, z; // query point
+		double px, py, pz;
+		int sphereIndex = -1;
+		double distance = Double.POSITIVE_INFINITY;
+
+		Nearest(double x, double y, double z) {
+			this.x = x;
+			this.y = y;
+			this.z = z;
+		}
+
+		void set(double px, double py, double pz, int sphereIndex) {
+			double dx = px-x, dy = py-y, dz = pz-z;
+			double distance = Math.sqrt(dx*dx+dy*dy+dz*dz);
+			if (distance >= this.distance) return;
+			this.px = px;
+			this.py = py;
+			this.pz = pz;
+			this.sphereIndex = sphereIndex;
+			this.distance = distance;
+		}
+	}
+
+	private void checkSphere(Nearest nearest, int i) {
+		Sphere sp = spheres[i];
+		double dx = nearest.x-sp.center.x, dy = nearest.y-sp.center.y, dz = nearest.z-sp.center.z;
+		double dist = Math.sqrt(dx*dx+dy*dy+dz*dz);
+		if (Math.abs(dist-sp.radius) >= nearest.distance) return; // no point of this sphere can be nearer
+
+		// point of the sphere in the direction of the query point (any direction, if it's the center)
+		double ux = 1, uy = 0, uz = 0;
+		if (dist>0) { ux = dx/dist; uy = dy/dist; uz = dz/dist; }
+		double px = sp.center.x+ux*sp.radius, py = sp.center.y+uy*sp.radius, pz = sp.center.z+uz*sp.radius;
+		if (isExposed(i, px, py, pz)) {
+			nearest.set(px, py, pz, i);
+			return;
+		}
+
+		double[] xyz = new double[3];
+		for (int k=circleStart[i]; k<circleStart[i+1]; k++) {
+			OverlapEdgeCircle circle = circles.get(circleIndices[k]);
+			// angle of the query point projected into the plane of the circle
+			double vx = nearest.x-circle.pos.x, vy = nearest.y-circle.pos.y, vz = nearest.z-circle.pos.z;
+			double localY = vx*circle.axesCross.yAxis.x + vy*circle.axesCross.yAxis.y + vz*circle.axesCross.yAxis.z;
+			double localZ = vx*circle.axesCross.zAxis.x + vy*circle.axesCross.zAxis.y + vz*circle.axesCross.zAxis.z;
+			double angle = Math.atan2(localZ, localY);
+
+			for (int a=0; a<circle.getArcCount(); a++) {
+				double min = circle.getArcMin(a);
+				double max = circle.getArcMax(a);
+				double t = min + mod2PI(angle-min);
+				if (t<=max) {
+					circle.getPointOnCircle(t, xyz);
+					nearest.set(xyz[0], xyz[1], xyz[2], i);
+				} else {
+					// distance grows with the angle to t -> one of the end points
+					circle.getPointOnCircle(min, xyz); nearest.set(xyz[0], xyz[1], xyz[2], i);
+					circle.getPointOnCircle(max, xyz); nearest.set(xyz[0], xyz[1], xyz[2], i);
+				}
+			}
+		}
+	}
+
+	private static double mod2PI(double angle) {
+		double m = angle % (2*Math.PI);
+		return m<0 ? m+2*Math.PI : m;
+	}
+
+	private boolean isExposed(int i, double x, double y, double z) {
+		boolean[] isCovered = new boolean[] { false };
+		grid.forEachCandidate(x, y, z, x, y, z, j->{
+			if (!isCovered[0] && j!=i && spheres[j].isInside(x, y, z))
+				isCovered[0] = true;
+		});
+		return !isCovered[0];
+	}
+}
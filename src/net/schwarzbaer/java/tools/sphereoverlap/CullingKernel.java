@@ -0,0 +1,41 @@
+package net.schwarzbaer.java.tools.sphereoverlap;
+
+import java.util.BitSet;
+
+interface CullingKernel {
+
+	// marks the points of a unit sphere template, that are covered by another sphere:
+	// point c + r*u is covered, if d·u < limit (d = c - other center, limit see Sphere.markCovered)
+	// returns the number of newly covered points
+
+	int markCovered(double[] ux, double[] uy, double[] uz, double dx, double dy, double dz, double limit, BitSet covered);
+
+	String SIMD_PROPERTY = "sphereoverlap.simd";
+	CullingKernel INSTANCE = create();
+
+	private static CullingKernel create() {
+		CullingKernel scalar = new Scalar();
+		if ("false".equalsIgnoreCase(System.getProperty(SIMD_PROPERTY)))
+			return scalar;
+
+		// the Vector API is an incubator module, that only exists with "--add-modules jdk.incubator.vector"
+		// -> VectorCullingKernel is loaded by name, a missing module ends in the scalar kernel
+		try {
+			return (CullingKernel) Class.forName(CullingKernel.class.getPackageName()+".VectorCullingKernel").getDeclaredConstructor().newInstance();
+		} catch (ReflectiveOperationException | LinkageError e) {
+			return scalar;
+		}
+	}
+
+	static class Scalar implements CullingKernel {
+		@Override public int markCovered(double[] ux, double[] uy, double[] uz, double dx, double dy, double dz, double limit, BitSet covered) {
+			int n = 0;
+			for (int k=covered.nextClearBit(0); k<ux.length; k=covered.nextClearBit(k+1))
+				if (dx*ux[k] + dy*uy[k] + dz*uz[k] < limit) {
+					covered.set(k);
+					n++;
+				}
+			return n;
+		}
+	}
+}
@@ -0,0 +1,237 @@
+package net.schwarzbaer.java.tools.sphereoverlap;
+
+import java.awt.Color;
+import java.io.PrintWriter;
+import java.util.Arrays;
+import java.util.HashMap;
+import java.util.Locale;
+import java.util.Vector;
+
+class EdgeLineSet {
+
+	// edge circles as polylines (one per remaining arc) with an own vertex list
+	// an arc ends where a third sphere cuts it, which is also the end point of an arc of another circle
+	// -> end points are merged (within a small tolerance) and shared by both polylines
+	// from a BoundaryArrangement the polylines follow its loops, consecutive arcs of a loop are one polyline
+
+	private static final double MERGE_TOLERANCE = 1e-9; // relative to the extent of the scene
+
+	private double[] vertices; // x,y,z
+	private int vertexCount;
+	final IndexList polylines; // vertex indices, each polyline is terminated by -1 (like coordIndex in VRML)
+	private int edgeCount;
+
+	private final double mergeTolerance;
+	private final HashMap<Long,IndexList> endPoints; // quantized position -> vertex indices
+
+	private EdgeLineSet(double mergeTolerance) {
+		this.mergeTolerance = mergeTolerance;
+		vertices = new double[3*64];
+		vertexCount = 0;
+		polylines = new IndexList();
+		edgeCount = 0;
+		endPoints = new HashMap<>();
+	}
+
+	static EdgeLineSet create(BoundaryArrangement arrangement, ArcTessellation tessellation) {
+		// end points are the vertices of the arrangement, that are already shared -> nothing to merge
+		// each arc is in a loop of both spheres of its circle, it's written once, with the loop of the circle's first sphere (index1)
+		// -> a loop is one closed polyline, if all of its arcs belong to its sphere, otherwise it's split at the arcs of other spheres
+		EdgeLineSet lineSet = new EdgeLineSet(0);
+		for (int v=0; v<arrangement.getVertexCount(); v++)
+			lineSet.addVertex(arrangement.getX(v), arrangement.getY(v), arrangement.getZ(v));
+		for (int s=0; s<arrangement.getSphereCount(); s++)
+			for (int start=arrangement.getLoopStart(s); start<arrangement.getLoopEnd(s); ) {
+				int end = start;
+				while (arrangement.loops.get(end)>=0) end++;
+				lineSet.addLoop(arrangement, s, start, end, tessellation);
+				start = end+1;
+			}
+		return lineSet;
+	}
+
+	static EdgeLineSet create(Vector<OverlapEdgeCircle> circles, ArcTessellation tessellation) {
+		double extent = 0;
+		for (OverlapEdgeCircle circle : circles)
+			extent = Math.max(extent, Math.max(Math.abs(circle.pos.x), Math.max(Math.abs(circle.pos.y), Math.abs(circle.pos.z))) + circle.radius);
+
+		EdgeLineSet lineSet = new EdgeLineSet(Math.max(extent, 1) * MERGE_TOLERANCE);
+		for (OverlapEdgeCircle circle : circles)
+			lineSet.add(circle, tessellation);
+		return lineSet;
+	}
+
+	private void addLoop(BoundaryArrangement arrangement, int sphere, int start, int end, ArcTessellation tessellation) {
+		// the loop starts behind its first arc of another sphere -> a polyline doesn't run across the end of the loop
+		IndexList loops = arrangement.loops;
+		int n = end-start, first = 0;
+		for (int k=0; k<n; k++)
+			if (!isOwnArc(arrangement, sphere, loops.get(start+k))) {
+				first = k+1;
+				break;
+			}
+
+		// open chains (BoundaryArrangement.openLoopCount) are also split, where an arc doesn't start at the end of the previous one
+		boolean isInPolyline = false;
+		int lastVertex = -1;
+		for (int k=0; k<n; k++) {
+			int entry = loops.get(start + (first+k)%n);
+			int arc = entry/2;
+			boolean reversed = (entry&1)!=0;
+			if (!isOwnArc(arrangement, sphere, entry)) {
+				if (isInPolyline) polylines.add(-1);
+				isInPolyline = false;
+				continue;
+			}
+			int startVertex = reversed ? arrangement.getArcMaxVertex(arc) : arrangement.getArcMinVertex(arc);
+			if (isInPolyline && startVertex!=lastVertex) {
+				polylines.add(-1);
+				isInPolyline = false;
+			}
+			addArc(arrangement, arc, reversed, tessellation, !isInPolyline);
+			isInPolyline = true;
+			lastVertex = reversed ? arrangement.getArcMinVertex(arc) : arrangement.getArcMaxVertex(arc);
+		}
+		if (isInPolyline) polylines.add(-1);
+	}
+
+	private static boolean isOwnArc(BoundaryArrangement arrangement, int sphere, int loopEntry) {
+		return arrangement.circles.get(arrangement.getArcCircle(loopEntry/2)).index1 == sphere;
+	}
+
+	private void addArc(BoundaryArrangement arrangement, int arc, boolean reversed, ArcTessellation tessellation, boolean isPolylineStart) {
+		// points of the arc in the direction of the loop, the start vertex is already in the polyline, if it continues one
+		int c = arrangement.getArcCircle(arc);
+		OverlapEdgeCircle circle = arrangement.circles.get(c);
+		int a = arc - arrangement.getFirstArc(c);
+		double from = reversed ? circle.getArcMax(a) : circle.getArcMin(a);
+		double to   = reversed ? circle.getArcMin(a) : circle.getArcMax(a);
+		int n = tessellation.getSegmentCount(circle.radius, Math.abs(to-from), circle.isFullCircle());
+		double[] xyz = new double[3];
+
+		if (circle.isFullCircle()) {
+			int firstVertex = vertexCount;
+			for (int i=0; i<n; i++) {
+				circle.getPointOnCircle(from + (to-from)*i/n, xyz);
+				polylines.add(addVertex(xyz[0], xyz[1], xyz[2]));
+			}
+			polylines.add(firstVertex);
+
+		} else {
+			if (isPolylineStart)
+				polylines.add(reversed ? arrangement.getArcMaxVertex(arc) : arrangement.getArcMinVertex(arc));
+			for (int i=1; i<n; i++) {
+				circle.getPointOnCircle(from + (to-from)*i/n, xyz);
+				polylines.add(addVertex(xyz[0], xyz[1], xyz[2]));
+			}
+			polylines.add(reversed ? arrangement.getArcMinVertex(arc) : arrangement.getArcMaxVertex(arc));
+		}
+		edgeCount += n;
+	}
+
+	private void add(OverlapEdgeCircle circle, ArcTessellation tessellation) {
+		double[] xyz = new double[3];
+		for (int a=0; a<circle.getArcCount(); a++) {
+			double min = circle.getArcMin(a);
+			double max = circle.getArcMax(a);
+			int n = tessellation.getSegmentCount(circle.radius, max-min, circle.isFullCircle());
+
+			if (circle.isFullCircle()) {
+				int first = vertexCount;
+				for (int i=0; i<n; i++) {
+					circle.getPointOnCircle(min + (max-min)*i/n, xyz);
+					polylines.add(addVertex(xyz[0], xyz[1], xyz[2]));
+				}
+				polylines.add(first);
+
+			} else {
+				circle.getPointOnCircle(min, xyz);
+				polylines.add(addEndPoint(xyz[0], xyz[1], xyz[2]));
+				for (int i=1; i<n; i++) {
+					circle.getPointOnCircle(min + (max-min)*i/n, xyz);
+					polylines.add(addVertex(xyz[0], xyz[1], xyz[2]));
+				}
+				circle.getPointOnCircle(max, xyz);
+				polylines.add(addEndPoint(xyz[0], xyz[1], xyz[2]));
+			}
+			polylines.add(-1);
+			edgeCount += n;
+		}
+	}
+
+	private int addVertex(double x, double y, double z) {
+		if (vertices.length < (vertexCount+1)*3)
+			vertices = Arrays.copyOf(vertices, vertices.length*2);
+		vertices[vertexCount*3  ] = x;
+		vertices[vertexCount*3+1] = y;
+		vertices[vertexCount*3+2] = z;
+		return vertexCount++;
+	}
+
+	private int addEndPoint(double x, double y, double z) {
+		// cells have the size of the tolerance -> a matching point is in the same or in a neighbouring cell
+		long cx = (long) Math.floor(x/mergeTolerance);
+		long cy = (long) Math.floor(y/mergeTolerance);
+		long cz = (long) Math.floor(z/mergeTolerance);
+		for (long ix=cx-1; ix<=cx+1; ix++)
+			for (long iy=cy-1; iy<=cy+1; iy++)
+				for (long iz=cz-1; iz<=cz+1; iz++) {
+					IndexList cell = endPoints.get(getCellKey(ix, iy, iz));
+					if (cell==null) continue;
+					for (int k=0; k<cell.size(); k++) {
+						int v = cell.get(k);
+						double dx = vertices[v*3  ]-x;
+						double dy = vertices[v*3+1]-y;
+						double dz = vertices[v*3+2]-z;
+						if (dx*dx+dy*dy+dz*dz <= mergeTolerance*mergeTolerance)
+							return v;
+					}
+				}
+
+		int v = addVertex(x, y, z);
+		endPoints.computeIfAbsent(getCellKey(cx, cy, cz), key->new IndexList()).add(v);
+		return v;
+	}
+
+	private static Long getCellKey(long ix, long iy, long iz) {
+		// different cells can get the same key, that only costs an additional distance check
+		return (ix*73856093L) ^ (iy*19349663L) ^ (iz*83492791L);
+	}
+
+	int getVertexCount() {
+		return vertexCount;
+	}
+
+	int getEdgeCount() {
+		return edgeCount;
+	}
+
+	double getX(int i) { return vertices[i*3  ]; }
+	double getY(int i) { return vertices[i*3+1]; }
+	double getZ(int i) { return vertices[i*3+2]; }
+
+	void writeToVRML(PrintWriter out, String pointCoordFormat, Color color) {
+		if (vertexCount==0) return;
+		float[] rgb = color.getRGBColorComponents(null);
+		out.println("Shape {");
+		out.printf(Locale.ENGLISH, "\tappearance Appearance { material Material { emissiveColor %1.3f %1.3f %1.3f } }%n", rgb[0], rgb[1], rgb[2]);
+		out.println("\tgeometry IndexedLineSet {");
+		out.println("\t\tcoord Coordinate { point [");
+		String pointFormat = "\t\t\t"+pointCoordFormat+" "+pointCoordFormat+" "+pointCoordFormat+",%n";
+		for (int i=0; i<vertexCount; i++)
+			out.printf(Locale.ENGLISH, pointFormat, getX(i), getY(i), getZ(i));
+		out.println("\t\t] }");
+		out.println("\t\tcoordIndex [");
+		boolean isLineStart = true;
+		for (int k=0; k<polylines.size(); k++) {
+			int index = polylines.get(k);
+			if (isLineStart) out.print("\t\t\t");
+			out.print(index);
+			out.print(index<0 ? ",\n" : " ");
+			isLineStart = index<0;
+		}
+		out.println("\t\t]");
+		out.println("\t}");
+		out.println("}");
+	}
+}
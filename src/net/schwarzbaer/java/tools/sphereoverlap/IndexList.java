@@ -0,0 +1,28 @@
+package net.schwarzbaer.java.tools.sphereoverlap;
+
+import java.util.Arrays;
+
+class IndexList {
+
+	// growable list of int indices, meant to be reused by one thread for many queries
+
+	private int[] values = new int[16];
+	private int size = 0;
+
+	int size() { return size; }
+	int get(int i) { return values[i]; }
+
+	void clear() {
+		size = 0;
+	}
+
+	void add(int value) {
+		if (size == values.length)
+			values = Arrays.copyOf(values, values.length*2);
+		values[size++] = value;
+	}
+
+	void sort() {
+		Arrays.sort(values, 0, size);
+	}
+}
@@ -0,0 +1,332 @@
+package net.schwarzbaer.java.tools.sphereoverlap;
+
+import java.util.Locale;
+import java.util.SplittableRandom;
+
+import net.schwarzbaer.java.tools.sphereoverlap.SphereOverlap.Sphere;
+
+class LayoutOptimizer {
+
+	// searches sphere centres (radii stay), that cover a box shaped target region as much as possible with little redundant overlap
+	// simulated annealing: a step moves one sphere by a random offset, worse layouts are accepted with probability exp(delta/T)
+	//
+	// evaluation: fixed sample points of the region with their depth (number of covering spheres, like Sphere.isInside)
+	//    score = covered samples - overlapWeight * redundant coverings (sum of depth-1 over covered samples)
+	//    a move only changes the depth of the samples inside the old and the new sphere -> cost of a step doesn't depend on the sphere count
+	// independent chains run in parallel on the ParallelEngine, each one with its own SplittableRandom split from the seed
+	// -> same seed, same number of chains -> same result, regardless of the number of threads
+	// the final layout is measured exactly with SurfaceCoverage (union volume, redundant volume)
+
+	static final String CHAINS_PROPERTY  = "sphereoverlap.optimizer.chains";
+	static final String SAMPLES_PROPERTY = "sphereoverlap.optimizer.samples";
+	static final String WEIGHT_PROPERTY  = "sphereoverlap.optimizer.overlapWeight";
+	static final long DEFAULT_STEPS = 200000; // per chain
+
+	private static final double END_TEMPERATURE_RATIO = 1e-3;
+	private static final double END_STEP_RATIO = 0.02;
+
+	private final Sphere[] start;
+	private final double[] region; // minX,minY,minZ, maxX,maxY,maxZ
+	private final double overlapWeight;
+	private final double[] sampleX, sampleY, sampleZ; // sorted by cells
+	private final int nSamples;
+	private final double cellSize;
+	private final int nx, ny, nz;
+	private final int[] cellStart; // samples of cell c: cellStart[c] .. cellStart[c+1]-1
+
+	static class Result {
+		final Sphere[] spheres; // new sphere objects, nothing culled
+		final double startScore, score; // fraction of the samples
+		final double coveredFraction, redundancy; // of the best layout: covered samples, redundant coverings per sample
+		final int nChains, bestChain;
+		final long evaluations;
+		final double seconds;
+		final double startUnionVolume, unionVolume, sphereVolume; // exact (SurfaceCoverage), sphereVolume: sum of all spheres
+
+		private Result(Sphere[] spheres, double startScore, double score, double coveredFraction, double redundancy, int nChains, int bestChain,
+				long evaluations, double seconds, double startUnionVolume, double unionVolume, double sphereVolume) {
+			this.spheres = spheres;
+			this.startScore = startScore;
+			this.score = score;
+			this.coveredFraction = coveredFraction;
+			this.redundancy = redundancy;
+			this.nChains = nChains;
+			this.bestChain = bestChain;
+			this.evaluations = evaluations;
+			this.seconds = seconds;
+			this.startUnionVolume = startUnionVolume;
+			this.unionVolume = unionVolume;
+			this.sphereVolume = sphereVolume;
+		}
+
+		double getEvaluationsPerSecond() {
+			return seconds>0 ? evaluations/seconds : 0;
+		}
+
+		@Override public String toString() {
+			StringBuilder sb = new StringBuilder();
+			sb.append(String.format(Locale.ENGLISH, "Layout optimizer: %d spheres, %d chains, %d evaluations in %1.2f s -> %1.0f evaluations/s%n", spheres.length, nChains, evaluations, seconds, getEvaluationsPerSecond()));
+			sb.append(String.format(Locale.ENGLISH, "   score  %1.4f -> %1.4f (chain %d): %1.2f%% of the region covered, %1.3f redundant coverings per sample%n", startScore, score, bestChain, coveredFraction*100, redundancy));
+			sb.append(String.format(Locale.ENGLISH, "   union volume %s -> %s, redundant volume %s -> %s%n", startUnionVolume, unionVolume, sphereVolume-startUnionVolume, sphereVolume-unionVolume));
+			return sb.toString();
+		}
+	}
+
+	private LayoutOptimizer(Sphere[] start, double[] region, SplittableRandom random) {
+		if (region.length!=6) throw new IllegalArgumentException();
+		for (int k=0; k<3; k++)
+			if (!(region[k]<=region[k+3])) throw new IllegalArgumentException("Empty region");
+		this.start = start;
+		this.region = region;
+		overlapWeight = getDoubleProperty(WEIGHT_PROPERTY, 0.25);
+		nSamples = Math.max(1, Integer.getInteger(SAMPLES_PROPERTY, 20000));
+
+		double[] samples = new double[nSamples*3];
+		for (int s=0; s<nSamples; s++)
+			for (int k=0; k<3; k++)
+				samples[s*3+k] = region[k] + random.nextDouble()*(region[k+3]-region[k]);
+
+		// uniform grid of the samples: about 8 samples per cell, the samples of a cell are stored one after another
+		double volume = Math.max(region[3]-region[0], 1e-9) * Math.max(region[4]-region[1], 1e-9) * Math.max(region[5]-region[2], 1e-9);
+		cellSize = Math.cbrt(volume/nSamples*8);
+		nx = getCellCount(region[3]-region[0]);
+		ny = getCellCount(region[4]-region[1]);
+		nz = getCellCount(region[5]-region[2]);
+		int[] cells = new int[nSamples];
+		cellStart = new int[nx*ny*nz+1];
+		for (int s=0; s<nSamples; s++) {
+			cells[s] = getCell(samples[s*3], samples[s*3+1], samples[s*3+2]);
+			cellStart[cells[s]+1]++;
+		}
+		for (int c=0; c<nx*ny*nz; c++)
+			cellStart[c+1] += cellStart[c];
+		sampleX = new double[nSamples];
+		sampleY = new double[nSamples];
+		sampleZ = new double[nSamples];
+		int[] fill = cellStart.clone();
+		for (int s=0; s<nSamples; s++) {
+			int k = fill[cells[s]]++;
+			sampleX[k] = samples[s*3];
+			sampleY[k] = samples[s*3+1];
+			sampleZ[k] = samples[s*3+2];
+		}
+	}
+
+	private static double getDoubleProperty(String name, double defaultValue) {
+		String value = System.getProperty(name);
+		if (value==null) return defaultValue;
+		try {
+			return Double.parseDouble(value.trim());
+		} catch (NumberFormatException e) {
+			System.err.printf("Wrong number \"%s\" in system property \"%s\" -> use %s%n", value, name, defaultValue);
+			return defaultValue;
+		}
+	}
+
+	private int getCellCount(double extent) {
+		return (int) Math.max(1, Math.min(256, Math.ceil(extent/cellSize)));
+	}
+
+	private int getCell(double x, double y, double z) {
+		int cx = getCellIndex(x, region[0], nx);
+		int cy = getCellIndex(y, region[1], ny);
+		int cz = getCellIndex(z, region[2], nz);
+		return (cz*ny + cy)*nx + cx;
+	}
+
+	private int getCellIndex(double value, double min, int n) {
+		return Math.max(0, Math.min(n-1, (int) Math.floor((value-min)/cellSize)));
+	}
+
+	static double[] getBounds(Sphere[] spheres) {
+		// bounding box of all spheres
+		double[] bounds = new double[] { Double.POSITIVE_INFINITY, Double.POSITIVE_INFINITY, Double.POSITIVE_INFINITY, Double.NEGATIVE_INFINITY, Double.NEGATIVE_INFINITY, Double.NEGATIVE_INFINITY };
+		for (Sphere sp : spheres) {
+			bounds[0] = Math.min(bounds[0], sp.center.x-sp.radius); bounds[3] = Math.max(bounds[3], sp.center.x+sp.radius);
+			bounds[1] = Math.min(bounds[1], sp.center.y-sp.radius); bounds[4] = Math.max(bounds[4], sp.center.y+sp.radius);
+			bounds[2] = Math.min(bounds[2], sp.center.z-sp.radius); bounds[5] = Math.max(bounds[5], sp.center.z+sp.radius);
+		}
+		return bounds;
+	}
+
+	static Result optimize(Sphere[] spheres, double[] region, long steps, long seed, ParallelEngine engine) {
+		if (spheres.length==0) throw new IllegalArgumentException("No spheres");
+		if (steps<0) throw new IllegalArgumentException();
+		SplittableRandom random = new SplittableRandom(seed);
+		LayoutOptimizer optimizer = new LayoutOptimizer(spheres, region, random);
+
+		// the seeds of the chains are split off in order, before anything runs in parallel
+		int nChains = Math.max(1, Integer.getInteger(CHAINS_PROPERTY, 8));
+		Chain[] chains = new Chain[nChains];
+		for (int c=0; c<nChains; c++)
+			chains[c] = optimizer.new Chain(random.split());
+		double startScore = chains[0].score;
+
+		long startTime = System.nanoTime();
+		engine.forEach(nChains, c->chains[c].run(steps));
+		double seconds = (System.nanoTime()-startTime)/1e9;
+
+		int best = 0;
+		long evaluations = 0;
+		for (int c=0; c<nChains; c++) {
+			evaluations += chains[c].evaluations;
+			if (chains[c].bestScore > chains[best].bestScore) best = c;
+		}
+		Chain bestChain = chains[best];
+
+		Sphere[] result = new Sphere[spheres.length];
+		for (int i=0; i<spheres.length; i++)
+			result[i] = new Sphere(bestChain.bestPos[i*3], bestChain.bestPos[i*3+1], bestChain.bestPos[i*3+2], spheres[i].radius, spheres[i].nPoints);
+
+		double sphereVolume = 0;
+		for (Sphere sp : spheres)
+			sphereVolume += 4.0/3*Math.PI*sp.radius*sp.radius*sp.radius;
+
+		return new Result(result, startScore/optimizer.nSamples, bestChain.bestScore/optimizer.nSamples,
+				bestChain.bestCovered/(double)optimizer.nSamples, bestChain.bestRedundant/(double)optimizer.nSamples,
+				nChains, best, evaluations, seconds,
+				computeUnionVolume(copy(spheres), engine), computeUnionVolume(copy(result), engine), sphereVolume);
+	}
+
+	private static Sphere[] copy(Sphere[] spheres) {
+		// SurfaceCoverage doesn't need any points, but the given spheres shouldn't be touched
+		Sphere[] copy = new Sphere[spheres.length];
+		for (int i=0; i<spheres.length; i++)
+			copy[i] = new Sphere(spheres[i].center.x, spheres[i].center.y, spheres[i].center.z, spheres[i].radius, spheres[i].nPoints);
+		return copy;
+	}
+
+	private static double computeUnionVolume(Sphere[] spheres, ParallelEngine engine) {
+		return SurfaceCoverage.compute(spheres, new SphereGrid(spheres), engine).volume;
+	}
+
+	private class Chain {
+		private final SplittableRandom random;
+		private final double[] pos;  // x,y,z per sphere
+		private final int[] depth;   // per sample
+		private int covered, redundant;
+		private int deltaCovered, deltaRedundant; // of the current move
+		private double score;
+		private final double[] bestPos;
+		private int bestCovered, bestRedundant;
+		private double bestScore;
+		private long evaluations;
+
+		Chain(SplittableRandom random) {
+			this.random = random;
+			pos = new double[start.length*3];
+			for (int i=0; i<start.length; i++) {
+				pos[i*3  ] = start[i].center.x;
+				pos[i*3+1] = start[i].center.y;
+				pos[i*3+2] = start[i].center.z;
+			}
+			depth = new int[nSamples];
+			for (int i=0; i<start.length; i++) {
+				// "other position" far away -> all samples of the sphere
+				double far = Double.POSITIVE_INFINITY;
+				deltaCovered = 0;
+				deltaRedundant = 0;
+				forEachSample(pos[i*3], pos[i*3+1], pos[i*3+2], start[i].radius, far, far, far, +1, false);
+				forEachSample(pos[i*3], pos[i*3+1], pos[i*3+2], start[i].radius, far, far, far, +1, true);
+				covered += deltaCovered;
+				redundant += deltaRedundant;
+			}
+			score = getScore(covered, redundant);
+			bestPos = pos.clone();
+			bestCovered = covered;
+			bestRedundant = redundant;
+			bestScore = score;
+			evaluations = 0;
+		}
+
+		private double getScore(int covered, int redundant) {
+			return covered - overlapWeight*redundant;
+		}
+
+		void run(long steps) {
+			if (steps==0) return;
+
+			// start temperature: score of an average sphere alone (in samples), step size: average radius
+			double meanRadius = 0, meanVolume = 0;
+			for (Sphere sp : start) {
+				meanRadius += sp.radius;
+				meanVolume += 4.0/3*Math.PI*sp.radius*sp.radius*sp.radius;
+			}
+			meanRadius /= start.length;
+			meanVolume /= start.length;
+			double regionVolume = Math.max((region[3]-region[0])*(region[4]-region[1])*(region[5]-region[2]), 1e-300);
+			double startTemperature = Math.max(0.1*nSamples*Math.min(1, meanVolume/regionVolume), 1e-3);
+
+			for (long step=0; step<steps; step++) {
+				// geometric cooling, the step size shrinks with it
+				double progress = step/(double) steps;
+				double temperature = startTemperature*Math.pow(END_TEMPERATURE_RATIO, progress);
+				double stepSize = meanRadius*Math.pow(END_STEP_RATIO, progress);
+
+				int i = random.nextInt(start.length);
+				double r = start[i].radius;
+				double oldX = pos[i*3], oldY = pos[i*3+1], oldZ = pos[i*3+2];
+				// centres stay inside the region
+				double newX = clamp(oldX + random.nextGaussian()*stepSize, region[0], region[3]);
+				double newY = clamp(oldY + random.nextGaussian()*stepSize, region[1], region[4]);
+				double newZ = clamp(oldZ + random.nextGaussian()*stepSize, region[2], region[5]);
+
+				// evaluated before it's applied -> a rejected move costs nothing more
+				deltaCovered = 0;
+				deltaRedundant = 0;
+				forEachSample(oldX, oldY, oldZ, r, newX, newY, newZ, -1, false);
+				forEachSample(newX, newY, newZ, r, oldX, oldY, oldZ, +1, false);
+				evaluations++;
+				double newScore = getScore(covered+deltaCovered, redundant+deltaRedundant);
+				double delta = newScore-score;
+
+				if (delta>=0 || random.nextDouble() < Math.exp(delta/temperature)) {
+					forEachSample(oldX, oldY, oldZ, r, newX, newY, newZ, -1, true);
+					forEachSample(newX, newY, newZ, r, oldX, oldY, oldZ, +1, true);
+					covered += deltaCovered;
+					redundant += deltaRedundant;
+					pos[i*3] = newX; pos[i*3+1] = newY; pos[i*3+2] = newZ;
+					score = newScore;
+					if (score > bestScore) {
+						bestScore = score;
+						bestCovered = covered;
+						bestRedundant = redundant;
+						System.arraycopy(pos, 0, bestPos, 0, pos.length);
+					}
+				}
+			}
+		}
+
+		private void forEachSample(double x, double y, double z, double r, double otherX, double otherY, double otherZ, int change, boolean apply) {
+			// samples inside sphere (x,y,z,r), but not inside the same sphere at the other position
+			// apply==false: only deltaCovered and deltaRedundant of the change (+1 adds the sphere, -1 removes it)
+			// apply==true : changes depth
+			int cx0 = getCellIndex(x-r, region[0], nx), cx1 = getCellIndex(x+r, region[0], nx);
+			int cy0 = getCellIndex(y-r, region[1], ny), cy1 = getCellIndex(y+r, region[1], ny);
+			int cz0 = getCellIndex(z-r, region[2], nz), cz1 = getCellIndex(z+r, region[2], nz);
+			double r2 = r*r;
+			for (int cz=cz0; cz<=cz1; cz++)
+				for (int cy=cy0; cy<=cy1; cy++) {
+					// cells of a row are stored one after another
+					int c = (cz*ny + cy)*nx;
+					for (int s=cellStart[c+cx0]; s<cellStart[c+cx1+1]; s++) {
+						double dx = sampleX[s]-x, dy = sampleY[s]-y, dz = sampleZ[s]-z;
+						if (dx*dx+dy*dy+dz*dz >= r2) continue;
+						double ox = sampleX[s]-otherX, oy = sampleY[s]-otherY, oz = sampleZ[s]-otherZ;
+						if (ox*ox+oy*oy+oz*oz < r2) continue;
+						if (apply)
+							depth[s] += change;
+						else if (change>0) {
+							if (depth[s]==0) deltaCovered++; else deltaRedundant++;
+						} else {
+							if (depth[s]==1) deltaCovered--; else deltaRedundant--;
+						}
+					}
+				}
+		}
+	}
+
+	private static double clamp(double value, double min, double max) {
+		return Math.max(min, Math.min(max, value));
+	}
+}
@@ -0,0 +1,204 @@
+package net.schwarzbaer.java.tools.sphereoverlap;
+
+import java.awt.Color;
+import java.io.File;
+import java.io.IOException;
+import java.io.PrintWriter;
+import java.util.Vector;
+import java.util.function.Consumer;
+
+import net.schwarzbaer.java.lib.vrml.VrmlTools;
+import net.schwarzbaer.java.tools.sphereoverlap.SphereOverlap.Sphere;
+
+class LodWriter {
+
+	// octree over the surviving points, each octree node is written into an own VRML file (in parallel, independent of each other)
+	// leaf:       all points of the node
+	// inner node: LOD with the children as Inlines (near) and a decimated version of all its points (far)
+	// the main file contains the extra nodes (config, edge lines) and an Inline of the root node
+
+	private static final int MAX_CHUNK_POINTS = 16384; // points in a leaf and in the decimated level of an inner node
+	private static final int MAX_DEPTH = 20;           // for many (nearly) identical points
+	private static final double LOD_RANGE_FACTOR = 2;  // children are shown, if the viewer is closer than this factor * node diagonal
+
+	private final Sphere[] spheres;
+	private final int[] pointSphere, pointIndex; // sphere and index in sphere.surface of each surviving point, in octree order
+	private final int[] tempSphere, tempIndex;
+	private final Vector<Node> nodes;
+
+	private static class Node {
+		final String name; // "r" + octant of each level
+		final int from, to;
+		final Vector<Node> children;
+		double minX, minY, minZ, maxX, maxY, maxZ; // bounds of the points (not of the octree cell)
+
+		Node(String name, int from, int to) {
+			this.name = name;
+			this.from = from;
+			this.to = to;
+			children = new Vector<>();
+		}
+
+		double getDiagonal() {
+			return Math.sqrt((maxX-minX)*(maxX-minX) + (maxY-minY)*(maxY-minY) + (maxZ-minZ)*(maxZ-minZ));
+		}
+	}
+
+	private LodWriter(Sphere[] spheres) {
+		this.spheres = spheres;
+		int n = 0;
+		for (Sphere sphere : spheres)
+			n += sphere.getSurvivingPointCount();
+		pointSphere = new int[n];
+		pointIndex  = new int[n];
+		tempSphere  = new int[n];
+		tempIndex   = new int[n];
+		nodes = new Vector<>();
+
+		int k = 0;
+		for (int s=0; s<spheres.length; s++) {
+			Sphere sphere = spheres[s];
+			for (int i=sphere.covered.nextClearBit(0); i<sphere.surface.size(); i=sphere.covered.nextClearBit(i+1)) {
+				pointSphere[k] = s;
+				pointIndex [k] = i;
+				k++;
+			}
+		}
+	}
+
+	static void write(File file, Sphere[] spheres, double pointSize, String pointCoordFormat, Color diffuseColor, Consumer<PrintWriter> writeExtra, ParallelEngine engine) {
+		String name = file.getName();
+		if (name.endsWith(".wrl")) name = name.substring(0, name.length()-4);
+		String chunkFolderName = name.replaceAll("[^A-Za-z0-9_\\-]", "_")+"_lod"; // also used in URLs
+		File chunkFolder = new File(file.getAbsoluteFile().getParentFile(), chunkFolderName);
+		if (!chunkFolder.isDirectory() && !chunkFolder.mkdirs()) {
+			System.err.printf("Can't create folder \"%s\"%n", chunkFolder.getAbsolutePath());
+			return;
+		}
+		// chunks of a previous run could have other names
+		File[] oldChunks = chunkFolder.listFiles((dir,fileName)->fileName.matches("r[0-7]*\\.wrl"));
+		if (oldChunks!=null)
+			for (File oldChunk : oldChunks)
+				oldChunk.delete();
+
+		LodWriter lodWriter = new LodWriter(spheres);
+		lodWriter.buildOctree();
+		engine.forEach(lodWriter.nodes.size(), i->lodWriter.writeNode(chunkFolder, lodWriter.nodes.get(i), pointSize, pointCoordFormat, diffuseColor));
+
+		VrmlTools.writeVRML(file, out->{
+			if (writeExtra!=null) writeExtra.accept(out);
+			out.printf("Inline { url \"%s/%s.wrl\" }%n", chunkFolderName, lodWriter.nodes.get(0).name);
+		});
+	}
+
+	private double getX(int k) { return spheres[pointSphere[k]].surface.getX(pointIndex[k]); }
+	private double getY(int k) { return spheres[pointSphere[k]].surface.getY(pointIndex[k]); }
+	private double getZ(int k) { return spheres[pointSphere[k]].surface.getZ(pointIndex[k]); }
+
+	private void buildOctree() {
+		Node root = new Node("r", 0, pointSphere.length);
+		computeBounds(root);
+		double size = Math.max(root.maxX-root.minX, Math.max(root.maxY-root.minY, root.maxZ-root.minZ));
+		split(root, root.minX, root.minY, root.minZ, size, 0);
+	}
+
+	private void split(Node node, double cellX, double cellY, double cellZ, double cellSize, int depth) {
+		nodes.add(node);
+		if (node.to-node.from <= MAX_CHUNK_POINTS || depth>=MAX_DEPTH) return;
+
+		double half = cellSize/2;
+		double midX = cellX+half, midY = cellY+half, midZ = cellZ+half;
+
+		// counting sort of the node range by octant
+		int[] counts = new int[8];
+		for (int k=node.from; k<node.to; k++)
+			counts[getOctant(k, midX, midY, midZ)]++;
+		int[] starts = new int[8];
+		for (int o=0, start=node.from; o<8; start+=counts[o], o++)
+			starts[o] = start;
+		int[] pos = starts.clone();
+		for (int k=node.from; k<node.to; k++) {
+			int o = getOctant(k, midX, midY, midZ);
+			tempSphere[pos[o]] = pointSphere[k];
+			tempIndex [pos[o]] = pointIndex [k];
+			pos[o]++;
+		}
+		System.arraycopy(tempSphere, node.from, pointSphere, node.from, node.to-node.from);
+		System.arraycopy(tempIndex , node.from, pointIndex , node.from, node.to-node.from);
+
+		for (int o=0; o<8; o++) {
+			if (counts[o]==0) continue;
+			Node child = new Node(node.name+o, starts[o], starts[o]+counts[o]);
+			computeBounds(child);
+			node.children.add(child);
+			split(child, (o&1)==0 ? cellX : midX, (o&2)==0 ? cellY : midY, (o&4)==0 ? cellZ : midZ, half, depth+1);
+		}
+	}
+
+	private int getOctant(int k, double midX, double midY, double midZ) {
+		return (getX(k)<midX ? 0 : 1) | (getY(k)<midY ? 0 : 2) | (getZ(k)<midZ ? 0 : 4);
+	}
+
+	private void computeBounds(Node node) {
+		node.minX = node.minY = node.minZ = Double.POSITIVE_INFINITY;
+		node.maxX = node.maxY = node.maxZ = Double.NEGATIVE_INFINITY;
+		for (int k=node.from; k<node.to; k++) {
+			node.minX = Math.min(node.minX, getX(k)); node.maxX = Math.max(node.maxX, getX(k));
+			node.minY = Math.min(node.minY, getY(k)); node.maxY = Math.max(node.maxY, getY(k));
+			node.minZ = Math.min(node.minZ, getZ(k)); node.maxZ = Math.max(node.maxZ, getZ(k));
+		}
+		if (node.from==node.to) // no points at all
+			node.minX = node.minY = node.minZ = node.maxX = node.maxY = node.maxZ = 0;
+	}
+
+	private void writeNode(File folder, Node node, double pointSize, String pointCoordFormat, Color diffuseColor) {
+		File file = new File(folder, node.name+".wrl");
+		try (VrmlStreamWriter out = new VrmlStreamWriter(file, pointCoordFormat)) {
+			out.write("#VRML V2.0 utf8\n");
+			if (node.children.isEmpty())
+				writePoints(out, node, 1, pointSize, diffuseColor);
+
+			else {
+				out.write("LOD {\n");
+				out.write("\tcenter "); writeCenter(out, node); out.write('\n');
+				out.write("\trange [ "); out.write(node.getDiagonal()*LOD_RANGE_FACTOR); out.write(" ]\n");
+				out.write("\tlevel [\n");
+				out.write("Group { children [\n");
+				for (Node child : node.children) {
+					out.write("\tInline { url \""); out.write(child.name); out.write(".wrl\"");
+					out.write(" bboxCenter "); writeCenter(out, child);
+					out.write(" bboxSize "); out.write(child.maxX-child.minX); out.write(' '); out.write(child.maxY-child.minY); out.write(' '); out.write(child.maxZ-child.minZ);
+					out.write(" }\n");
+				}
+				out.write("] }\n");
+				// every n-th point in octree order is spread evenly over the node, bigger faces cover the gaps
+				int step = (node.to-node.from + MAX_CHUNK_POINTS-1) / MAX_CHUNK_POINTS;
+				writePoints(out, node, step, pointSize*Math.sqrt(step), diffuseColor);
+				out.write("\t]\n");
+				out.write("}\n");
+			}
+
+		} catch (IOException e) {
+			System.err.printf("IOException while writing \"%s\": %s%n", file.getAbsolutePath(), e.getMessage());
+		}
+		OverlapMetrics.count(OverlapMetrics.Counter.BYTES_WRITTEN, file.length());
+	}
+
+	private static void writeCenter(VrmlStreamWriter out, Node node) throws IOException {
+		out.write((node.minX+node.maxX)/2); out.write(' ');
+		out.write((node.minY+node.maxY)/2); out.write(' ');
+		out.write((node.minZ+node.maxZ)/2);
+	}
+
+	private void writePoints(VrmlStreamWriter out, Node node, int step, double pointSize, Color diffuseColor) throws IOException {
+		out.writeFaceShapeStart(diffuseColor);
+		double[] corners = new double[VrmlStreamWriter.FACE_CORNERS*3];
+		long nFaces = 0;
+		for (int k=node.from; k<node.to; k+=step) {
+			VrmlStreamWriter.computePointFace(getX(k), getY(k), getZ(k), spheres[pointSphere[k]], pointSize, corners);
+			out.writeFaceCorners(corners);
+			nFaces++;
+		}
+		out.writeFaceShapeEnd(nFaces);
+	}
+}
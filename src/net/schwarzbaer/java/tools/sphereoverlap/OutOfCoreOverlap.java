@@ -0,0 +1,258 @@
+package net.schwarzbaer.java.tools.sphereoverlap;
+
+import java.io.File;
+import java.io.IOException;
+import java.nio.file.Files;
+import java.util.Locale;
+import java.util.Vector;
+import java.util.concurrent.atomic.AtomicLong;
+import java.util.function.IntConsumer;
+
+import net.schwarzbaer.java.tools.sphereoverlap.SphereOverlap.Sphere;
+
+class OutOfCoreOverlap {
+
+	// overlap of a sphere file (SphereFile), that doesn't have to fit into the heap:
+	// the spheres are assigned by their centers to the cells (chunks) of a uniform grid
+	// a chunk loads its own spheres and the spheres around it (halo), that can touch its own spheres,
+	// and writes the surviving point faces and edge lines of its own spheres into a spill file (PlyWriter.Piece)
+	// at the end the spill files are merged into one PLY file
+	// -> the heap holds index lists of all spheres and the spheres of the chunks in work, nothing else
+	// the size of the chunks comes from a budget of sphere points (own and halo spheres of an average chunk),
+	// by default a quarter of the heap, shared by the chunks in work
+
+	static final String CHUNK_POINTS_PROPERTY = "sphereoverlap.chunkPoints";
+	private static final int BYTES_PER_POINT = 3*8; // a template point, counted as if no template was shared
+
+	private final SphereFile spheres;
+	private final double pointSize;
+	private final ArcTessellation tessellation;
+
+	private final double minX, minY, minZ;
+	private final double cellSize, halo;
+	private final int nx, ny, nz;
+	private final int[] ownStart, own;   // own spheres of chunk c: own[ownStart[c] .. ownStart[c+1]-1]
+	private final int[] haloStart, haloSpheres;
+
+	private OutOfCoreOverlap(SphereFile spheres, double pointSize, long chunkPoints) {
+		this.spheres = spheres;
+		this.pointSize = pointSize;
+		tessellation = ArcTessellation.fromSystemProperty(pointSize);
+
+		int n = spheres.size();
+		double minX = Double.POSITIVE_INFINITY, minY = Double.POSITIVE_INFINITY, minZ = Double.POSITIVE_INFINITY;
+		double maxX = Double.NEGATIVE_INFINITY, maxY = Double.NEGATIVE_INFINITY, maxZ = Double.NEGATIVE_INFINITY;
+		double maxRadius = 0;
+		long nPoints = 0;
+		for (int i=0; i<n; i++) {
+			spheres.checkSphere(i);
+			minX = Math.min(minX, spheres.getX(i)); maxX = Math.max(maxX, spheres.getX(i));
+			minY = Math.min(minY, spheres.getY(i)); maxY = Math.max(maxY, spheres.getY(i));
+			minZ = Math.min(minZ, spheres.getZ(i)); maxZ = Math.max(maxZ, spheres.getZ(i));
+			maxRadius = Math.max(maxRadius, spheres.getRadius(i));
+			nPoints += Math.max(0, spheres.getPointCount(i));
+		}
+		if (n==0) minX = minY = minZ = maxX = maxY = maxZ = 0;
+		this.minX = minX;
+		this.minY = minY;
+		this.minZ = minZ;
+
+		// a sphere can touch spheres, whose centers are closer than 2*maxRadius
+		halo = 2*maxRadius;
+		double extentX = maxX-minX, extentY = maxY-minY, extentZ = maxZ-minZ;
+		double volume = Math.max(extentX, halo) * Math.max(extentY, halo) * Math.max(extentZ, halo);
+		// spheres of a chunk: its cell grown by the halo on each side
+		// cells smaller than the halo don't make the chunks much smaller, only the halo spheres are processed more often
+		double chunkSpheres = Math.max(1, chunkPoints / Math.max(1.0, (double) nPoints / Math.max(n, 1)));
+		double cellSize = Math.max(Math.cbrt(volume / Math.max(n, 1) * chunkSpheres) - 2*halo, halo);
+		if (!(cellSize>0)) cellSize = 1;
+		while (getCellCount(extentX, cellSize) * getCellCount(extentY, cellSize) * getCellCount(extentZ, cellSize) > Math.max(n, 1))
+			cellSize *= 1.5;
+		this.cellSize = cellSize;
+		nx = (int) getCellCount(extentX, cellSize);
+		ny = (int) getCellCount(extentY, cellSize);
+		nz = (int) getCellCount(extentZ, cellSize);
+
+		// index lists of the chunks (CSR): count, then fill
+		int nChunks = nx*ny*nz;
+		ownStart  = new int[nChunks+1];
+		haloStart = new int[nChunks+1];
+		for (int i=0; i<n; i++) {
+			int owner = getChunk(i);
+			ownStart[owner+1]++;
+			forEachHaloChunk(i, owner, c->haloStart[c+1]++);
+		}
+		for (int c=0; c<nChunks; c++) {
+			ownStart [c+1] += ownStart [c];
+			haloStart[c+1] += haloStart[c];
+		}
+		own = new int[ownStart[nChunks]];
+		haloSpheres = new int[haloStart[nChunks]];
+		int[] ownPos  = ownStart .clone();
+		int[] haloPos = haloStart.clone();
+		for (int i=0; i<n; i++) {
+			int owner = getChunk(i);
+			own[ownPos[owner]++] = i;
+			int i_ = i;
+			forEachHaloChunk(i, owner, c->haloSpheres[haloPos[c]++] = i_);
+		}
+	}
+
+	private static long getCellCount(double extent, double cellSize) {
+		return Math.max(1, (long) Math.ceil(extent/cellSize));
+	}
+
+	private int getCell(double value, double min, int n) {
+		return Math.max(0, Math.min(n-1, (int) Math.floor((value-min)/cellSize)));
+	}
+
+	private int getChunk(int i) {
+		int cx = getCell(spheres.getX(i), minX, nx);
+		int cy = getCell(spheres.getY(i), minY, ny);
+		int cz = getCell(spheres.getZ(i), minZ, nz);
+		return (cz*ny + cy)*nx + cx;
+	}
+
+	private void forEachHaloChunk(int i, int owner, IntConsumer action) {
+		// all chunks, whose cell (grown by the halo) contains the center of sphere i
+		double x = spheres.getX(i), y = spheres.getY(i), z = spheres.getZ(i);
+		for (int cz=getCell(z-halo, minZ, nz); cz<=getCell(z+halo, minZ, nz); cz++)
+			for (int cy=getCell(y-halo, minY, ny); cy<=getCell(y+halo, minY, ny); cy++)
+				for (int cx=getCell(x-halo, minX, nx); cx<=getCell(x+halo, minX, nx); cx++) {
+					int c = (cz*ny + cy)*nx + cx;
+					if (c!=owner) action.accept(c);
+				}
+	}
+
+	static long getChunkPoints(int parallelism) {
+		Long chunkPoints = Long.getLong(CHUNK_POINTS_PROPERTY);
+		if (chunkPoints!=null && chunkPoints>0) return chunkPoints;
+		return Math.max(1<<16, Runtime.getRuntime().maxMemory() / 4 / BYTES_PER_POINT / parallelism);
+	}
+
+	static void run(File sphereFile, File output, double pointSize, ParallelEngine engine) {
+		run(sphereFile, output, pointSize, getChunkPoints(engine.getParallelism()), engine);
+	}
+
+	static void run(File sphereFile, File output, double pointSize, long chunkPoints, ParallelEngine engine) {
+		SphereFile spheres;
+		try {
+			spheres = SphereFile.open(sphereFile);
+		} catch (IOException e) {
+			System.err.printf("IOException while reading \"%s\": %s%n", sphereFile.getAbsolutePath(), e.getMessage());
+			return;
+		}
+
+		OverlapMetrics metrics = new OverlapMetrics(sphereFile.getName());
+		metrics.startPhase(OverlapMetrics.Phase.GRID);
+		OutOfCoreOverlap overlap;
+		try {
+			overlap = new OutOfCoreOverlap(spheres, pointSize, chunkPoints);
+		} catch (IllegalArgumentException e) {
+			System.err.printf("Wrong sphere in \"%s\": %s%n", sphereFile.getAbsolutePath(), e.getMessage());
+			metrics.finish();
+			return;
+		}
+
+		File spillFolder;
+		try {
+			spillFolder = Files.createTempDirectory(output.getAbsoluteFile().getParentFile().toPath(), "sphereoverlap_spill").toFile();
+		} catch (IOException e) {
+			System.err.printf("Can't create spill folder for \"%s\": %s%n", output.getAbsolutePath(), e.getMessage());
+			return;
+		}
+
+		// chunks run independently, each one writes its own spill file
+		// the vertices of the finished chunks are summed up -> no more chunks, as soon as the output can't get them all
+		metrics.startPhase(OverlapMetrics.Phase.REMOVE_OVERLAP);
+		int nChunks = overlap.nx*overlap.ny*overlap.nz;
+		PlyWriter.Piece[] pieces = new PlyWriter.Piece[nChunks];
+		try {
+			boolean[] failed = new boolean[nChunks];
+			AtomicLong nVertices = new AtomicLong();
+			engine.forEach(nChunks, c->{
+				if (nVertices.get() > PlyWriter.MAX_VERTICES) return;
+				File spillFile = new File(spillFolder, String.format("chunk%06d.bin", c));
+				try {
+					pieces[c] = overlap.processChunk(c, spillFile);
+					if (pieces[c]!=null) nVertices.addAndGet(pieces[c].getVertexCount());
+				} catch (IOException e) {
+					System.err.printf("IOException while writing \"%s\": %s%n", spillFile.getAbsolutePath(), e.getMessage());
+					failed[c] = true;
+				}
+			});
+
+			metrics.startPhase(OverlapMetrics.Phase.WRITE);
+			Vector<PlyWriter.Piece> mergedPieces = new Vector<>();
+			boolean hasFailedChunks = false;
+			int nFinishedChunks = 0;
+			for (int c=0; c<nChunks; c++) {
+				if (failed[c]) hasFailedChunks = true;
+				if (pieces[c]!=null) mergedPieces.add(pieces[c]);
+				if (pieces[c]!=null || overlap.ownStart[c]==overlap.ownStart[c+1]) nFinishedChunks++;
+			}
+			if (nVertices.get() > PlyWriter.MAX_VERTICES)
+				System.err.printf("\"%s\" would get more than %d vertices (PLY int indices), stopped after %d of %d chunks -> \"%s\" isn't written%n", sphereFile.getAbsolutePath(), PlyWriter.MAX_VERTICES, nFinishedChunks, nChunks, output.getAbsolutePath());
+			else if (hasFailedChunks)
+				System.err.printf("Some chunks of \"%s\" failed -> \"%s\" isn't written%n", sphereFile.getAbsolutePath(), output.getAbsolutePath());
+			else
+				try {
+					String comments = String.format(Locale.ENGLISH, "sphere file \"%s\": %d spheres in %d chunks (%d x %d x %d)", sphereFile.getName(), spheres.size(), nChunks, overlap.nx, overlap.ny, overlap.nz);
+					PlyWriter.merge(output, mergedPieces, comments);
+					OverlapMetrics.count(OverlapMetrics.Counter.BYTES_WRITTEN, output.length());
+				} catch (IOException e) {
+					System.err.printf("IOException while writing \"%s\": %s%n", output.getAbsolutePath(), e.getMessage());
+				}
+		} finally {
+			// spill files also go, if a chunk or the merge ends with an exception
+			for (PlyWriter.Piece piece : pieces)
+				if (piece!=null) piece.file.delete();
+			File[] remaining = spillFolder.listFiles();
+			if (remaining!=null)
+				for (File file : remaining) file.delete();
+			spillFolder.delete();
+		}
+
+		metrics.finish();
+		if (OverlapMetrics.ENABLED)
+			System.out.print(metrics);
+	}
+
+	private PlyWriter.Piece processChunk(int c, File spillFile) throws IOException {
+		int nOwn  = ownStart [c+1]-ownStart [c];
+		int nHalo = haloStart[c+1]-haloStart[c];
+		if (nOwn==0) return null;
+
+		// own spheres first, then the halo
+		Sphere[] local = new Sphere[nOwn+nHalo];
+		int[] global = new int[nOwn+nHalo];
+		for (int k=0; k<nOwn ; k++) global[k]      = own        [ownStart [c]+k];
+		for (int k=0; k<nHalo; k++) global[nOwn+k] = haloSpheres[haloStart[c]+k];
+		for (int k=0; k<local.length; k++)
+			local[k] = spheres.createSphere(global[k]);
+		SphereGrid grid = new SphereGrid(local);
+
+		try (PlyWriter.Piece piece = new PlyWriter.Piece(spillFile)) {
+			SurvivorStream survivors = new SurvivorStream(local, grid);
+			for (int i=0; i<nOwn; i++)
+				survivors.forEach(i, (s,x,y,z)->piece.addPointFace(x, y, z, local[s], pointSize));
+
+			// a sphere pair belongs to the chunk of its sphere with the lower index
+			// spheres, that cut their edge circle, touch that sphere too -> they are in the halo
+			Vector<OverlapEdgeCircle> circles = new Vector<>();
+			IndexList partners = new IndexList();
+			IndexList candidates = new IndexList();
+			for (int i=0; i<nOwn; i++) {
+				int i_ = i;
+				partners.clear();
+				grid.forEachIntersecting(i, j->{ if (global[j]>global[i_]) partners.add(j); });
+				for (int k=0; k<partners.size(); k++) {
+					OverlapEdgeCircle circle = OverlapEdgeCircle.compute(local, i, partners.get(k), grid, candidates);
+					if (circle!=null) circles.add(circle);
+				}
+			}
+			piece.setEdges(EdgeLineSet.create(circles, tessellation));
+			return piece;
+		}
+	}
+}
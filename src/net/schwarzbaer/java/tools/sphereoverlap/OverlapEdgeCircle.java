@@ -1,25 +1,32 @@
 package net.schwarzbaer.java.tools.sphereoverlap;
 
+import java.util.Arrays;
 import java.util.Vector;
 
 import net.schwarzbaer.java.lib.geometry.spacial.AxesCross;
 import net.schwarzbaer.java.lib.geometry.spacial.ConstPoint3d;
-import net.schwarzbaer.java.lib.vrml.IndexedLineSet;
 import net.schwarzbaer.java.tools.sphereoverlap.SphereOverlap.Sphere;
 
 class OverlapEdgeCircle {
 	
+	static final int ARC_SEGMENTS = 32; // fixed tessellation, see ArcTessellation
+	
+	int index1, index2; // spheres in the sphere array (shifted by OverlapModel, if a sphere before them is removed), normal points from sphere 1 to sphere 2
 	final ConstPoint3d pos;
+	final ConstPoint3d normal;
 	final AxesCross axesCross;
 	final double radius;
 	private boolean isFullCircle;
-	final Vector<Arc> parts;
+	final ArcList parts;
 
-	private OverlapEdgeCircle(ConstPoint3d pos, ConstPoint3d normal, double radius) {
+	private OverlapEdgeCircle(int index1, int index2, ConstPoint3d pos, ConstPoint3d normal, double radius) {
+		this.index1 = index1;
+		this.index2 = index2;
 		this.pos = pos;
+		this.normal = normal;
 		this.radius = radius;
 		axesCross = AxesCross.compute(normal);
-		parts = new Vector<>();
+		parts = new ArcList();
 		isFullCircle = true;
 	}
 
@@ -27,28 +34,59 @@ class OverlapEdgeCircle {
 		return String.format("OverlapEdgeCircle [pos=%s, radius=%s, isFullCircle=%s, %d parts]", pos, radius, isFullCircle, parts.size());
 	}
 
-	static IndexedLineSet compute(Sphere[] spheres, String pointCoordFormat) {
-		IndexedLineSet lineSet = new IndexedLineSet(pointCoordFormat, true);
-		SphereOverlap.forEachSpherePair(spheres, true, (sp1,sp2)->{
-			compute(sp1, sp2, spheres, lineSet);
+	static Vector<OverlapEdgeCircle> computeAll(Sphere[] spheres, SphereGrid grid, ParallelEngine engine) {
+		// one fragment per first sphere of a pair, merged in index order --> same result for any thread count
+		@SuppressWarnings({"unchecked","rawtypes"})
+		Vector<OverlapEdgeCircle>[] fragments = new Vector[spheres.length];
+		engine.forEach(spheres.length, i->{
+			IndexList partners = new IndexList();
+			IndexList candidates = new IndexList();
+			grid.forEachIntersecting(i, j->{ if (i<j) partners.add(j); });
+			partners.sort();
+			
+			Vector<OverlapEdgeCircle> circles = new Vector<>();
+			for (int k=0; k<partners.size(); k++) {
+				OverlapEdgeCircle circle = compute(spheres, i, partners.get(k), grid, candidates);
+				if (circle!=null) circles.add(circle);
+			}
+			fragments[i] = circles;
 		});
-		return lineSet;
+		
+		Vector<OverlapEdgeCircle> circles = new Vector<>();
+		for (Vector<OverlapEdgeCircle> fragment : fragments)
+			circles.addAll(fragment);
+		return circles;
 	}
 
-	private static void compute(Sphere sp1, Sphere sp2, Sphere[] spheres, IndexedLineSet lineSet) {
-		OverlapEdgeCircle circle = compute(sp1,sp2);
-		if (circle==null) return;
-		checkCircleOnSpheres(sp1, sp2, circle);
+	static OverlapEdgeCircle compute(Sphere[] spheres, int index1, int index2, SphereGrid grid, IndexList candidates) {
+		OverlapEdgeCircle circle = compute(spheres, index1, index2);
+		if (circle==null) return null;
+		checkCircleOnSpheres(spheres, circle);
 		
-		for (int i=0; i<spheres.length; i++) {
+		// only spheres that reach the bounding ball of the circle can cut it
+		// (sorted, so the cuts happen in the same order as with a loop over all spheres)
+		candidates.clear();
+		grid.forEachCandidate(circle.pos, circle.radius, i->{
 			Sphere sp = spheres[i];
-			if (sp!=sp1 && sp!=sp2)
-				circle.cutOut(sp);
-		}
-		circle.addTo(lineSet);
+			if (i!=index1 && i!=index2 && sp.center.getDistance(circle.pos) < sp.radius + circle.radius)
+				candidates.add(i);
+		});
+		candidates.sort();
+		
+		double[] cut = new double[2];
+		for (int k=0; k<candidates.size(); k++)
+			circle.cutOut(spheres[candidates.get(k)], cut);
+		
+		return circle.isEmpty() ? null : circle;
 	}
 
-	private static void checkCircleOnSpheres(Sphere sp1, Sphere sp2, OverlapEdgeCircle circle) {
+	private static void checkCircleOnSpheres(Sphere[] spheres, OverlapEdgeCircle circle) {
+		// a diagnostic: only done if someone looks at the result (metrics or a JFR recording)
+		OverlapMetrics.CircleValidationEvent event = new OverlapMetrics.CircleValidationEvent();
+		if (!OverlapMetrics.ENABLED && !event.isEnabled()) return;
+		
+		Sphere sp1 = spheres[circle.index1];
+		Sphere sp2 = spheres[circle.index2];
 		boolean isOnSphere1 = true;
 		boolean isOnSphere2 = true;
 		
@@ -65,106 +103,269 @@ class OverlapEdgeCircle {
 			if (dist < sp2.radius*0.9 || sp2.radius*1.1 < dist)
 				isOnSphere2 = false;
 		}
-		if (!isOnSphere1 || !isOnSphere2)
-			System.err.printf("OverlapEdgeCircle not on %s:   Circle: %s   Sphere1: %s   Sphere2: %s%n", isOnSphere1 && isOnSphere2 ? "Sphere1 & Sphere2" : isOnSphere1 ? "Sphere1" : "Sphere2", circle, sp1, sp2);
+		if (!isOnSphere1 || !isOnSphere2) {
+			OverlapMetrics.count(OverlapMetrics.Counter.CIRCLE_VALIDATION_FAILURES);
+			event.index1 = circle.index1;
+			event.index2 = circle.index2;
+			event.isOnSphere1 = isOnSphere1;
+			event.isOnSphere2 = isOnSphere2;
+			event.commit();
+		}
 	}
 
-	static OverlapEdgeCircle compute(Sphere sp1, Sphere sp2) {
+	static OverlapEdgeCircle compute(Sphere[] spheres, int index1, int index2) {
+		Sphere sp1 = spheres[index1];
+		Sphere sp2 = spheres[index2];
 		double distance = sp1.center.getDistance(sp2.center);
 		double r1 = sp1.radius;
 		double r2 = sp2.radius;
 		
+		OverlapMetrics.count(OverlapMetrics.Counter.PAIRS_TESTED);
 		CircleOverlap circleOverlap = CircleOverlap.compute(distance, r1, r2);
-		if (circleOverlap.fullCoverage || circleOverlap.noOverlap) return null;
+		if (circleOverlap.fullCoverage || circleOverlap.noOverlap) {
+			OverlapMetrics.count(OverlapMetrics.Counter.PAIRS_REJECTED);
+			return null;
+		}
 		
 		ConstPoint3d n = sp2.center.sub(sp1.center).normalize();
 		ConstPoint3d pos = sp1.center.add(n.mul(circleOverlap.pos));
 		
-		return new OverlapEdgeCircle(pos,n,circleOverlap.height);
+		return new OverlapEdgeCircle(index1,index2,pos,n,circleOverlap.height);
+	}
+	
+	boolean isEmpty() {
+		return !isFullCircle && parts.size()==0;
 	}
 	
-	private void cutOut(Sphere sphere) {
-		if (!isFullCircle && parts.isEmpty())
+	private void cutOut(Sphere sphere, double[] cut) {
+		if (isEmpty())
 			return; // empty circle
+		OverlapMetrics.count(OverlapMetrics.Counter.CUT_OUT_CALLS);
 		
-		ConstPoint3d sphereCenter_local = axesCross.toLocal(sphere.center.sub(pos));
-		double distToPlane = Math.abs( sphereCenter_local.x );
-		if (sphere.radius <= distToPlane)
-			return; // sphere doesn't intersect plane 
-		
-		double intersectionCircleRadius = Math.sqrt(sphere.radius*sphere.radius - distToPlane*distToPlane);
-		double distance = Math.sqrt(sphereCenter_local.y*sphereCenter_local.y + sphereCenter_local.z*sphereCenter_local.z);
-		
-		CircleOverlap circleOverlap = CircleOverlap.compute(distance, radius, intersectionCircleRadius);
-		if (circleOverlap.noOverlap) return;
-		if (circleOverlap.fullCoverage) {
-			if (radius <= intersectionCircleRadius) {
-				// intersectionCircle covers this circle -> empty this circle
-				isFullCircle = false;
-				parts.clear();
-			} // else --> this circle covers intersectionCircle --> do nothing
+		switch (computeCut(sphere, cut)) {
+		case CUT_NONE: return;
+		case CUT_ALL:
+			OverlapMetrics.count(OverlapMetrics.Counter.ARCS_REMOVED, getArcCount());
+			isFullCircle = false;
+			parts.clear();
 			return;
 		}
-		
-		double angleMid = Math.atan2(sphereCenter_local.z, sphereCenter_local.y);
-		double angleAdd = Math.acos(circleOverlap.pos/radius);
-		
-		Arc overlapArc = new Arc(angleMid-angleAdd, angleMid+angleAdd);
+		double overlapMin = cut[0];
+		double overlapMax = cut[1];
 		
 		if (isFullCircle) {
 			isFullCircle = false;
 			parts.clear();
-			parts.add(new Arc(overlapArc.max, overlapArc.min+2*Math.PI));
+			parts.add(overlapMax, overlapMin+2*Math.PI);
 			
 		} else
-			for (int i=0; i<parts.size();) {
-				Arc arc = parts.get(i);
+			parts.subtract(overlapMin, overlapMax);
+	}
+	
+	static final int CUT_NONE = 0, CUT_ALL = 1, CUT_ARC = 2;
+	
+	int computeCut(Sphere sphere, double[] cut) {
+		// part of this circle inside the sphere: nothing, the whole circle or the arc [ cut[0], cut[1] ]
+		// sphere center in local coordinates (normal, yAxis, zAxis), without temporary objects
+		double dx = sphere.center.x-pos.x;
+		double dy = sphere.center.y-pos.y;
+		double dz = sphere.center.z-pos.z;
+		double localX = dx*normal        .x + dy*normal        .y + dz*normal        .z;
+		double localY = dx*axesCross.yAxis.x + dy*axesCross.yAxis.y + dz*axesCross.yAxis.z;
+		double localZ = dx*axesCross.zAxis.x + dy*axesCross.zAxis.y + dz*axesCross.zAxis.z;
+		
+		double distToPlane = Math.abs( localX );
+		if (sphere.radius <= distToPlane)
+			return CUT_NONE; // sphere doesn't intersect plane 
+		
+		double intersectionCircleRadius = Math.sqrt(sphere.radius*sphere.radius - distToPlane*distToPlane);
+		double distance = Math.sqrt(localY*localY + localZ*localZ);
+		
+		if (CircleOverlap.isNoOverlap(distance, radius, intersectionCircleRadius)) return CUT_NONE;
+		if (CircleOverlap.isFullCoverage(distance, radius, intersectionCircleRadius)) {
+			// intersectionCircle covers this circle -> empty this circle
+			// else --> this circle covers intersectionCircle --> do nothing
+			return radius <= intersectionCircleRadius ? CUT_ALL : CUT_NONE;
+		}
+		double overlapHeight = CircleOverlap.computeHeight(distance, radius, intersectionCircleRadius);
+		double overlapPos    = CircleOverlap.computePos   (distance, radius, intersectionCircleRadius, overlapHeight);
+		
+		double angleMid = Math.atan2(localZ, localY);
+		double angleAdd = Math.acos(overlapPos/radius);
+		
+		cut[0] = angleMid-angleAdd;
+		cut[1] = angleMid+angleAdd;
+		Arc.check(cut[0], cut[1]);
+		return CUT_ARC;
+	}
+	
+	void setArcs(double[] arcs, int n) {
+		// remaining arcs, that were computed elsewhere (BoundaryArrangement): n sorted (min,max) pairs
+		isFullCircle = false;
+		parts.clear();
+		for (int i=0; i<n; i++)
+			parts.add(arcs[i*2], arcs[i*2+1]);
+	}
+
+	// remaining arcs, a full circle counts as one arc [0,2PI]
+	
+	boolean isFullCircle() {
+		return isFullCircle;
+	}
+	
+	int getArcCount() {
+		return isFullCircle ? 1 : parts.size();
+	}
+	
+	double getArcMin(int i) {
+		return isFullCircle ? 0 : parts.min(i);
+	}
+	
+	double getArcMax(int i) {
+		return isFullCircle ? 2*Math.PI : parts.max(i);
+	}
+	
+	void getPointOnCircle(double angle, double[] xyz) {
+		double cos = Math.cos(angle)*radius;
+		double sin = Math.sin(angle)*radius;
+		xyz[0] = pos.x + axesCross.yAxis.x*cos + axesCross.zAxis.x*sin;
+		xyz[1] = pos.y + axesCross.yAxis.y*cos + axesCross.zAxis.y*sin;
+		xyz[2] = pos.z + axesCross.yAxis.z*cos + axesCross.zAxis.z*sin;
+	}
+	
+	static class ArcList {
+		
+		// remaining arcs of a circle as sorted (min,max) pairs in a primitive array
+		// a subtraction writes into a second array, that is swapped with the first one afterwards
+		
+		private double[] bounds = new double[8];
+		private double[] buffer = new double[8];
+		private int size = 0;
+		
+		int size() { return size; }
+		double min(int i) { return bounds[i*2  ]; }
+		double max(int i) { return bounds[i*2+1]; }
+		
+		void clear() {
+			size = 0;
+		}
+		
+		void add(double min, double max) {
+			if (bounds.length < (size+1)*2)
+				bounds = Arrays.copyOf(bounds, bounds.length*2);
+			size = put(bounds, size, min, max);
+		}
+		
+		void subtract(double otherMin, double otherMax) {
+			// each arc is replaced by 0, 1 or 2 arcs
+			if (buffer.length < size*4)
+				buffer = new double[Math.max(buffer.length*2, size*4)];
+			
+			int n = 0;
+			for (int i=0; i<size; i++) {
+				int n0 = n;
+				n = subtract(bounds[i*2], bounds[i*2+1], otherMin, otherMax, buffer, n);
+				if (OverlapMetrics.ENABLED) {
+					if (n==n0  ) OverlapMetrics.count(OverlapMetrics.Counter.ARCS_REMOVED);
+					if (n==n0+2) OverlapMetrics.count(OverlapMetrics.Counter.ARCS_SPLIT);
+				}
+			}
+			
+			double[] temp = bounds;
+			bounds = buffer;
+			buffer = temp;
+			size = n;
+		}
+		
+		static int subtract(double baseMin, double baseMax, double otherMin, double otherMax, double[] out, int n) {
+			// same cases as ArcSubstractionResult.compute
+			// writes the remaining parts of base to out (as arc n, n+1, ...) and returns the new arc count 
+			if        (otherMax <= baseMin) {
+				//          |base|
+				// |other|
+				while (otherMax <= baseMin) {
+					otherMin += 2*Math.PI;
+					otherMax += 2*Math.PI;
+				}
+				if (baseMax <= otherMin)
+					// |base|
+					//         |other|
+					return put(out, n, baseMin, baseMax);
 				
-				ArcSubstractionResult result = ArcSubstractionResult.compute(arc, overlapArc);
+			} else if (baseMax <= otherMin) {
+				// |base|
+				//         |other|
+				while (baseMax <= otherMin) {
+					otherMin -= 2*Math.PI;
+					otherMax -= 2*Math.PI;
+				}
+				if (otherMax <= baseMin)
+					//          |base|
+					// |other|
+					return put(out, n, baseMin, baseMax);
+			}
+			// -->  (baseMin < otherMax)
+			//   && (otherMin < baseMax)
+			
+			if (otherMin <= baseMin) {
+				if (baseMax <= otherMax)
+					//    |base|
+					// |   other   |
+					return n;
 				
-				if (result.removeArc)
-					parts.remove(i);
+				// otherMax < baseMax
+				if (otherMin+2*Math.PI < baseMax)
+					//    |     base     |
+					// |  other |      | other' |
+					return put(out, n, otherMax, otherMin + 2*Math.PI);
 				
-				else if (result.changeNothing)
-					i++;
+				//    |  base  |
+				// |  other |
+				return put(out, n, otherMax, baseMax);
+			}
+			
+			// baseMin < otherMin
+			if (baseMax <= otherMax) {
+				if (baseMin < otherMax-2*Math.PI)
+					//         |  base  |
+					// |  other' |    |  other |
+					return put(out, n, otherMax - 2*Math.PI, otherMin);
 				
-				else {
-					if (result.result1==null) throw new IllegalStateException();
-					
-					if (result.result2==null) {
-						// replace this arc with result1 
-						parts.set(i, result.result1);
-						i++;
-						
-					} else {
-						// replace this arc with result1 and result2
-						parts.set(i, result.result2);
-						parts.insertElementAt(result.result1, i);
-						i+=2;
-					}
-				}
+				// |  base  |
+				//    |  other |
+				return put(out, n, baseMin, otherMin);
 			}
-	}
-
-	private void addTo(IndexedLineSet lineSet) {
-		if (isFullCircle)
-			lineSet.addFullCircleTo(32, radius, pos, axesCross.yAxis, axesCross.zAxis);
-		else
-			for(Arc arc : parts)
-				lineSet.addArcTo(32, radius, arc.min, arc.max, pos, axesCross.yAxis, axesCross.zAxis);
+			
+			// otherMax < baseMax
+			// |   base    |
+			//    |other|
+			n = put(out, n, baseMin, otherMin);
+			return put(out, n, otherMax, baseMax);
+		}
+		
+		private static int put(double[] out, int n, double min, double max) {
+			Arc.check(min, max);
+			out[n*2  ] = min;
+			out[n*2+1] = max;
+			return n+1;
+		}
 	}
 	
-	private static class Arc {
+	static class Arc {
 		
 		final double min,max;
 		
 		Arc(double min, double max) {
+			check(min, max);
+			this.min = min;
+			this.max = max;
+		}
+		
+		static void check(double min, double max) {
 			if (Double.isNaN(min)) throw new IllegalArgumentException();
 			if (Double.isNaN(max)) throw new IllegalArgumentException();
 			if (min> max) throw new IllegalArgumentException();
 			if (min==max) throw new IllegalArgumentException();
-			this.min = min;
-			this.max = max;
 		}
 
 		@Override public String toString() {
@@ -172,7 +373,7 @@ class OverlapEdgeCircle {
 		}
 	}
 	
-	private static class CircleOverlap {
+	static class CircleOverlap {
 		
 		final boolean fullCoverage;
 		final boolean noOverlap;
@@ -200,33 +401,48 @@ class OverlapEdgeCircle {
 		}
 		
 		static CircleOverlap compute(double distance, double r1, double r2) {
-			if (distance >= r1+r2) return new CircleOverlap(true, false);
-			if (distance <= Math.abs( r1-r2 )) return new CircleOverlap(false, true);
+			if (isNoOverlap   (distance, r1, r2)) return new CircleOverlap(true, false);
+			if (isFullCoverage(distance, r1, r2)) return new CircleOverlap(false, true);
+			double x = computeHeight(distance, r1, r2);
+			return new CircleOverlap(x, computePos(distance, r1, r2, x));
+		}
+		
+		// primitive parts of compute, for callers that shouldn't create objects
+		
+		static boolean isNoOverlap(double distance, double r1, double r2) {
+			return distance >= r1+r2;
+		}
+		
+		static boolean isFullCoverage(double distance, double r1, double r2) {
+			return distance <= Math.abs( r1-r2 );
+		}
+		
+		static double computeHeight(double distance, double r1, double r2) {
 			// d = (a)d1+d2 || (b)d1-d2 || (c)d2-d1 
 			// d = sqrt( r1^2 - x^2 ) + sqrt( r1^2 - x^2 )
 			// x -> radius of circle
 			// x = (a|b|c) r2² - (d²+r2²-r1²)² / 4d²
-			double x = Math.sqrt( r2*r2 - (distance*distance + r2*r2 - r1*r1) * (distance*distance + r2*r2 - r1*r1) / 4 / distance / distance );
+			return Math.sqrt( r2*r2 - (distance*distance + r2*r2 - r1*r1) * (distance*distance + r2*r2 - r1*r1) / 4 / distance / distance );
+		}
+		
+		static double computePos(double distance, double r1, double r2, double x) {
 			double d1 = Math.sqrt( r1*r1 - x*x );
 			double d2 = Math.sqrt( r2*r2 - x*x );
 			
-			double pos_scalar;
 			if (distance<d2 && d1<d2) {
 				// (c) circle is before center1 (view center1 -> center2)
-				pos_scalar = distance-d2;
+				return distance-d2;
 				
 			} else {
 				// (b) circle is behind center2 (view center1 -> center2)
 				// (a) circle is between center1 and center2
 				//     --> behind center1
-				pos_scalar = d1;
+				return d1;
 			}
-			
-			return new CircleOverlap(x,pos_scalar);
 		}
 	}
 
-	private static class ArcSubstractionResult {
+	static class ArcSubstractionResult {
 		
 		final boolean removeArc;
 		final boolean changeNothing;
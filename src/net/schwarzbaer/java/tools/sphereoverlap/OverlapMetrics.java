@@ -0,0 +1,138 @@
+package net.schwarzbaer.java.tools.sphereoverlap;
+
+import java.util.Locale;
+import java.util.concurrent.atomic.LongAdder;
+
+import jdk.jfr.Category;
+import jdk.jfr.Event;
+import jdk.jfr.Label;
+import jdk.jfr.Name;
+
+class OverlapMetrics {
+
+	// phase times and counters of one overlap run
+	// counting is switched on by the system property "sphereoverlap.metrics" (read once, so the JIT drops the disabled branches)
+	// the hot paths don't know their run -> they count into the metrics of the current thread (set while a run is in progress),
+	// ParallelEngine passes them on to its worker threads -> concurrent runs (batch, server) count separately
+	// phases and failed circle validations are also JFR events, which cost next to nothing without a running recording
+
+	static final String PROPERTY = "sphereoverlap.metrics";
+	static final boolean ENABLED = Boolean.getBoolean(PROPERTY);
+
+	enum Phase { POINT_GENERATION, GRID, CACHE, REMOVE_OVERLAP, EDGE_CIRCLES, COVERAGE, WRITE_QUEUE, WRITE } // CACHE: ResultCache lookup and store, WRITE_QUEUE: waiting for an output slot (batch runs)
+
+	enum Counter {
+		PAIRS_TESTED, PAIRS_REJECTED, // sphere pairs with intersecting bounds, pairs without an edge circle
+		POINTS_CULLED,
+		CUT_OUT_CALLS, ARCS_SPLIT, ARCS_REMOVED,
+		CIRCLE_VALIDATION_FAILURES,
+		BYTES_WRITTEN,
+	}
+
+	private static final ThreadLocal<OverlapMetrics> current = new ThreadLocal<>();
+
+	static void count(Counter counter) {
+		if (ENABLED) {
+			OverlapMetrics metrics = current.get();
+			if (metrics!=null) metrics.counters[counter.ordinal()].increment();
+		}
+	}
+
+	static void count(Counter counter, long n) {
+		if (ENABLED && n!=0) {
+			OverlapMetrics metrics = current.get();
+			if (metrics!=null) metrics.counters[counter.ordinal()].add(n);
+		}
+	}
+
+	static OverlapMetrics getCurrent() {
+		return current.get();
+	}
+
+	static OverlapMetrics setCurrent(OverlapMetrics metrics) {
+		// returns the previous metrics of this thread
+		OverlapMetrics previous = current.get();
+		if (metrics==null) current.remove();
+		else current.set(metrics);
+		return previous;
+	}
+
+	private final String label;
+	private final long[] phaseNanos;
+	private final LongAdder[] counters;
+	private Phase currentPhase;
+	private long currentPhaseStart;
+	private PhaseEvent currentPhaseEvent;
+
+	OverlapMetrics(String label) {
+		this.label = label;
+		phaseNanos = new long[Phase.values().length];
+		counters = new LongAdder[Counter.values().length];
+		for (int i=0; i<counters.length; i++)
+			counters[i] = new LongAdder();
+		currentPhase = null;
+		// counts of this thread go to this run until finish
+		current.set(this);
+	}
+
+	void startPhase(Phase phase) {
+		if (currentPhase!=null) endPhase();
+		currentPhase = phase;
+		currentPhaseEvent = new PhaseEvent();
+		currentPhaseEvent.testCase = label;
+		currentPhaseEvent.phase = phase.name();
+		currentPhaseEvent.begin();
+		currentPhaseStart = System.nanoTime();
+	}
+
+	void endPhase() {
+		if (currentPhase==null) throw new IllegalStateException();
+		phaseNanos[currentPhase.ordinal()] += System.nanoTime()-currentPhaseStart;
+		currentPhaseEvent.commit();
+		currentPhaseEvent = null;
+		currentPhase = null;
+	}
+
+	OverlapMetrics finish() {
+		if (currentPhase!=null) endPhase();
+		if (current.get()==this) current.remove();
+		return this;
+	}
+
+	long getPhaseNanos(Phase phase) {
+		return phaseNanos[phase.ordinal()];
+	}
+
+	long get(Counter counter) {
+		return counters[counter.ordinal()].sum();
+	}
+
+	@Override public String toString() {
+		StringBuilder sb = new StringBuilder();
+		sb.append(String.format("Metrics of \"%s\":%n", label));
+		for (Phase p : Phase.values())
+			sb.append(String.format(Locale.ENGLISH, "   %-18s %10.3f ms%n", p, phaseNanos[p.ordinal()]/1e6));
+		if (ENABLED)
+			for (Counter c : Counter.values())
+				sb.append(String.format(Locale.ENGLISH, "   %-26s %,14d%n", c, counters[c.ordinal()].sum()));
+		return sb.toString();
+	}
+
+	@Name("net.schwarzbaer.sphereoverlap.Phase")
+	@Label("Overlap Phase")
+	@Category("SphereOverlap")
+	static class PhaseEvent extends Event {
+		@Label("Test Case") String testCase;
+		@Label("Phase") String phase;
+	}
+
+	@Name("net.schwarzbaer.sphereoverlap.CircleValidation")
+	@Label("Edge Circle Not On Sphere")
+	@Category("SphereOverlap")
+	static class CircleValidationEvent extends Event {
+		@Label("Sphere 1") int index1;
+		@Label("Sphere 2") int index2;
+		@Label("On Sphere 1") boolean isOnSphere1;
+		@Label("On Sphere 2") boolean isOnSphere2;
+	}
+}
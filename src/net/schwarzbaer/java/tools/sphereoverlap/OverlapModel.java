@@ -0,0 +1,156 @@
+package net.schwarzbaer.java.tools.sphereoverlap;
+
+import java.util.Arrays;
+import java.util.HashMap;
+import java.util.Vector;
+
+import net.schwarzbaer.java.tools.sphereoverlap.SphereOverlap.Sphere;
+
+class OverlapModel {
+
+	// overlap result (covered points, edge circles) of a changing set of spheres
+	// a change re-culls only the spheres touching the changed sphere (old or new position)
+	// and re-derives only the edge circles between those spheres
+	// culled points are only masked, so they come back if a covering sphere moves away
+
+	private final ParallelEngine engine;
+	private final Vector<Sphere> spheres;
+	private final HashMap<Long,OverlapEdgeCircle> circles; // key: index1,index2
+	private Sphere[] sphereArray;
+	private SphereGrid grid;
+
+	OverlapModel(ParallelEngine engine) {
+		this(new Sphere[0], engine);
+	}
+
+	OverlapModel(Sphere[] spheres, ParallelEngine engine) {
+		this.engine = engine;
+		this.spheres = new Vector<>(Arrays.asList(spheres));
+		circles = new HashMap<>();
+		rebuildIndex();
+		engine.forEach(sphereArray.length, this::cull);
+		for (OverlapEdgeCircle circle : OverlapEdgeCircle.computeAll(sphereArray, grid, engine))
+			circles.put(getKey(circle.index1, circle.index2), circle);
+	}
+
+	Sphere[] getSpheres() {
+		return sphereArray;
+	}
+
+	SphereGrid getGrid() {
+		return grid;
+	}
+
+	Vector<OverlapEdgeCircle> getCircles() {
+		// same order as OverlapEdgeCircle.computeAll
+		Long[] keys = circles.keySet().toArray(new Long[circles.size()]);
+		Arrays.sort(keys);
+		Vector<OverlapEdgeCircle> result = new Vector<>(keys.length);
+		for (Long key : keys)
+			result.add(circles.get(key));
+		return result;
+	}
+
+	SurfaceCoverage computeCoverage() {
+		return SurfaceCoverage.compute(sphereArray, getCircles(), grid, engine);
+	}
+
+	void add(Sphere sphere) {
+		spheres.add(sphere);
+		update(null, sphere);
+	}
+
+	Sphere move(Sphere sphere, double x, double y, double z) {
+		int index = indexOf(sphere);
+		Sphere moved = new Sphere(x, y, z, sphere.radius, sphere.nPoints);
+		spheres.set(index, moved);
+		update(sphere, moved);
+		return moved;
+	}
+
+	void remove(Sphere sphere) {
+		int index = indexOf(sphere);
+		spheres.remove(index);
+
+		// circles of the removed sphere are gone, all indices behind it move one step forward
+		Vector<OverlapEdgeCircle> remaining = new Vector<>(circles.size());
+		for (OverlapEdgeCircle circle : circles.values())
+			if (circle.index1!=index && circle.index2!=index)
+				remaining.add(circle);
+		circles.clear();
+		for (OverlapEdgeCircle circle : remaining) {
+			if (circle.index1>index) circle.index1--;
+			if (circle.index2>index) circle.index2--;
+			circles.put(getKey(circle.index1, circle.index2), circle);
+		}
+
+		update(sphere, null);
+	}
+
+	private int indexOf(Sphere sphere) {
+		for (int i=0; i<spheres.size(); i++)
+			if (spheres.get(i)==sphere)
+				return i;
+		throw new IllegalArgumentException("Sphere is not part of this model: "+sphere);
+	}
+
+	private void update(Sphere before, Sphere after) {
+		// before: changed sphere at its old position (or null), after: at its new position (or null)
+		rebuildIndex();
+
+		boolean[] isAffected = new boolean[sphereArray.length];
+		IndexList affected = new IndexList();
+		for (int i=0; i<sphereArray.length; i++) {
+			Sphere sp = sphereArray[i];
+			if (sp==after || touches(sp, before) || touches(sp, after)) {
+				isAffected[i] = true;
+				affected.add(i);
+			}
+		}
+
+		engine.forEach(affected.size(), k->cull(affected.get(k)));
+
+		// every edge circle that the changed sphere could cut runs between two affected spheres
+		circles.values().removeIf(circle -> isAffected[circle.index1] && isAffected[circle.index2]);
+		@SuppressWarnings({"unchecked","rawtypes"})
+		Vector<OverlapEdgeCircle>[] fragments = new Vector[affected.size()];
+		engine.forEach(affected.size(), k->{
+			int i = affected.get(k);
+			IndexList candidates = new IndexList();
+			Vector<OverlapEdgeCircle> fragment = new Vector<>();
+			grid.forEachIntersecting(i, j->{
+				if (i<j && isAffected[j]) {
+					OverlapEdgeCircle circle = OverlapEdgeCircle.compute(sphereArray, i, j, grid, candidates);
+					if (circle!=null) fragment.add(circle);
+				}
+			});
+			fragments[k] = fragment;
+		});
+		for (Vector<OverlapEdgeCircle> fragment : fragments)
+			for (OverlapEdgeCircle circle : fragment)
+				circles.put(getKey(circle.index1, circle.index2), circle);
+	}
+
+	private void rebuildIndex() {
+		// rebuilding the grid is linear in the sphere count, much cheaper than re-culling points
+		sphereArray = spheres.toArray(new Sphere[spheres.size()]);
+		grid = new SphereGrid(sphereArray);
+	}
+
+	private void cull(int i) {
+		Sphere sp = sphereArray[i];
+		sp.covered.clear();
+		grid.forEachIntersecting(i, j->sp.markCovered(sphereArray[j]));
+	}
+
+	private static boolean touches(Sphere sp1, Sphere sp2) {
+		if (sp1==null || sp2==null) return false;
+		// with the same slack as the grid bounds
+		double slack = 1e-9*(sp1.radius + sp2.radius + sp1.center.getDistance(sp2.center));
+		return sp1.center.getDistance(sp2.center) <= sp1.radius + sp2.radius + slack;
+	}
+
+	private static long getKey(int index1, int index2) {
+		return ((long) index1 << 32) | index2;
+	}
+}
@@ -0,0 +1,282 @@
+package net.schwarzbaer.java.tools.sphereoverlap;
+
+import java.io.BufferedReader;
+import java.io.File;
+import java.io.IOException;
+import java.io.InputStream;
+import java.io.InputStreamReader;
+import java.io.OutputStream;
+import java.io.PrintStream;
+import java.io.PrintWriter;
+import java.net.StandardProtocolFamily;
+import java.net.UnixDomainSocketAddress;
+import java.nio.channels.Channels;
+import java.nio.channels.ClosedChannelException;
+import java.nio.channels.ServerSocketChannel;
+import java.nio.channels.SocketChannel;
+import java.nio.charset.StandardCharsets;
+import java.nio.file.Files;
+import java.nio.file.Path;
+import java.util.HashSet;
+import java.util.Locale;
+import java.util.Random;
+import java.util.Vector;
+
+import net.schwarzbaer.java.tools.sphereoverlap.SphereOverlap.Sphere;
+
+class OverlapServer {
+
+	// long running worker: one JVM (compiled code, SphereTemplates cache, ParallelEngine threads) for many overlap runs
+	// requests come line by line over stdin (responses on stdout) or over a Unix domain socket (any number of connections)
+	//    run <manifest line>          test case like a BatchRunner manifest line, relative sphere files are relative to the working directory
+	//                                 sphere file "-" -> spheres of the last "spheres" request of this connection
+	//    spheres <count>              followed by <count> lines "x y z radius nPoints" (checked like in the Sphere constructor)
+	//    ping | quit | shutdown       quit closes the connection, shutdown stops the server
+	// responses: one line per request
+	//    ok <spheres> <surviving points> <ms> <output file>
+	//    error <message>
+	// before the first request, a few random sphere sets run through all phases (no output) -> JIT compiled hot paths
+
+	static final String WARMUP_PROPERTY = "sphereoverlap.warmup"; // number of warm-up rounds, 0 -> no warm-up
+	static final int MAX_INLINE_SPHERES = 1_000_000; // bigger sphere sets go through sphere files (or OutOfCoreOverlap)
+
+	private final File outputFolder;
+	private final ParallelEngine engine;
+	private final HashSet<String> runningLabels; // labels of the runs in progress (BatchRunner.getLabelKey) -> one output file per run
+	private volatile boolean isShutdown;
+	private ServerSocketChannel serverChannel;
+
+	private OverlapServer(File outputFolder, ParallelEngine engine) {
+		this.outputFolder = outputFolder;
+		this.engine = engine;
+		runningLabels = new HashSet<>();
+		isShutdown = false;
+		serverChannel = null;
+	}
+
+	static void runOnStdin(File outputFolder, ParallelEngine engine) {
+		// stdout belongs to the protocol -> everything else, that is printed, goes to stderr
+		PrintStream protocolOut = System.out;
+		System.setOut(System.err);
+		OverlapServer server = new OverlapServer(outputFolder, engine);
+		if (!server.prepare()) return;
+		try {
+			server.serve(System.in, protocolOut);
+		} catch (IOException e) {
+			System.err.printf("IOException while reading requests: %s%n", e.getMessage());
+		}
+	}
+
+	static void runOnSocket(File socketFile, File outputFolder, ParallelEngine engine) {
+		OverlapServer server = new OverlapServer(outputFolder, engine);
+		if (!server.prepare()) return;
+
+		Path path = socketFile.toPath();
+		try {
+			// a socket file of a previous server, that wasn't stopped properly, is replaced (nothing else)
+			if (Files.exists(path) && !Files.isRegularFile(path) && !Files.isDirectory(path))
+				Files.delete(path);
+			server.serverChannel = ServerSocketChannel.open(StandardProtocolFamily.UNIX);
+			server.serverChannel.bind(UnixDomainSocketAddress.of(path));
+		} catch (IOException e) {
+			System.err.printf("Can't open socket \"%s\": %s%n", socketFile.getAbsolutePath(), e.getMessage());
+			return;
+		}
+		System.out.printf("Listening on \"%s\"%n", socketFile.getAbsolutePath());
+
+		try {
+			while (!server.isShutdown) {
+				SocketChannel channel = server.serverChannel.accept();
+				Thread thread = new Thread(()->server.serve(channel), "OverlapServer connection");
+				thread.setDaemon(true);
+				thread.start();
+			}
+		} catch (ClosedChannelException e) {
+			// shutdown request
+		} catch (IOException e) {
+			System.err.printf("IOException while accepting connections on \"%s\": %s%n", socketFile.getAbsolutePath(), e.getMessage());
+		} finally {
+			server.stop();
+			try {
+				Files.deleteIfExists(path);
+			} catch (IOException e) {
+				System.err.printf("Can't delete socket \"%s\": %s%n", socketFile.getAbsolutePath(), e.getMessage());
+			}
+		}
+	}
+
+	private boolean prepare() {
+		if (!outputFolder.isDirectory() && !outputFolder.mkdirs()) {
+			System.err.printf("Can't create folder \"%s\"%n", outputFolder.getAbsolutePath());
+			return false;
+		}
+		int nRounds = Math.max(0, Integer.getInteger(WARMUP_PROPERTY, 3));
+		if (nRounds>0) {
+			long start = System.nanoTime();
+			warmUp(nRounds, engine);
+			System.err.printf(Locale.ENGLISH, "Warm-up: %d rounds in %1.1f s%n", nRounds, (System.nanoTime()-start)/1e9);
+		}
+		return true;
+	}
+
+	static void warmUp(int nRounds, ParallelEngine engine) {
+		// same phases as SphereOverlap.run, without any output
+		Random random = new Random(42);
+		for (int round=0; round<nRounds; round++) {
+			Sphere[] spheres = Sphere.createRandomSpheres(random, 300, 20, 50, 400, 400, 400, 2000);
+			SphereGrid grid = new SphereGrid(spheres);
+			SphereOverlap.removeOverlap(spheres, grid, engine);
+			Vector<OverlapEdgeCircle> circles = BoundaryArrangement.ENABLED ? BoundaryArrangement.build(spheres, grid, engine).circles : OverlapEdgeCircle.computeAll(spheres, grid, engine);
+			SurfaceCoverage.compute(spheres, circles, grid, engine);
+			EdgeLineSet.create(circles, ArcTessellation.fromSystemProperty(1));
+		}
+	}
+
+	private void stop() {
+		isShutdown = true;
+		if (serverChannel!=null)
+			try {
+				serverChannel.close();
+			} catch (IOException e) {
+				System.err.printf("IOException while closing the server socket: %s%n", e.getMessage());
+			}
+	}
+
+	private void serve(SocketChannel channel) {
+		try (channel) {
+			serve(Channels.newInputStream(channel), Channels.newOutputStream(channel));
+		} catch (IOException e) {
+			System.err.printf("IOException in connection: %s%n", e.getMessage());
+		}
+	}
+
+	private void serve(InputStream input, OutputStream output) throws IOException {
+		BufferedReader in = new BufferedReader(new InputStreamReader(input, StandardCharsets.UTF_8));
+		PrintWriter out = new PrintWriter(output, true, StandardCharsets.UTF_8);
+		double[] inlineSpheres = null; // x,y,z,radius,nPoints per sphere
+		int nRequests = 0;
+
+		String line;
+		while (!isShutdown && (line = in.readLine())!=null) {
+			line = line.trim();
+			if (line.isEmpty() || line.startsWith("#")) continue;
+			nRequests++;
+			int pos = line.indexOf(' ');
+			String command = pos<0 ? line : line.substring(0, pos);
+			String arguments = pos<0 ? "" : line.substring(pos+1).trim();
+
+			switch (command) {
+			case "ping":
+				out.println("ok pong");
+				break;
+
+			case "quit":
+				out.println("ok bye");
+				return;
+
+			case "shutdown":
+				out.println("ok shutdown");
+				stop();
+				return;
+
+			case "spheres":
+				long count;
+				try {
+					count = Long.parseLong(arguments);
+				} catch (NumberFormatException e) {
+					// without a count the sphere lines can't be skipped -> each one is answered as an unknown request
+					out.printf("error wrong number: %s%n", e.getMessage());
+					break;
+				}
+				try {
+					inlineSpheres = readSpheres(in, count);
+					out.printf("ok %d spheres%n", inlineSpheres.length/5);
+				} catch (IllegalArgumentException e) {
+					inlineSpheres = null; // "run" with "-" doesn't use an older set by mistake
+					out.printf("error %s%n", e.getMessage());
+				}
+				break;
+
+			case "run":
+				double[] inlineSpheres_ = inlineSpheres;
+				BatchRunner.Entry entry;
+				try {
+					entry = BatchRunner.parseEntry(nRequests, arguments, name->{
+						if (!name.equals("-")) return BatchRunner.readSphereFile(new File("").getAbsoluteFile(), name);
+						if (inlineSpheres_==null) throw new IllegalArgumentException("no spheres sent before");
+						return ()->createSpheres(inlineSpheres_);
+					});
+				} catch (IllegalArgumentException e) {
+					out.printf("error %s%n", e.getMessage());
+					break;
+				}
+				String labelKey = BatchRunner.getLabelKey(entry.testCase.label);
+				synchronized (runningLabels) {
+					if (!runningLabels.add(labelKey)) {
+						out.printf("error label \"%s\" is in use by another connection%n", entry.testCase.label);
+						break;
+					}
+				}
+				entry.testCase.outputFolder = outputFolder;
+				BatchRunner.Result result;
+				try {
+					result = BatchRunner.runCase(entry, engine, null);
+				} finally {
+					synchronized (runningLabels) { runningLabels.remove(labelKey); }
+				}
+				if (result.isOk())
+					out.printf(Locale.ENGLISH, "ok %d %d %1.1f %s%n", result.nSpheres, result.nSurvivingPoints, getTotalMillis(result.metrics), entry.testCase.outputFile.getAbsolutePath());
+				else
+					out.printf("error %s%n", result.error);
+				break;
+
+			default:
+				out.printf("error unknown request \"%s\"%n", command);
+			}
+		}
+	}
+
+	static double[] readSpheres(BufferedReader in, long count) throws IOException {
+		// all <count> lines are read, also after an error -> the next request starts at the right line
+		if (count<0) throw new IllegalArgumentException(String.format("wrong number of spheres: %d", count));
+		double[] values = count>MAX_INLINE_SPHERES ? null : new double[(int) count*5];
+		String error = values!=null ? null : String.format("too many spheres: %d (max. %d)", count, MAX_INLINE_SPHERES);
+		for (long i=0; i<count; i++) {
+			String line = in.readLine();
+			if (line==null) throw new IllegalArgumentException(String.format("%d of %d spheres received", i, count));
+			if (error!=null) continue;
+			String[] fields = line.trim().split("\\s+");
+			if (fields.length!=5) {
+				error = String.format("sphere %d: 5 values expected, found %d", i, fields.length);
+				continue;
+			}
+			try {
+				for (int k=0; k<4; k++)
+					values[(int) i*5+k] = Double.parseDouble(fields[k]);
+				values[(int) i*5+4] = Integer.parseInt(fields[4]); // exact in a double
+				Sphere.checkValues(values[(int) i*5], values[(int) i*5+1], values[(int) i*5+2], values[(int) i*5+3], (int) values[(int) i*5+4]);
+			} catch (NumberFormatException e) {
+				error = String.format("sphere %d: wrong number (%s)", i, e.getMessage());
+			} catch (IllegalArgumentException e) {
+				error = String.format("sphere %d: %s", i, e.getMessage());
+			}
+		}
+		if (error!=null) throw new IllegalArgumentException(error);
+		return values;
+	}
+
+	private static Sphere[] createSpheres(double[] values) {
+		// new sphere objects for each run (points and masks belong to a run)
+		Sphere[] spheres = new Sphere[values.length/5];
+		for (int i=0; i<spheres.length; i++)
+			spheres[i] = new Sphere(values[i*5], values[i*5+1], values[i*5+2], values[i*5+3], (int) values[i*5+4]);
+		return spheres;
+	}
+
+	private static double getTotalMillis(OverlapMetrics metrics) {
+		long totalNanos = 0;
+		for (OverlapMetrics.Phase phase : OverlapMetrics.Phase.values())
+			totalNanos += metrics.getPhaseNanos(phase);
+		return totalNanos/1e6;
+	}
+}
@@ -0,0 +1,82 @@
+package net.schwarzbaer.java.tools.sphereoverlap;
+
+import java.util.concurrent.ForkJoinPool;
+import java.util.concurrent.RecursiveAction;
+import java.util.function.IntConsumer;
+
+class ParallelEngine {
+
+	// runs independent tasks over an index range on a fork-join pool
+	// with parallelism 1 everything runs in the calling thread
+	// the worker threads count into the OverlapMetrics of the calling thread
+
+	static final String THREADS_PROPERTY = "sphereoverlap.threads";
+
+	private final int parallelism;
+	private final ForkJoinPool pool;
+
+	ParallelEngine(int parallelism) {
+		if (parallelism<1) throw new IllegalArgumentException();
+		this.parallelism = parallelism;
+		pool = parallelism==1 ? null : new ForkJoinPool(parallelism);
+	}
+
+	static ParallelEngine createDefault() {
+		return new ParallelEngine(Integer.getInteger(THREADS_PROPERTY, Runtime.getRuntime().availableProcessors()));
+	}
+
+	int getParallelism() {
+		return parallelism;
+	}
+
+	void forEach(int n, IntConsumer action) {
+		if (pool==null || n<2) {
+			for (int i=0; i<n; i++)
+				action.accept(i);
+			return;
+		}
+		int grain = Math.max(1, n/(parallelism*8));
+		pool.invoke(new RangeTask(0, n, grain, action, OverlapMetrics.ENABLED ? OverlapMetrics.getCurrent() : null));
+	}
+
+	void shutdown() {
+		if (pool!=null) pool.shutdown();
+	}
+
+	private static class RangeTask extends RecursiveAction {
+		private static final long serialVersionUID = 4178826398470447162L;
+
+		private final int start, end, grain;
+		private final IntConsumer action;
+		private final OverlapMetrics metrics;
+
+		RangeTask(int start, int end, int grain, IntConsumer action, OverlapMetrics metrics) {
+			this.start = start;
+			this.end = end;
+			this.grain = grain;
+			this.action = action;
+			this.metrics = metrics;
+		}
+
+		@Override protected void compute() {
+			if (end-start <= grain) {
+				if (metrics==null) {
+					for (int i=start; i<end; i++)
+						action.accept(i);
+					return;
+				}
+				// a worker may run tasks of several runs one after another (or nested, while it waits in invokeAll)
+				OverlapMetrics previous = OverlapMetrics.setCurrent(metrics);
+				try {
+					for (int i=start; i<end; i++)
+						action.accept(i);
+				} finally {
+					OverlapMetrics.setCurrent(previous);
+				}
+				return;
+			}
+			int mid = (start+end) >>> 1;
+			invokeAll(new RangeTask(start, mid, grain, action, metrics), new RangeTask(mid, end, grain, action, metrics));
+		}
+	}
+}
@@ -0,0 +1,247 @@
+package net.schwarzbaer.java.tools.sphereoverlap;
+
+import java.io.Closeable;
+import java.io.File;
+import java.io.IOException;
+import java.nio.ByteBuffer;
+import java.nio.ByteOrder;
+import java.nio.channels.FileChannel;
+import java.nio.charset.StandardCharsets;
+import java.nio.file.StandardOpenOption;
+import java.util.Vector;
+
+import net.schwarzbaer.java.tools.sphereoverlap.SphereOverlap.Sphere;
+
+class PlyWriter {
+
+	// binary little endian PLY: point faces as "face" elements, edge circles (EdgeLineSet) as "edge" elements
+	// the whole file is built in one direct buffer and written with a single bulk channel write
+	// (files bigger than MAX_BUFFER_SIZE are written in several blocks of that size)
+	// or it's merged from pieces, that were written (spilled) independently
+
+	static final long MAX_VERTICES = Integer.MAX_VALUE; // vertex indices are PLY ints
+	private static final int MAX_BUFFER_SIZE = 1<<28;
+	private static final int FACE_CORNERS = 5;
+	private static final int VERTEX_SIZE = 3*4;
+	private static final int FACE_SIZE = 1 + FACE_CORNERS*4;
+	private static final int EDGE_SIZE = 2*4;
+	private static final int PIECE_BUFFER_SIZE = 1<<20;
+
+	private final FileChannel channel;
+	private final ByteBuffer buffer;
+
+	private PlyWriter(FileChannel channel, long size) {
+		this.channel = channel;
+		buffer = ByteBuffer.allocateDirect((int) Math.min(size, MAX_BUFFER_SIZE)).order(ByteOrder.LITTLE_ENDIAN);
+	}
+
+	static void write(File file, Sphere[] spheres, double pointSize, EdgeLineSet edges, String comments) {
+		long nFaces = 0;
+		for (Sphere sphere : spheres)
+			nFaces += sphere.getSurvivingPointCount();
+
+		long nEdges = edges.getEdgeCount();
+		long nVertices = nFaces*FACE_CORNERS + edges.getVertexCount();
+		if (nVertices > MAX_VERTICES) {
+			System.err.printf("Can't write \"%s\": %d vertices don't fit into PLY int indices%n", file.getAbsolutePath(), nVertices);
+			return;
+		}
+
+		byte[] header = createHeader(nVertices, nFaces, nEdges, comments);
+		long size = header.length + nVertices*VERTEX_SIZE + nFaces*FACE_SIZE + nEdges*EDGE_SIZE;
+
+		try (FileChannel channel = FileChannel.open(file.toPath(), StandardOpenOption.CREATE, StandardOpenOption.WRITE, StandardOpenOption.TRUNCATE_EXISTING)) {
+			PlyWriter out = new PlyWriter(channel, size);
+			out.buffer.put(header);
+			out.writeVertices(spheres, pointSize, edges);
+			out.writeFaces(nFaces);
+			out.writeEdges(edges, (int) (nFaces*FACE_CORNERS));
+			out.flush();
+		} catch (IOException e) {
+			System.err.printf("IOException while writing \"%s\": %s%n", file.getAbsolutePath(), e.getMessage());
+		}
+	}
+
+	static void merge(File file, Vector<Piece> pieces, String comments) throws IOException {
+		// sections of the pieces are copied as they are (same binary format), only faces and edges need other vertex indices
+		long nFaces = 0, nEdgeVertices = 0, nEdges = 0;
+		for (Piece piece : pieces) {
+			nFaces += piece.nFaces;
+			nEdgeVertices += piece.nEdgeVertices;
+			nEdges += piece.nEdges;
+		}
+		long nVertices = nFaces*FACE_CORNERS + nEdgeVertices;
+		if (nVertices > MAX_VERTICES)
+			throw new IOException(String.format("%d vertices don't fit into PLY int indices", nVertices));
+
+		try (FileChannel channel = FileChannel.open(file.toPath(), StandardOpenOption.CREATE, StandardOpenOption.WRITE, StandardOpenOption.TRUNCATE_EXISTING)) {
+			PlyWriter out = new PlyWriter(channel, PIECE_BUFFER_SIZE);
+			out.buffer.put(createHeader(nVertices, nFaces, nEdges, comments));
+			out.flush();
+
+			for (Piece piece : pieces) piece.transferTo(channel, 0, piece.nFaces*FACE_CORNERS*VERTEX_SIZE);
+			for (Piece piece : pieces) piece.transferTo(channel, piece.getEdgeVertexStart(), (long) piece.nEdgeVertices*VERTEX_SIZE);
+			out.writeFaces(nFaces);
+
+			long firstVertex = nFaces*FACE_CORNERS;
+			for (Piece piece : pieces) {
+				try (FileChannel in = FileChannel.open(piece.file.toPath(), StandardOpenOption.READ)) {
+					ByteBuffer edges = in.map(FileChannel.MapMode.READ_ONLY, piece.getEdgeStart(), (long) piece.nEdges*EDGE_SIZE).order(ByteOrder.LITTLE_ENDIAN);
+					for (int e=0; e<piece.nEdges; e++)
+						out.putEdge((int) (firstVertex+edges.getInt()), (int) (firstVertex+edges.getInt()));
+				}
+				firstVertex += piece.nEdgeVertices;
+			}
+			out.flush();
+		}
+	}
+
+	static class Piece implements Closeable {
+
+		// part of a PLY file in an own (spill) file, that is merged later:
+		// corners of the point faces, then edge vertices and edges (with vertex indices local to the edge vertices)
+
+		final File file;
+		private final FileChannel channel;
+		private final PlyWriter out;
+		private final double[] corners;
+		private long nFaces;
+		private int nEdgeVertices, nEdges;
+		private boolean hasEdges;
+
+		Piece(File file) throws IOException {
+			this.file = file;
+			channel = FileChannel.open(file.toPath(), StandardOpenOption.CREATE, StandardOpenOption.WRITE, StandardOpenOption.TRUNCATE_EXISTING);
+			out = new PlyWriter(channel, PIECE_BUFFER_SIZE);
+			corners = new double[FACE_CORNERS*3];
+			nFaces = 0;
+			nEdgeVertices = nEdges = 0;
+			hasEdges = false;
+		}
+
+		void addPointFace(double x, double y, double z, Sphere sphere, double pointSize) throws IOException {
+			if (hasEdges) throw new IllegalStateException();
+			VrmlStreamWriter.computePointFace(x, y, z, sphere, pointSize, corners);
+			for (int c=0; c<FACE_CORNERS; c++)
+				out.putVertex(corners[c*3], corners[c*3+1], corners[c*3+2]);
+			nFaces++;
+		}
+
+		void setEdges(EdgeLineSet edges) throws IOException {
+			if (hasEdges) throw new IllegalStateException();
+			hasEdges = true;
+			nEdgeVertices = edges.getVertexCount();
+			nEdges = edges.getEdgeCount();
+			for (int i=0; i<nEdgeVertices; i++)
+				out.putVertex(edges.getX(i), edges.getY(i), edges.getZ(i));
+			out.writeEdges(edges, 0);
+		}
+
+		long getVertexCount() {
+			return nFaces*FACE_CORNERS + nEdgeVertices;
+		}
+
+		private long getEdgeVertexStart() {
+			return nFaces*FACE_CORNERS*VERTEX_SIZE;
+		}
+
+		private long getEdgeStart() {
+			return getEdgeVertexStart() + (long) nEdgeVertices*VERTEX_SIZE;
+		}
+
+		private void transferTo(FileChannel target, long start, long length) throws IOException {
+			try (FileChannel in = FileChannel.open(file.toPath(), StandardOpenOption.READ)) {
+				for (long pos=start; pos<start+length; )
+					pos += in.transferTo(pos, start+length-pos, target);
+			}
+		}
+
+		@Override public void close() throws IOException {
+			try {
+				out.flush();
+			} finally {
+				channel.close();
+			}
+		}
+	}
+
+	private static byte[] createHeader(long nVertices, long nFaces, long nEdges, String comments) {
+		StringBuilder sb = new StringBuilder();
+		sb.append("ply\n");
+		sb.append("format binary_little_endian 1.0\n");
+		if (comments!=null)
+			for (String line : comments.split("\r?\n"))
+				if (!line.isEmpty())
+					sb.append("comment ").append(line.startsWith("#") ? line.substring(1) : line).append('\n');
+		sb.append("element vertex ").append(nVertices).append('\n');
+		sb.append("property float x\n");
+		sb.append("property float y\n");
+		sb.append("property float z\n");
+		sb.append("element face ").append(nFaces).append('\n');
+		sb.append("property list uchar int vertex_indices\n");
+		sb.append("element edge ").append(nEdges).append('\n');
+		sb.append("property int vertex1\n");
+		sb.append("property int vertex2\n");
+		sb.append("end_header\n");
+		return sb.toString().getBytes(StandardCharsets.US_ASCII);
+	}
+
+	private void writeVertices(Sphere[] spheres, double pointSize, EdgeLineSet edges) throws IOException {
+		double[] corners = new double[FACE_CORNERS*3];
+		for (Sphere sphere : spheres) {
+			SurfacePoints surface = sphere.surface;
+			for (int k=sphere.covered.nextClearBit(0); k<surface.size(); k=sphere.covered.nextClearBit(k+1)) {
+				VrmlStreamWriter.computePointFace(surface.getX(k), surface.getY(k), surface.getZ(k), sphere, pointSize, corners);
+				for (int c=0; c<FACE_CORNERS; c++)
+					putVertex(corners[c*3], corners[c*3+1], corners[c*3+2]);
+			}
+		}
+
+		for (int i=0; i<edges.getVertexCount(); i++)
+			putVertex(edges.getX(i), edges.getY(i), edges.getZ(i));
+	}
+
+	private void writeFaces(long nFaces) throws IOException {
+		for (long f=0; f<nFaces; f++) {
+			ensureRemaining(FACE_SIZE);
+			buffer.put((byte) FACE_CORNERS);
+			for (int c=0; c<FACE_CORNERS; c++)
+				buffer.putInt((int) (f*FACE_CORNERS+c));
+		}
+	}
+
+	private void writeEdges(EdgeLineSet edges, int firstVertex) throws IOException {
+		// each pair of consecutive indices in a polyline is an edge
+		IndexList polylines = edges.polylines;
+		for (int k=0; k+1<polylines.size(); k++) {
+			int v1 = polylines.get(k);
+			int v2 = polylines.get(k+1);
+			if (v1>=0 && v2>=0)
+				putEdge(firstVertex+v1, firstVertex+v2);
+		}
+	}
+
+	private void putVertex(double x, double y, double z) throws IOException {
+		ensureRemaining(VERTEX_SIZE);
+		buffer.putFloat((float) x);
+		buffer.putFloat((float) y);
+		buffer.putFloat((float) z);
+	}
+
+	private void putEdge(int v1, int v2) throws IOException {
+		ensureRemaining(EDGE_SIZE);
+		buffer.putInt(v1);
+		buffer.putInt(v2);
+	}
+
+	private void ensureRemaining(int n) throws IOException {
+		if (buffer.remaining() < n) flush();
+	}
+
+	private void flush() throws IOException {
+		buffer.flip();
+		while (buffer.hasRemaining())
+			channel.write(buffer);
+		buffer.clear();
+	}
+}
@@ -0,0 +1,251 @@
+package net.schwarzbaer.java.tools.sphereoverlap;
+
+import java.io.BufferedInputStream;
+import java.io.BufferedOutputStream;
+import java.io.DataInputStream;
+import java.io.DataOutputStream;
+import java.io.File;
+import java.io.IOException;
+import java.nio.ByteBuffer;
+import java.nio.ByteOrder;
+import java.nio.charset.StandardCharsets;
+import java.nio.file.AtomicMoveNotSupportedException;
+import java.nio.file.Files;
+import java.nio.file.StandardCopyOption;
+import java.security.MessageDigest;
+import java.security.NoSuchAlgorithmException;
+import java.util.Arrays;
+import java.util.BitSet;
+import java.util.Comparator;
+import java.util.HashSet;
+import java.util.Vector;
+import java.util.zip.DeflaterOutputStream;
+import java.util.zip.InflaterInputStream;
+
+import net.schwarzbaer.java.tools.sphereoverlap.SphereOverlap.OutputFormat;
+import net.schwarzbaer.java.tools.sphereoverlap.SphereOverlap.Sphere;
+
+class ResultCache {
+
+	// results of overlap runs on disk, keyed by the SHA-256 of the sphere set (centres, radii, nPoints), the point templates and the output format
+	// (the template points come from the geometry library -> another version of it mustn't reuse masks of other points)
+	// an entry holds everything the output needs: covered point masks, per-sphere surviving counts (checked against the masks),
+	// the remaining arcs of the edge circles (their geometry is computed again from the spheres) and the SurfaceCoverage
+	// one deflated binary file per entry, written to a temporary file and moved -> concurrent runs never see half written entries
+	// the folder is limited in size, least recently used entries (file modification time, set on each hit) are deleted first
+	//
+	// not used for VRML_STREAMING (it doesn't keep masks) and with BoundaryArrangement.ENABLED (its vertices aren't stored)
+
+	static final String PROPERTY      = "sphereoverlap.cache";     // cache folder, not set -> no cache
+	static final String SIZE_PROPERTY = "sphereoverlap.cacheSize"; // max size of the folder in MB
+	static final int MAGIC = 'S' | 'O'<<8 | 'R'<<16 | 'C'<<24;
+	static final int VERSION = 2; // of the file format and of the cached computations, part of the key
+	private static final String EXTENSION = ".bin";
+
+	private final File folder;
+	private final long maxBytes;
+
+	static class Entry {
+		final Vector<OverlapEdgeCircle> circles;
+		final SurfaceCoverage coverage;
+
+		private Entry(Vector<OverlapEdgeCircle> circles, SurfaceCoverage coverage) {
+			this.circles = circles;
+			this.coverage = coverage;
+		}
+	}
+
+	private ResultCache(File folder, long maxBytes) {
+		this.folder = folder;
+		this.maxBytes = maxBytes;
+	}
+
+	static ResultCache fromSystemProperty() {
+		String folder = System.getProperty(PROPERTY);
+		if (folder==null || folder.isBlank()) return null;
+		return new ResultCache(new File(folder.trim()), Math.max(1, Long.getLong(SIZE_PROPERTY, 256))*(1<<20));
+	}
+
+	static boolean isUsable(OutputFormat format) {
+		return format!=OutputFormat.VRML_STREAMING && !BoundaryArrangement.ENABLED;
+	}
+
+	static String getKey(Sphere[] spheres, OutputFormat format) {
+		MessageDigest digest;
+		try {
+			digest = MessageDigest.getInstance("SHA-256");
+		} catch (NoSuchAlgorithmException e) {
+			throw new IllegalStateException(e); // every Java platform has SHA-256
+		}
+		ByteBuffer buffer = ByteBuffer.allocate(4*8+4).order(ByteOrder.LITTLE_ENDIAN);
+		buffer.putInt(VERSION).putInt(spheres.length).flip();
+		digest.update(buffer);
+		digest.update(format.name().getBytes(StandardCharsets.UTF_8));
+		for (Sphere sp : spheres) {
+			buffer.clear();
+			buffer.putDouble(sp.center.x).putDouble(sp.center.y).putDouble(sp.center.z).putDouble(sp.radius).putInt(sp.nPoints).flip();
+			digest.update(buffer);
+		}
+		// each template once, in the order of first use
+		HashSet<Integer> templates = new HashSet<>();
+		for (Sphere sp : spheres)
+			if (templates.add(sp.nPoints)) {
+				SphereTemplates.Template template = sp.surface.template;
+				buffer.clear();
+				buffer.putInt(template.nPoints).putInt(template.size()).flip();
+				digest.update(buffer);
+				for (int k=0; k<template.size(); k++) {
+					buffer.clear();
+					buffer.putDouble(template.x[k]).putDouble(template.y[k]).putDouble(template.z[k]).flip();
+					digest.update(buffer);
+				}
+			}
+		StringBuilder sb = new StringBuilder();
+		for (byte b : digest.digest())
+			sb.append(String.format("%02x", b));
+		return sb.toString();
+	}
+
+	private File getFile(String key) {
+		return new File(folder, key+EXTENSION);
+	}
+
+	Entry load(String key, Sphere[] spheres) {
+		// null, if there is no entry (or no usable one)
+		// on success the masks of the spheres are set
+		File file = getFile(key);
+		if (!file.isFile()) return null;
+		try (DataInputStream in = new DataInputStream(new BufferedInputStream(new InflaterInputStream(new BufferedInputStream(Files.newInputStream(file.toPath())))))) {
+			if (in.readInt()!=MAGIC || in.readInt()!=VERSION) throw new IOException("File is not a cache entry of this version");
+			if (!in.readUTF().equals(key)) throw new IOException("Wrong key");
+			if (in.readInt()!=spheres.length) throw new IOException("Wrong number of spheres");
+
+			BitSet[] masks = new BitSet[spheres.length];
+			for (int i=0; i<spheres.length; i++) {
+				int nSurviving = in.readInt();
+				int nWords = in.readInt();
+				if (nWords<0 || nWords > spheres[i].surface.size()/64+1) throw new IOException(String.format("Mask of sphere %d is too long", i));
+				long[] words = new long[nWords];
+				for (int k=0; k<words.length; k++)
+					words[k] = in.readLong();
+				masks[i] = BitSet.valueOf(words);
+				if (masks[i].length() > spheres[i].surface.size() || spheres[i].surface.size()-masks[i].cardinality() != nSurviving)
+					throw new IOException(String.format("Mask of sphere %d doesn't fit", i));
+			}
+
+			int nCircles = in.readInt();
+			if (nCircles<0 || nCircles > (long) spheres.length*(spheres.length-1)/2) throw new IOException("Wrong number of edge circles");
+			Vector<OverlapEdgeCircle> circles = new Vector<>(nCircles);
+			double[] arcs = new double[16];
+			for (int c=0; c<nCircles; c++) {
+				int index1 = in.readInt();
+				int index2 = in.readInt();
+				int nArcs = in.readInt(); // -1: full circle
+				if (index1<0 || index2<0 || index1>=spheres.length || index2>=spheres.length) throw new IOException("Wrong sphere index of an edge circle");
+				if (nArcs<-1 || nArcs>spheres.length) throw new IOException("Wrong number of arcs of an edge circle"); // k spheres cut a circle into k arcs at most
+				OverlapEdgeCircle circle = OverlapEdgeCircle.compute(spheres, index1, index2);
+				if (circle==null) throw new IOException("Edge circle without overlap");
+				if (nArcs>=0) {
+					if (arcs.length < nArcs*2) arcs = new double[nArcs*2];
+					for (int k=0; k<nArcs*2; k++)
+						arcs[k] = in.readDouble();
+					circle.setArcs(arcs, nArcs);
+				}
+				circles.add(circle);
+			}
+
+			double[] exposedArea = new double[spheres.length];
+			for (int i=0; i<spheres.length; i++)
+				exposedArea[i] = in.readDouble();
+			double totalArea = in.readDouble();
+			double volume = in.readDouble();
+
+			for (int i=0; i<spheres.length; i++) {
+				spheres[i].covered.clear();
+				spheres[i].covered.or(masks[i]);
+			}
+			file.setLastModified(System.currentTimeMillis());
+			return new Entry(circles, new SurfaceCoverage(exposedArea, totalArea, volume));
+
+		} catch (IOException e) {
+			// a broken entry is only a miss, it will be written again
+			System.err.printf("IOException while reading \"%s\": %s%n", file.getAbsolutePath(), e.getMessage());
+			file.delete();
+			return null;
+		}
+	}
+
+	void store(String key, Sphere[] spheres, Vector<OverlapEdgeCircle> circles, SurfaceCoverage coverage) {
+		if (!folder.isDirectory() && !folder.mkdirs()) {
+			System.err.printf("Can't create folder \"%s\"%n", folder.getAbsolutePath());
+			return;
+		}
+		File file = getFile(key);
+		File temp = null;
+		try {
+			temp = File.createTempFile(key, ".tmp", folder);
+			try (DataOutputStream out = new DataOutputStream(new BufferedOutputStream(new DeflaterOutputStream(new BufferedOutputStream(Files.newOutputStream(temp.toPath())))))) {
+				out.writeInt(MAGIC);
+				out.writeInt(VERSION);
+				out.writeUTF(key);
+				out.writeInt(spheres.length);
+				for (Sphere sp : spheres) {
+					long[] words = sp.covered.toLongArray();
+					out.writeInt(sp.getSurvivingPointCount());
+					out.writeInt(words.length);
+					for (long word : words)
+						out.writeLong(word);
+				}
+				out.writeInt(circles.size());
+				for (OverlapEdgeCircle circle : circles) {
+					out.writeInt(circle.index1);
+					out.writeInt(circle.index2);
+					if (circle.isFullCircle())
+						out.writeInt(-1);
+					else {
+						out.writeInt(circle.getArcCount());
+						for (int a=0; a<circle.getArcCount(); a++) {
+							out.writeDouble(circle.getArcMin(a));
+							out.writeDouble(circle.getArcMax(a));
+						}
+					}
+				}
+				for (double area : coverage.exposedArea)
+					out.writeDouble(area);
+				out.writeDouble(coverage.totalArea);
+				out.writeDouble(coverage.volume);
+			}
+			try {
+				Files.move(temp.toPath(), file.toPath(), StandardCopyOption.ATOMIC_MOVE, StandardCopyOption.REPLACE_EXISTING);
+			} catch (AtomicMoveNotSupportedException e) {
+				Files.move(temp.toPath(), file.toPath(), StandardCopyOption.REPLACE_EXISTING);
+			}
+		} catch (IOException e) {
+			System.err.printf("IOException while writing \"%s\": %s%n", file.getAbsolutePath(), e.getMessage());
+			if (temp!=null) temp.delete();
+			return;
+		}
+		evict();
+	}
+
+	private void evict() {
+		File[] files = folder.listFiles((dir,name)->name.endsWith(EXTENSION));
+		if (files==null) return;
+		long[] lastModified = new long[files.length];
+		long totalBytes = 0;
+		Integer[] order = new Integer[files.length];
+		for (int i=0; i<files.length; i++) {
+			lastModified[i] = files[i].lastModified();
+			totalBytes += files[i].length();
+			order[i] = i;
+		}
+		if (totalBytes<=maxBytes) return;
+		// least recently used first
+		Arrays.sort(order, Comparator.comparingLong(i->lastModified[i]));
+		for (int i : order) {
+			if (totalBytes<=maxBytes) break;
+			long length = files[i].length();
+			if (files[i].delete()) totalBytes -= length;
+		}
+	}
+}
@@ -0,0 +1,165 @@
+package net.schwarzbaer.java.tools.sphereoverlap;
+
+import java.io.Closeable;
+import java.io.File;
+import java.io.IOException;
+import java.nio.ByteBuffer;
+import java.nio.ByteOrder;
+import java.nio.channels.FileChannel;
+import java.nio.file.StandardOpenOption;
+import java.util.Random;
+
+import net.schwarzbaer.java.tools.sphereoverlap.SphereOverlap.Sphere;
+
+class SphereFile {
+
+	// binary sphere set, little endian:
+	//    header: magic "SPHR", version (int), number of spheres (long)
+	//    records: center x,y,z, radius (double), nPoints (int)
+	// read through memory mapped segments (a single mapping is limited to 2GB), nothing is copied into the heap
+
+	private static final int MAGIC = 'S' | 'P'<<8 | 'H'<<16 | 'R'<<24;
+	private static final int VERSION = 1;
+	private static final int HEADER_SIZE = 4+4+8;
+	private static final int RECORD_SIZE = 4*8+4;
+	private static final int RECORDS_PER_SEGMENT = Integer.MAX_VALUE / RECORD_SIZE;
+
+	private final File file;
+	private final int count;
+	private final ByteBuffer[] segments;
+
+	private SphereFile(File file, int count, ByteBuffer[] segments) {
+		this.file = file;
+		this.count = count;
+		this.segments = segments;
+	}
+
+	static SphereFile open(File file) throws IOException {
+		try (FileChannel channel = FileChannel.open(file.toPath(), StandardOpenOption.READ)) {
+			ByteBuffer header = ByteBuffer.allocate(HEADER_SIZE).order(ByteOrder.LITTLE_ENDIAN);
+			while (header.hasRemaining())
+				if (channel.read(header)<0) throw new IOException("File is too short for a sphere file header");
+			header.flip();
+			if (header.getInt()!=MAGIC) throw new IOException("File is not a sphere file");
+			int version = header.getInt();
+			if (version!=VERSION) throw new IOException(String.format("Unsupported sphere file version %d", version));
+			long count = header.getLong();
+			if (count<0 || count>Integer.MAX_VALUE) throw new IOException(String.format("Unsupported number of spheres: %d", count));
+			if (channel.size() < HEADER_SIZE + count*RECORD_SIZE) throw new IOException(String.format("File is too short for %d spheres", count));
+
+			// mappings stay valid after the channel is closed
+			ByteBuffer[] segments = new ByteBuffer[(int) ((count+RECORDS_PER_SEGMENT-1) / RECORDS_PER_SEGMENT)];
+			for (int s=0; s<segments.length; s++) {
+				long first = (long) s*RECORDS_PER_SEGMENT;
+				long n = Math.min(RECORDS_PER_SEGMENT, count-first);
+				segments[s] = channel.map(FileChannel.MapMode.READ_ONLY, HEADER_SIZE + first*RECORD_SIZE, n*RECORD_SIZE).order(ByteOrder.LITTLE_ENDIAN);
+			}
+			return new SphereFile(file, (int) count, segments);
+		}
+	}
+
+	File getFile() {
+		return file;
+	}
+
+	int size() {
+		return count;
+	}
+
+	private ByteBuffer getSegment(int i) { return segments[i / RECORDS_PER_SEGMENT]; }
+	private int getOffset(int i) { return (i % RECORDS_PER_SEGMENT) * RECORD_SIZE; }
+
+	double getX     (int i) { return getSegment(i).getDouble(getOffset(i)     ); }
+	double getY     (int i) { return getSegment(i).getDouble(getOffset(i)+ 8 ); }
+	double getZ     (int i) { return getSegment(i).getDouble(getOffset(i)+16 ); }
+	double getRadius(int i) { return getSegment(i).getDouble(getOffset(i)+24 ); }
+	int getPointCount(int i) { return getSegment(i).getInt  (getOffset(i)+32 ); }
+
+	void checkSphere(int i) {
+		// same checks as the Sphere constructor, with the number of the sphere
+		try {
+			Sphere.checkValues(getX(i), getY(i), getZ(i), getRadius(i), getPointCount(i));
+		} catch (IllegalArgumentException e) {
+			throw new IllegalArgumentException(String.format("sphere %d: %s", i, e.getMessage()));
+		}
+	}
+
+	Sphere createSphere(int i) {
+		checkSphere(i);
+		return new Sphere(getX(i), getY(i), getZ(i), getRadius(i), getPointCount(i));
+	}
+
+	Sphere[] createSpheres() {
+		Sphere[] spheres = new Sphere[count];
+		for (int i=0; i<count; i++)
+			spheres[i] = createSphere(i);
+		return spheres;
+	}
+
+	static void write(File file, Sphere[] spheres) throws IOException {
+		try (Writer out = new Writer(file)) {
+			for (Sphere sp : spheres)
+				out.add(sp.center.x, sp.center.y, sp.center.z, sp.radius, sp.nPoints);
+		}
+	}
+
+	static void writeRandom(File file, Random random, long nSpheres, double minRadius, double maxRadius, double size, int nPoints) throws IOException {
+		// same distribution as Sphere.createRandomSpheres, but streamed -> no sphere objects at all
+		try (Writer out = new Writer(file)) {
+			for (long i=0; i<nSpheres; i++) {
+				double x = (random.nextDouble()-0.5)*size;
+				double y = (random.nextDouble()-0.5)*size;
+				double z = (random.nextDouble()-0.5)*size;
+				double r = random.nextDouble()*(maxRadius-minRadius) + minRadius;
+				int n = (int) Math.round( nPoints * r*r/maxRadius/maxRadius );
+				out.add(x, y, z, r, n);
+			}
+		}
+	}
+
+	static class Writer implements Closeable {
+
+		// spheres are appended one by one, the number of spheres in the header is written at the end
+
+		private final FileChannel channel;
+		private final ByteBuffer buffer;
+		private long count;
+
+		Writer(File file) throws IOException {
+			channel = FileChannel.open(file.toPath(), StandardOpenOption.CREATE, StandardOpenOption.WRITE, StandardOpenOption.TRUNCATE_EXISTING);
+			buffer = ByteBuffer.allocateDirect(1<<16).order(ByteOrder.LITTLE_ENDIAN);
+			count = 0;
+			buffer.putInt(MAGIC);
+			buffer.putInt(VERSION);
+			buffer.putLong(0);
+		}
+
+		void add(double x, double y, double z, double radius, int nPoints) throws IOException {
+			if (buffer.remaining() < RECORD_SIZE) flush();
+			buffer.putDouble(x);
+			buffer.putDouble(y);
+			buffer.putDouble(z);
+			buffer.putDouble(radius);
+			buffer.putInt(nPoints);
+			count++;
+		}
+
+		private void flush() throws IOException {
+			buffer.flip();
+			while (buffer.hasRemaining())
+				channel.write(buffer);
+			buffer.clear();
+		}
+
+		@Override public void close() throws IOException {
+			try {
+				flush();
+				buffer.putLong(count).flip();
+				while (buffer.hasRemaining())
+					channel.write(buffer, 8 + buffer.position());
+			} finally {
+				channel.close();
+			}
+		}
+	}
+}
@@ -0,0 +1,149 @@
+package net.schwarzbaer.java.tools.sphereoverlap;
+
+import java.util.function.IntConsumer;
+
+import net.schwarzbaer.java.lib.geometry.spacial.ConstPoint3d;
+import net.schwarzbaer.java.tools.sphereoverlap.SphereOverlap.Sphere;
+
+class SphereGrid {
+
+	// uniform grid over the bounding boxes of a fixed set of spheres
+	// immutable after construction -> can be queried from several threads at once
+
+	private static final double BOUNDS_SLACK = 1e-9;
+
+	private final double[] bounds; // per sphere: minX,minY,minZ, maxX,maxY,maxZ
+	private final int[] itemCells; // per sphere: min cell X,Y,Z, max cell X,Y,Z
+	private final double originX, originY, originZ;
+	private final double cellSize;
+	private final int nX, nY, nZ;
+	private final int[] cellStart; // items of cell c: cellItems[ cellStart[c] .. cellStart[c+1]-1 ]
+	private final int[] cellItems;
+
+	SphereGrid(Sphere[] spheres) {
+		int n = spheres.length;
+		bounds = new double[n*6];
+		itemCells = new int[n*6];
+
+		double minX = Double.POSITIVE_INFINITY, minY = Double.POSITIVE_INFINITY, minZ = Double.POSITIVE_INFINITY;
+		double maxX = Double.NEGATIVE_INFINITY, maxY = Double.NEGATIVE_INFINITY, maxZ = Double.NEGATIVE_INFINITY;
+		double sumDiameter = 0;
+		for (int i=0; i<n; i++) {
+			Sphere sp = spheres[i];
+			// bounds are a bit bigger than the sphere, so that rounding errors in sampled points can't drop a candidate
+			double ext = sp.radius + BOUNDS_SLACK*(sp.radius + Math.abs(sp.center.x) + Math.abs(sp.center.y) + Math.abs(sp.center.z));
+			setBounds(i, sp.center.x-ext, sp.center.y-ext, sp.center.z-ext, sp.center.x+ext, sp.center.y+ext, sp.center.z+ext);
+			minX = Math.min(minX, bounds[i*6  ]); maxX = Math.max(maxX, bounds[i*6+3]);
+			minY = Math.min(minY, bounds[i*6+1]); maxY = Math.max(maxY, bounds[i*6+4]);
+			minZ = Math.min(minZ, bounds[i*6+2]); maxZ = Math.max(maxZ, bounds[i*6+5]);
+			sumDiameter += 2*ext;
+		}
+		if (n==0) { minX = minY = minZ = maxX = maxY = maxZ = 0; }
+
+		double sizeX = Math.max(maxX-minX, Double.MIN_NORMAL);
+		double sizeY = Math.max(maxY-minY, Double.MIN_NORMAL);
+		double sizeZ = Math.max(maxZ-minZ, Double.MIN_NORMAL);
+		int nItems = Math.max(n, 1);
+
+		// a cell should be about as big as an average sphere, but there shouldn't be many more cells than spheres
+		double size = Math.max(sumDiameter/nItems, Math.cbrt(sizeX*sizeY*sizeZ/nItems));
+		if (!(size>0) || Double.isInfinite(size)) size = 1;
+		while (cellCount(sizeX,size)*cellCount(sizeY,size)*cellCount(sizeZ,size) > 4L*nItems+64)
+			size *= 1.25;
+
+		originX = minX;
+		originY = minY;
+		originZ = minZ;
+		cellSize = size;
+		nX = (int) cellCount(sizeX,size);
+		nY = (int) cellCount(sizeY,size);
+		nZ = (int) cellCount(sizeZ,size);
+
+		cellStart = new int[nX*nY*nZ+1];
+		for (int i=0; i<n; i++) {
+			int[] c = itemCells;
+			c[i*6  ] = cellX(bounds[i*6  ]); c[i*6+3] = cellX(bounds[i*6+3]);
+			c[i*6+1] = cellY(bounds[i*6+1]); c[i*6+4] = cellY(bounds[i*6+4]);
+			c[i*6+2] = cellZ(bounds[i*6+2]); c[i*6+5] = cellZ(bounds[i*6+5]);
+			forEachCell(i, cell -> cellStart[cell+1]++);
+		}
+		for (int c=0; c<nX*nY*nZ; c++)
+			cellStart[c+1] += cellStart[c];
+
+		cellItems = new int[cellStart[nX*nY*nZ]];
+		int[] fill = new int[nX*nY*nZ];
+		for (int i=0; i<n; i++) {
+			int item = i;
+			forEachCell(i, cell -> cellItems[cellStart[cell] + fill[cell]++] = item);
+		}
+	}
+
+	private static long cellCount(double size, double cellSize) {
+		return Math.max(1, (long) Math.ceil(size/cellSize));
+	}
+
+	private void setBounds(int i, double minX, double minY, double minZ, double maxX, double maxY, double maxZ) {
+		bounds[i*6  ] = minX;
+		bounds[i*6+1] = minY;
+		bounds[i*6+2] = minZ;
+		bounds[i*6+3] = maxX;
+		bounds[i*6+4] = maxY;
+		bounds[i*6+5] = maxZ;
+	}
+
+	private int cellX(double x) { return clamp((int) Math.floor((x-originX)/cellSize), nX); }
+	private int cellY(double y) { return clamp((int) Math.floor((y-originY)/cellSize), nY); }
+	private int cellZ(double z) { return clamp((int) Math.floor((z-originZ)/cellSize), nZ); }
+
+	private static int clamp(int c, int n) {
+		return c<0 ? 0 : c>=n ? n-1 : c;
+	}
+
+	private void forEachCell(int item, IntConsumer action) {
+		int[] c = itemCells;
+		for (int z=c[item*6+2]; z<=c[item*6+5]; z++)
+			for (int y=c[item*6+1]; y<=c[item*6+4]; y++)
+				for (int x=c[item*6]; x<=c[item*6+3]; x++)
+					action.accept((z*nY+y)*nX+x);
+	}
+
+	int size() {
+		return bounds.length/6;
+	}
+
+	void forEachIntersecting(int index, IntConsumer action) {
+		double[] b = bounds;
+		forEachCandidate(b[index*6], b[index*6+1], b[index*6+2], b[index*6+3], b[index*6+4], b[index*6+5], i->{
+			if (i!=index) action.accept(i);
+		});
+	}
+
+	void forEachCandidate(ConstPoint3d center, double radius, IntConsumer action) {
+		forEachCandidate(center.x-radius, center.y-radius, center.z-radius, center.x+radius, center.y+radius, center.z+radius, action);
+	}
+
+	void forEachCandidate(double minX, double minY, double minZ, double maxX, double maxY, double maxZ, IntConsumer action) {
+		int cMinX = cellX(minX), cMaxX = cellX(maxX);
+		int cMinY = cellY(minY), cMaxY = cellY(maxY);
+		int cMinZ = cellZ(minZ), cMaxZ = cellZ(maxZ);
+		double[] b = bounds;
+		int[] c = itemCells;
+
+		for (int z=cMinZ; z<=cMaxZ; z++)
+			for (int y=cMinY; y<=cMaxY; y++)
+				for (int x=cMinX; x<=cMaxX; x++) {
+					int cell = (z*nY+y)*nX+x;
+					for (int k=cellStart[cell]; k<cellStart[cell+1]; k++) {
+						int i = cellItems[k];
+						if (b[i*6+3] < minX || maxX < b[i*6  ]) continue;
+						if (b[i*6+4] < minY || maxY < b[i*6+1]) continue;
+						if (b[i*6+5] < minZ || maxZ < b[i*6+2]) continue;
+						// report each item only in the first cell shared by item and query --> no duplicates without a "visited" set
+						if (x != Math.max(cMinX, c[i*6  ])) continue;
+						if (y != Math.max(cMinY, c[i*6+1])) continue;
+						if (z != Math.max(cMinZ, c[i*6+2])) continue;
+						action.accept(i);
+					}
+				}
+	}
+}
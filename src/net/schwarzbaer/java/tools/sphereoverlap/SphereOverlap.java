@@ -2,11 +2,20 @@ package net.schwarzbaer.java.tools.sphereoverlap;
 
 import java.awt.Color;
 import java.io.File;
+import java.io.IOException;
 import java.io.PrintWriter;
+import java.io.StringWriter;
+import java.nio.charset.StandardCharsets;
+import java.nio.file.Files;
+import java.util.BitSet;
 import java.util.Locale;
+import java.util.Random;
 import java.util.Vector;
-import java.util.function.BiConsumer;
+import java.util.concurrent.Semaphore;
 import java.util.function.Consumer;
+import java.util.function.Function;
+import java.util.function.IntConsumer;
+import java.util.function.Supplier;
 
 import net.schwarzbaer.java.lib.geometry.spacial.ConstPoint3d;
 import net.schwarzbaer.java.lib.geometry.spacial.PointSphere;
@@ -21,17 +30,102 @@ public class SphereOverlap {
 	private static final double RADIUS = 50000;
 
 	public static void main(String[] args) {
-		new SphereOverlap().initialize();
+		if (args.length==0) {
+			new SphereOverlap().initialize();
+			return;
+		}
+		
+		// sphere files (SphereFile) are processed out of core, as test cases of a batch (BatchRunner) or by a long running server (OverlapServer)
+		try {
+			if (args[0].equals("--spheres") && (args.length==3 || args.length==4)) {
+				double pointSize = args.length==4 ? Double.parseDouble(args[3]) : 1;
+				ParallelEngine engine = ParallelEngine.createDefault();
+				OutOfCoreOverlap.run(new File(args[1]), new File(args[2]), pointSize, engine);
+				engine.shutdown();
+				return;
+			}
+			if (args[0].equals("--batch") && (args.length==2 || args.length==3)) {
+				File manifest = new File(args[1]);
+				File outputFolder = args.length==3 ? new File(args[2]) : manifest.getAbsoluteFile().getParentFile();
+				ParallelEngine engine = ParallelEngine.createDefault();
+				BatchRunner.run(manifest, outputFolder, engine);
+				engine.shutdown();
+				return;
+			}
+			if (args[0].equals("--server") && (args.length==1 || args.length==2)) {
+				File outputFolder = new File(args.length==2 ? args[1] : "");
+				ParallelEngine engine = ParallelEngine.createDefault();
+				OverlapServer.runOnStdin(outputFolder.getAbsoluteFile(), engine);
+				engine.shutdown();
+				return;
+			}
+			if (args[0].equals("--server-socket") && (args.length==2 || args.length==3)) {
+				File outputFolder = new File(args.length==3 ? args[2] : "");
+				ParallelEngine engine = ParallelEngine.createDefault();
+				OverlapServer.runOnSocket(new File(args[1]), outputFolder.getAbsoluteFile(), engine);
+				engine.shutdown();
+				return;
+			}
+			if (args[0].equals("--optimize") && (args.length>=2 && args.length<=4)) {
+				long steps = args.length>=3 ? Long.parseLong(args[2]) : LayoutOptimizer.DEFAULT_STEPS;
+				long seed = args.length==4 ? Long.parseLong(args[3]) : 0;
+				new SphereOverlap().optimize(args[1], steps, seed);
+				return;
+			}
+			if (args[0].equals("--optimize-random") && (args.length>=4 && args.length<=6)) {
+				int count = Integer.parseInt(args[1]);
+				double radius = Double.parseDouble(args[2]);
+				double size = Double.parseDouble(args[3]);
+				long steps = args.length>=5 ? Long.parseLong(args[4]) : LayoutOptimizer.DEFAULT_STEPS;
+				long seed = args.length==6 ? Long.parseLong(args[5]) : 0;
+				Sphere[] spheres = Sphere.createRandomSpheres(new Random(seed), count, radius, radius, size, size, size, 4000);
+				TestCase tc = new TestCase("Random Layout", 1.00, "%1.2f", Color.ORANGE, ()->spheres);
+				new SphereOverlap().optimize(tc, spheres, new double[] { -size/2, -size/2, -size/2, size/2, size/2, size/2 }, steps, seed);
+				return;
+			}
+			if (args[0].equals("--create-random") && (args.length>=4 && args.length<=6)) {
+				File file = new File(args[1]);
+				long count = Long.parseLong(args[2]);
+				double size = Double.parseDouble(args[3]);
+				int nPoints = args.length>=5 ? Integer.parseInt(args[4]) : 4000;
+				long seed = args.length==6 ? Long.parseLong(args[5]) : 0;
+				try {
+					SphereFile.writeRandom(file, new Random(seed), count, 20, 50, size, nPoints);
+				} catch (IOException e) {
+					System.err.printf("IOException while writing \"%s\": %s%n", file.getAbsolutePath(), e.getMessage());
+				}
+				return;
+			}
+		} catch (NumberFormatException e) {
+			System.err.printf("Wrong number: %s%n", e.getMessage());
+		}
+		System.err.println("usage:");
+		System.err.println("   SphereOverlap                                                   (test cases)");
+		System.err.println("   SphereOverlap --spheres <sphere file> <output.ply> [pointSize]       (PLY: max. 2^31-1 vertices, 5 per surviving point + edge line vertices)");
+		System.err.println("   SphereOverlap --batch <manifest> [output folder]");
+		System.err.println("   SphereOverlap --server [output folder]                          (requests over stdin, see OverlapServer)");
+		System.err.println("   SphereOverlap --server-socket <socket file> [output folder]");
+		System.err.println("   SphereOverlap --optimize <test case label> [steps] [seed]");
+		System.err.println("   SphereOverlap --optimize-random <count> <radius> <region size> [steps] [seed]");
+		System.err.println("   SphereOverlap --create-random <sphere file> <count> <size> [nPoints] [seed]");
 	}
 	
 	private final Vector<TestCase> testCases;
+	private final ParallelEngine engine;
+	private final OutputFormat outputFormat;
 	
 	SphereOverlap() {
-		testCases = new Vector<>();
-		testCases.add( new TestCase("Single Sphere", RADIUS/100, "%1.1f", Color.RED, new Sphere[] { 
+		engine = ParallelEngine.createDefault();
+		outputFormat = OutputFormat.fromSystemProperty();
+		testCases = createTestCases();
+	}
+	
+	static Vector<TestCase> createTestCases() {
+		Vector<TestCase> testCases = new Vector<>();
+		testCases.add( new TestCase("Single Sphere", RADIUS/100, "%1.1f", Color.RED, ()->new Sphere[] { 
 				new Sphere(new ConstPoint3d(RADIUS*1.6, 0, 0))
 		}));
-		testCases.add( new TestCase("SpaceEngineer", RADIUS/100, "%1.1f", Color.ORANGE, new Sphere[] { 
+		testCases.add( new TestCase("SpaceEngineer", RADIUS/100, "%1.1f", Color.ORANGE, ()->new Sphere[] { 
 				new Sphere(   -374.04,    309.45,    -450.11 ),
 				new Sphere(   6067.64,  18269.06,   25806.78 ),
 				new Sphere(  36924.51,  17250.54,     100.49 ),
@@ -50,7 +144,7 @@ public class SphereOverlap {
 		//double radiusT = 57.9;
 		//double radiusT = 61;
 		//double radiusT = 61.2;
-		testCases.add( new TestCase("Tetraeder", 1, "%1.2f", Color.GREEN, new Sphere[] { // 50 / 57.73502692 / 61.2372 
+		testCases.add( new TestCase("Tetraeder", 1, "%1.2f", Color.GREEN, ()->new Sphere[] { // 50 / 57.73502692 / 61.2372 
 				new Sphere(  0.0000,  0.0000,  0.0000, radiusT, 4000),
 				new Sphere(100.0000,  0.0000,  0.0000, radiusT, 4000),
 				new Sphere( 50.0000, 86.6025,  0.0000, radiusT, 4000),
@@ -58,10 +152,10 @@ public class SphereOverlap {
 		}));
 		
 		testCases.add( new TestCase( "Random", 1.00, "%1.2f", Color.ORANGE,
-				Sphere.createRandomSpheres(20, 20,50, 200,200,100, 4000)
+				random->Sphere.createRandomSpheres(random, 20, 20,50, 200,200,100, 4000)
 		));
 		
-		testCases.add(new TestCase( "DebugCase 1", 1.00, "%1.2f", new Color(0xFFFFC800, true), new Sphere[] {
+		testCases.add(new TestCase( "DebugCase 1", 1.00, "%1.2f", new Color(0xFFFFC800, true), ()->new Sphere[] {
 				new Sphere( 40.85, -97.31, 32.23, 31.48, 1586),
 				new Sphere( -51.46, 93.45, -26.41, 26.34, 1110),
 				new Sphere( 24.64, 98.40, -13.29, 20.27, 657),
@@ -84,7 +178,7 @@ public class SphereOverlap {
 				new Sphere( -99.80, -38.62, 5.82, 33.38, 1782),
 		}));
 		testCases.add(
-				new TestCase( "DebugCase 2", 1.00, "%1.2f", new Color(0xFFFFC800, true), new Sphere[] {
+				new TestCase( "DebugCase 2", 1.00, "%1.2f", new Color(0xFFFFC800, true), ()->new Sphere[] {
 						new Sphere( 94.44, 67.82, -20.00, 25.56, 1045), // 815 points
 						new Sphere( 53.56, -64.11, -25.67, 35.44, 2009), // 0 points
 						new Sphere( 18.96, -83.05, 8.17, 45.47, 3309), // 1646 points
@@ -107,47 +201,262 @@ public class SphereOverlap {
 						new Sphere( 13.68, -56.72, -2.21, 49.66, 3947), // 1937 points
 				})
 		);
+		return testCases;
 	}
 	
-	private static class TestCase {
-		private final String label;
-		private final Sphere[] spheres;
+	enum OutputFormat {
+		VRML,           // IndexedFaceSet of the VRML library, built completely in memory
+		VRML_STREAMING, // VrmlStreamWriter, points are culled while they are written sphere by sphere (no covered masks)
+		PLY,            // binary PLY
+		LOD,            // octree of VRML chunk files with decimated levels (LodWriter)
+		AUTO,           // PLY for big scenes, VRML otherwise
+		;
+		
+		static final String PROPERTY = "sphereoverlap.output";
+		static final long AUTO_BINARY_THRESHOLD = 100000; // surviving points
+		
+		static OutputFormat fromSystemProperty() {
+			String value = System.getProperty(PROPERTY);
+			if (value==null) return AUTO;
+			try {
+				return valueOf(value.trim().toUpperCase(Locale.ENGLISH).replace('-', '_'));
+			} catch (IllegalArgumentException e) {
+				System.err.printf("Unknown output format \"%s\" in system property \"%s\" -> use %s%n", value, PROPERTY, AUTO);
+				return AUTO;
+			}
+		}
+		
+		OutputFormat resolve(Sphere[] spheres) {
+			if (this!=AUTO) return this;
+			long nPoints = 0;
+			for (Sphere sp : spheres)
+				nPoints += sp.getSurvivingPointCount();
+			return nPoints > AUTO_BINARY_THRESHOLD ? PLY : VRML;
+		}
+		
+		String getFileExtension() {
+			return this==PLY ? ".ply" : ".wrl";
+		}
+	}
+	
+	static class TestCase {
+		final String label;
+		private final Supplier<Sphere[]> createSpheres; // spheres (and their points) are created, when the test case runs
+		private final Function<Random,Sphere[]> createRandomSpheres; // only for random test cases -> same spheres again with the same seed
+		Sphere[] spheres = null;
 		private final double pointSize;
 		private final Color diffuseColor;
 		private final String pointCoordFormat;
+		File outputFolder = null; // null -> working directory
+		File outputFile = null;
+		private SurfaceCoverage coverage = null;
+		private BoundaryArrangement arrangement = null; // only with BoundaryArrangement.ENABLED
+		private int[] survivorCounts = null; // only, if the points are culled while they are written (no covered masks)
+
+		TestCase(String label, double pointSize, String pointCoordFormat, Color diffuseColor, Supplier<Sphere[]> createSpheres) {
+			this.label = label;
+			this.pointSize = pointSize;
+			this.pointCoordFormat = pointCoordFormat;
+			this.diffuseColor = diffuseColor;
+			this.createSpheres = createSpheres;
+			this.createRandomSpheres = null;
+		}
 
-		TestCase(String label, double pointSize, String pointCoordFormat, Color diffuseColor, Sphere[] spheres) {
+		TestCase(String label, double pointSize, String pointCoordFormat, Color diffuseColor, Function<Random,Sphere[]> createRandomSpheres) {
 			this.label = label;
 			this.pointSize = pointSize;
 			this.pointCoordFormat = pointCoordFormat;
 			this.diffuseColor = diffuseColor;
-			this.spheres = spheres;
+			this.createSpheres = ()->createRandomSpheres.apply(new Random());
+			this.createRandomSpheres = createRandomSpheres;
 		}
 
+		Sphere[] createSpheres() {
+			return createSpheres.get();
+		}
+
+		boolean isRandom() {
+			return createRandomSpheres!=null;
+		}
+
+		Sphere[] createSpheres(long seed) {
+			return createRandomSpheres.apply(new Random(seed));
+		}
+
+		long getSurvivingPointCount() {
+			long n = 0;
+			for (int i=0; i<spheres.length; i++)
+				n += survivorCounts!=null ? survivorCounts[i] : spheres[i].getSurvivingPointCount();
+			return n;
+		}
+		
 		public void writeConfigToVRML(PrintWriter out) {
-			out.printf(Locale.ENGLISH, "#new TestCase( \"%s\", "+pointCoordFormat+", \"%s\", new Color(0x%08X, true), new Sphere[] {%n", label, pointSize, pointCoordFormat, diffuseColor.getRGB());
-			for(Sphere sp : spheres)
-				out.printf(Locale.ENGLISH, "#\t\t%s, // %d points%n", sp.toConstructorString(pointCoordFormat), sp.points.size());
-			out.println("#})");
+			writeConstructor(out, "#");
+			if (coverage!=null)
+				out.printf(Locale.ENGLISH, "# union: surface area %s, volume %s%n", coverage.totalArea, coverage.volume);
+		}
+		
+		void writeConstructor(PrintWriter out, String linePrefix) {
+			out.printf(Locale.ENGLISH, linePrefix+"new TestCase( \"%s\", "+pointCoordFormat+", \"%s\", new Color(0x%08X, true), ()->new Sphere[] {%n", label, pointSize, pointCoordFormat, diffuseColor.getRGB());
+			for (int i=0; i<spheres.length; i++) {
+				Sphere sp = spheres[i];
+				int nPoints = survivorCounts!=null ? survivorCounts[i] : sp.getSurvivingPointCount();
+				if (coverage==null)
+					out.printf(Locale.ENGLISH, linePrefix+"\t\t%s, // %d points%n", sp.toConstructorString(pointCoordFormat), nPoints);
+				else
+					out.printf(Locale.ENGLISH, linePrefix+"\t\t%s, // %d points, %1.1f%% exposed%n", sp.toConstructorString(pointCoordFormat), nPoints, coverage.getExposedFraction(spheres, i)*100);
+			}
+			out.println(linePrefix+"})");
 		}
 	}
 
 	private void initialize() {
 		for (TestCase tc : testCases) {
-			Consumer<PrintWriter> extra = tc::writeConfigToVRML;
+			OverlapMetrics metrics = run(tc);
+			if (OverlapMetrics.ENABLED)
+				System.out.print(metrics);
+		}
+		engine.shutdown();
+	}
+	
+	private void optimize(String label, long steps, long seed) {
+		TestCase tc = null;
+		for (TestCase testCase : testCases)
+			if (testCase.label.equals(label)) tc = testCase;
+		if (tc==null) {
+			System.err.printf("Unknown test case \"%s\"%n", label);
+			engine.shutdown();
+			return;
+		}
+		// the region is the bounding box of the test case, the seed also gives the spheres of a random test case
+		Sphere[] spheres = tc.isRandom() ? tc.createSpheres(seed) : tc.createSpheres();
+		optimize(tc, spheres, LayoutOptimizer.getBounds(spheres), steps, seed);
+	}
+	
+	private void optimize(TestCase tc, Sphere[] spheres, double[] region, long steps, long seed) {
+		LayoutOptimizer.Result result = LayoutOptimizer.optimize(spheres, region, steps, seed, engine);
+		System.out.print(result);
+		
+		// optimized layout as a new test case: usual output and its constructor string
+		TestCase optimized = new TestCase(tc.label+" (optimized)", tc.pointSize, tc.pointCoordFormat, tc.diffuseColor, ()->result.spheres);
+		OverlapMetrics metrics = run(optimized);
+		if (OverlapMetrics.ENABLED)
+			System.out.print(metrics);
+		
+		StringWriter constructor = new StringWriter();
+		try (PrintWriter out = new PrintWriter(constructor)) {
+			optimized.writeConstructor(out, "");
+			out.printf(Locale.ENGLISH, "// union: surface area %s, volume %s%n", optimized.coverage.totalArea, optimized.coverage.volume);
+		}
+		System.out.print(constructor);
+		File file = new File(optimized.outputFolder, optimized.label+".txt");
+		try {
+			Files.writeString(file.toPath(), constructor.toString(), StandardCharsets.UTF_8);
+		} catch (IOException e) {
+			System.err.printf("IOException while writing \"%s\": %s%n", file.getAbsolutePath(), e.getMessage());
+		}
+		engine.shutdown();
+	}
+	
+	private OverlapMetrics run(TestCase tc) {
+		return run(tc, outputFormat, engine, null);
+	}
+	
+	// outputSlots (optional) limits the number of test cases, that write their output at the same time
+	static OverlapMetrics run(TestCase tc, OutputFormat outputFormat, ParallelEngine engine, Semaphore outputSlots) {
+		OverlapMetrics metrics = new OverlapMetrics(tc.label);
+		
+		metrics.startPhase(OverlapMetrics.Phase.POINT_GENERATION);
+		tc.spheres = tc.createSpheres();
+		
+		metrics.startPhase(OverlapMetrics.Phase.GRID);
+		Vector<OverlapEdgeCircle> circles = new Vector<>();
+		SphereGrid grid = new SphereGrid(tc.spheres);
+		
+		// a cache hit sets the masks of the spheres, edge circles and coverage -> straight to the output
+		ResultCache cache = ResultCache.fromSystemProperty();
+		String cacheKey = null;
+		ResultCache.Entry cached = null;
+		if (cache!=null && tc.spheres.length > 1 && ResultCache.isUsable(outputFormat)) {
+			metrics.startPhase(OverlapMetrics.Phase.CACHE);
+			cacheKey = ResultCache.getKey(tc.spheres, outputFormat);
+			cached = cache.load(cacheKey, tc.spheres);
+		}
+		
+		if (cached!=null) {
+			circles = cached.circles;
+			tc.coverage = cached.coverage;
+		} else {
 			if (tc.spheres.length > 1) {
-				removeOverlap(tc.spheres);
-				IndexedLineSet lineSet = OverlapEdgeCircle.compute(tc.spheres, tc.pointCoordFormat);
-				if (lineSet!=null) {
-					Consumer<PrintWriter> oldExtra = extra;
-					extra = out->{
-						if (oldExtra!=null) oldExtra.accept(out);
-						lineSet.writeToVRML(out, darker(tc.diffuseColor, 0.5f));
-					};
+				if (outputFormat!=OutputFormat.VRML_STREAMING) { // the streaming output culls the points itself, while writing them
+					metrics.startPhase(OverlapMetrics.Phase.REMOVE_OVERLAP);
+					removeOverlap(tc.spheres, grid, engine);
 				}
+				
+				metrics.startPhase(OverlapMetrics.Phase.EDGE_CIRCLES);
+				if (BoundaryArrangement.ENABLED) {
+					tc.arrangement = BoundaryArrangement.build(tc.spheres, grid, engine);
+					circles = tc.arrangement.circles;
+				} else
+					circles = OverlapEdgeCircle.computeAll(tc.spheres, grid, engine);
+			}
+			
+			metrics.startPhase(OverlapMetrics.Phase.COVERAGE);
+			tc.coverage = SurfaceCoverage.compute(tc.spheres, circles, grid, engine);
+			
+			if (cacheKey!=null) {
+				metrics.startPhase(OverlapMetrics.Phase.CACHE);
+				cache.store(cacheKey, tc.spheres, circles, tc.coverage);
 			}
-			writeToVRMLasPointFaces(new File(tc.label+".wrl"), tc.spheres, tc.pointSize, tc.pointCoordFormat, tc.diffuseColor, extra);
 		}
+		
+		if (outputSlots!=null) {
+			metrics.startPhase(OverlapMetrics.Phase.WRITE_QUEUE);
+			outputSlots.acquireUninterruptibly();
+		}
+		try {
+			metrics.startPhase(OverlapMetrics.Phase.WRITE);
+			tc.outputFile = write(tc, grid, circles, outputFormat.resolve(tc.spheres), engine);
+			OverlapMetrics.count(OverlapMetrics.Counter.BYTES_WRITTEN, tc.outputFile.length());
+		} finally {
+			if (outputSlots!=null) outputSlots.release();
+		}
+		
+		return metrics.finish();
+	}
+	
+	private static File write(TestCase tc, SphereGrid grid, Vector<OverlapEdgeCircle> circles, OutputFormat format, ParallelEngine engine) {
+		File file = new File(tc.outputFolder, tc.label+format.getFileExtension());
+		
+		if (format==OutputFormat.PLY) {
+			StringWriter config = new StringWriter();
+			try (PrintWriter out = new PrintWriter(config)) { tc.writeConfigToVRML(out); }
+			PlyWriter.write(file, tc.spheres, tc.pointSize, createEdgeLineSet(tc, circles), config.toString());
+			return file;
+		}
+		
+		Consumer<PrintWriter> extra = tc::writeConfigToVRML;
+		if (!circles.isEmpty()) {
+			EdgeLineSet lineSet = createEdgeLineSet(tc, circles);
+			extra = out->{
+				tc.writeConfigToVRML(out);
+				lineSet.writeToVRML(out, tc.pointCoordFormat, darker(tc.diffuseColor, 0.5f));
+			};
+		}
+		switch (format) {
+		case VRML_STREAMING:
+			tc.survivorCounts = new int[tc.spheres.length];
+			VrmlStreamWriter.writeSurvivingPointFaces(file, tc.spheres, grid, tc.pointSize, tc.pointCoordFormat, tc.diffuseColor, tc.survivorCounts, extra);
+			break;
+		case LOD           : LodWriter.write                (file, tc.spheres, tc.pointSize, tc.pointCoordFormat, tc.diffuseColor, extra, engine); break;
+		default            : writeToVRMLasPointFaces        (file, tc.spheres, tc.pointSize, tc.pointCoordFormat, tc.diffuseColor, extra); break;
+		}
+		return file;
+	}
+	
+	private static EdgeLineSet createEdgeLineSet(TestCase tc, Vector<OverlapEdgeCircle> circles) {
+		ArcTessellation tessellation = ArcTessellation.fromSystemProperty(tc.pointSize);
+		return tc.arrangement!=null ? EdgeLineSet.create(tc.arrangement, tessellation) : EdgeLineSet.create(circles, tessellation);
 	}
 	
 	private static Color darker(Color c, float ratio) {
@@ -157,24 +466,13 @@ public class SphereOverlap {
 		return new Color(r,g,b);
 	}
 	
-	static void forEachSpherePair(Sphere[] spheres, boolean onlyUniquePairs, BiConsumer<Sphere,Sphere> action) {
-		for (int i=0; i<spheres.length; i++)
-			for (int j=onlyUniquePairs ? i+1 : 0; j<spheres.length; j++)
-				if (i!=j)
-					action.accept(spheres[i], spheres[j]);
-	}
-
-	private static void removeOverlap(Sphere[] spheres) {
-		forEachSpherePair(spheres, false, (sp,sp1)->{
-			Vector<SpherePoint> points = sp.points;
-			for (int k=0; k<points.size(); k++) {
-				SpherePoint p = points.get(k);
-				if (p==null) continue;
-				if (sp1.isInside(p)) {
-					points.remove(k);
-					k--;
-				}
-			}
+	static void removeOverlap(Sphere[] spheres, SphereGrid grid, ParallelEngine engine) {
+		// points of a sphere are only tested against spheres with intersecting bounds
+		// each task writes only the covered mask of its own sphere
+		engine.forEach(spheres.length, i->{
+			Sphere sp = spheres[i];
+			sp.covered.clear();
+			grid.forEachIntersecting(i, j->sp.markCovered(spheres[j]));
 		});
 	}
 	
@@ -188,16 +486,15 @@ public class SphereOverlap {
 			
 			IndexedLineSet lineSet = new IndexedLineSet("%1.3f", false);
 			for (Sphere sphere : spheres)
-				for(SpherePoint p : sphere.points)
-					if (p!=null) {
-						lineSet.addAxesCross(p, pointSize);
-					}
+				sphere.forEachSurvivingPoint(i->{
+					lineSet.addAxesCross(sphere.surface.getPoint(i), pointSize);
+				});
 			lineSet.writeToVRML(out, color);
 			
 		});
 	}
 	
-	private static void writeToVRMLasPointFaces(File file, Sphere[] spheres, double pointSize, String pointCoordFormat, Color diffuseColor, Consumer<PrintWriter> writeExtra) {
+	static void writeToVRMLasPointFaces(File file, Sphere[] spheres, double pointSize, String pointCoordFormat, Color diffuseColor, Consumer<PrintWriter> writeExtra) {
 		VrmlTools.writeVRML(file, out->{
 			
 			if (writeExtra!=null) writeExtra.accept(out);
@@ -211,28 +508,15 @@ public class SphereOverlap {
 	}
 
 	private static void addToFaceset(IndexedFaceSet faceSet, double pointSize, Sphere sphere) {
-		for(SpherePoint p : sphere.points)
-			if (p!=null)
-				faceSet.addPointFace(p, p.normal, pointSize, 5);
-	}
-
-	private static class SpherePoint extends ConstPoint3d {
-
-		private final ConstPoint3d normal;
-
-		public SpherePoint(ConstPoint3d center, double x, double y, double z) {
-			super(x, y, z);
-			normal = this.sub(center).normalize();
-		}
-
-		@Override public String toString() {
-			return String.format("SpherePoint [x=%s, y=%s, z=%s, normal=%s]", x, y, z, normal);
-		}
+		SurfacePoints surface = sphere.surface;
+		sphere.forEachSurvivingPoint(i->faceSet.addPointFace(surface.getPoint(i), surface.getNormal(i), pointSize, 5));
 	}
 	
-	static class Sphere extends PointSphere<SpherePoint> {
+	public static class Sphere extends PointSphere<ConstPoint3d> { // public: used by the public CoverageIndex
 
 		final int nPoints;
+		final SurfacePoints surface;
+		final BitSet covered; // points covered by other spheres, set by removeOverlap
 		
 		public Sphere(double x, double y, double z) {
 			this(new ConstPoint3d(x,y,z));
@@ -244,12 +528,52 @@ public class SphereOverlap {
 			this(new ConstPoint3d(x,y,z), radius, nPoints);
 		}
 		public Sphere(ConstPoint3d center, double radius, int nPoints) {
-			super(center, radius, nPoints, SpherePoint::new);
+			// no points from PointSphere, they are derived from a shared unit sphere template
+			super(center, radius, 0, (c,x,y,z)->new ConstPoint3d(x,y,z));
+			checkValues(center.x, center.y, center.z, radius, nPoints);
 			this.nPoints = nPoints;
+			surface = new SurfacePoints(center, radius, SphereTemplates.get(nPoints));
+			covered = new BitSet(); // grows with the first covered points, stays empty in the streaming pipeline
+		}
+		
+		static void checkValues(double x, double y, double z, double radius, int nPoints) {
+			// a sphere from outside (server request, sphere file) mustn't break a run, e.g. with a template, that doesn't fit into the heap
+			if (!Double.isFinite(x) || !Double.isFinite(y) || !Double.isFinite(z))
+				throw new IllegalArgumentException(String.format(Locale.ENGLISH, "center (%s, %s, %s) isn't finite", x, y, z));
+			if (!(radius>0) || Double.isInfinite(radius))
+				throw new IllegalArgumentException(String.format(Locale.ENGLISH, "radius %s isn't positive and finite", radius));
+			if (nPoints<0 || nPoints>SphereTemplates.MAX_POINTS)
+				throw new IllegalArgumentException(String.format("number of points %d isn't in 0..%d", nPoints, SphereTemplates.MAX_POINTS));
 		}
 		
 		@Override public String toString() {
-			return String.format("Sphere [center=%s, radius=%s, points=%d->%d]", center, radius, nPoints, points.size());
+			return String.format("Sphere [center=%s, radius=%s, points=%d->%d]", center, radius, nPoints, getSurvivingPointCount());
+		}
+		
+		boolean isInside(double x, double y, double z) {
+			double dx = x-center.x;
+			double dy = y-center.y;
+			double dz = z-center.z;
+			return dx*dx+dy*dy+dz*dz < radius*radius;
+		}
+		
+		void markCovered(Sphere other) {
+			// point c + r*u is inside other, if |c-co + r*u|² < ro²  <=>  (c-co)·u < (ro² - r² - |c-co|²) / 2r
+			double dx = center.x-other.center.x;
+			double dy = center.y-other.center.y;
+			double dz = center.z-other.center.z;
+			double limit = (other.radius*other.radius - radius*radius - (dx*dx+dy*dy+dz*dz)) / (2*radius);
+			int n = CullingKernel.INSTANCE.markCovered(surface.template.x, surface.template.y, surface.template.z, dx, dy, dz, limit, covered);
+			OverlapMetrics.count(OverlapMetrics.Counter.POINTS_CULLED, n);
+		}
+		
+		int getSurvivingPointCount() {
+			return surface.size() - covered.cardinality();
+		}
+		
+		void forEachSurvivingPoint(IntConsumer action) {
+			for (int k=covered.nextClearBit(0); k<surface.size(); k=covered.nextClearBit(k+1))
+				action.accept(k);
 		}
 		
 		public String toConstructorString(String coordFormat) {
@@ -257,12 +581,17 @@ public class SphereOverlap {
 		}
 		
 		public static Sphere[] createRandomSpheres(int nSpheres, double minRadius, double maxRadius, double xSize, double ySize, double zSize, int nPoints) {
+			return createRandomSpheres(new Random(), nSpheres, minRadius, maxRadius, xSize, ySize, zSize, nPoints);
+		}
+		
+		// with a seeded Random the same set of spheres can be created again (e.g. for benchmarks)
+		public static Sphere[] createRandomSpheres(Random random, int nSpheres, double minRadius, double maxRadius, double xSize, double ySize, double zSize, int nPoints) {
 			Sphere[] spheres = new Sphere[nSpheres];
 			for (int i=0; i<nSpheres; i++) {
-				double x = (Math.random()-0.5)*xSize;
-				double y = (Math.random()-0.5)*ySize;
-				double z = (Math.random()-0.5)*zSize;
-				double r = Math.random()*(maxRadius-minRadius) + minRadius;
+				double x = (random.nextDouble()-0.5)*xSize;
+				double y = (random.nextDouble()-0.5)*ySize;
+				double z = (random.nextDouble()-0.5)*zSize;
+				double r = random.nextDouble()*(maxRadius-minRadius) + minRadius;
 				int n = (int) Math.round( nPoints * r*r/maxRadius/maxRadius );
 				spheres[i] = new Sphere(x, y, z, r, n);
 			}
@@ -0,0 +1,105 @@
+package net.schwarzbaer.java.tools.sphereoverlap;
+
+import java.lang.ref.ReferenceQueue;
+import java.lang.ref.WeakReference;
+import java.util.HashMap;
+import java.util.Iterator;
+import java.util.LinkedHashMap;
+
+import net.schwarzbaer.java.lib.geometry.spacial.ConstPoint3d;
+import net.schwarzbaer.java.lib.geometry.spacial.PointSphere;
+
+class SphereTemplates {
+
+	// sample points of the unit sphere, shared by all spheres with the same number of points
+	// canonical instances are held weakly -> as long as a sphere uses a template, every other sphere with that number of points gets the same one
+	// an LRU list with a limit of the points in total holds the recently used templates strongly, so they survive short gaps without spheres
+
+	static final String PROPERTY = "sphereoverlap.templateCache"; // max number of strongly held points
+	static final int MAX_POINTS = 1<<20; // per template (checked by the Sphere constructor)
+	private static final int MAX_CACHED_POINTS = Integer.getInteger(PROPERTY, 1<<21);
+	private static final ConstPoint3d ORIGIN = new ConstPoint3d(0,0,0);
+
+	private static final HashMap<Integer,TemplateReference> templates = new HashMap<>();
+	private static final ReferenceQueue<Template> queue = new ReferenceQueue<>();
+	private static final LinkedHashMap<Integer,Template> recent = new LinkedHashMap<>(16, 0.75f, true);
+	private static long recentPoints = 0;
+
+	private static class TemplateReference extends WeakReference<Template> {
+		final int nPoints;
+
+		TemplateReference(Template template) {
+			super(template, queue);
+			nPoints = template.nPoints;
+		}
+	}
+
+	static class Template {
+		final int nPoints;
+		final double[] x, y, z; // unit vectors
+
+		private Template(int nPoints) {
+			this.nPoints = nPoints;
+			PointSphere<ConstPoint3d> unitSphere = new PointSphere<>(ORIGIN, 1, nPoints, (c,x,y,z)->new ConstPoint3d(x,y,z));
+			int n = 0;
+			for (ConstPoint3d p : unitSphere.points)
+				if (p!=null) n++;
+			x = new double[n];
+			y = new double[n];
+			z = new double[n];
+			int i = 0;
+			for (ConstPoint3d p : unitSphere.points)
+				if (p!=null) {
+					x[i] = p.x;
+					y[i] = p.y;
+					z[i] = p.z;
+					i++;
+				}
+		}
+
+		int size() {
+			return x.length;
+		}
+	}
+
+	static Template get(int nPoints) {
+		Template template = getCanonical(nPoints);
+		if (template!=null) return template;
+
+		// built outside of the lock -> parallel callers of other templates don't wait for it
+		return putCanonical(new Template(nPoints));
+	}
+
+	private static synchronized Template getCanonical(int nPoints) {
+		// entries of collected templates go first
+		for (TemplateReference ref; (ref = (TemplateReference) queue.poll())!=null; )
+			if (templates.get(ref.nPoints)==ref) templates.remove(ref.nPoints);
+
+		TemplateReference ref = templates.get(nPoints);
+		Template template = ref==null ? null : ref.get();
+		if (template!=null) keepRecent(template);
+		return template;
+	}
+
+	private static synchronized Template putCanonical(Template template) {
+		// an equal template, built by another thread in the meantime, wins
+		Template canonical = getCanonical(template.nPoints);
+		if (canonical!=null) return canonical;
+		templates.put(template.nPoints, new TemplateReference(template));
+		keepRecent(template);
+		return template;
+	}
+
+	private static void keepRecent(Template template) {
+		if (recent.get(template.nPoints)!=null) return; // get: now the most recently used one
+		recent.put(template.nPoints, template);
+		recentPoints += template.size();
+
+		// least recently used first, the new template stays
+		Iterator<Template> it = recent.values().iterator();
+		while (recentPoints > MAX_CACHED_POINTS && recent.size()>1) {
+			recentPoints -= it.next().size();
+			it.remove();
+		}
+	}
+}
@@ -0,0 +1,223 @@
+package net.schwarzbaer.java.tools.sphereoverlap;
+
+import java.util.Vector;
+
+import net.schwarzbaer.java.tools.sphereoverlap.SphereOverlap.Sphere;
+
+class SurfaceCoverage {
+
+	// exposed surface of each sphere, union surface and union volume -- computed from the exact boundary arcs, without any points
+	//
+	// area of the exposed region of a sphere (pole method, Green's theorem on the sphere):
+	//    A = R² * sum over boundary arcs of ∫ (1-cos θ) dφ   (+ 4πR² if the antipole -u is exposed)
+	//    θ,φ are spherical coordinates around a pole direction u, that is chosen far away from all arcs of the sphere.
+	//    The integrand is smooth away from -u, so each arc is integrated with Gauss-Legendre quadrature.
+	// volume of the union (divergence theorem):
+	//    V = 1/3 * sum_i ( R_i*A_i + c_i · vectorArea_i )   with   vectorArea = ∫∫ n dA = 1/2 ∮ x × dx   (closed form for each arc)
+
+	private static final double[] GL_NODES = {
+			-0.9602898564975363, -0.7966664774136267, -0.5255324099163290, -0.1834346424956498,
+			 0.1834346424956498,  0.5255324099163290,  0.7966664774136267,  0.9602898564975363,
+	};
+	private static final double[] GL_WEIGHTS = {
+			0.1012285362903763, 0.2223810344533745, 0.3137066678677676, 0.3626837833783620,
+			0.3626837833783620, 0.3137066678677676, 0.2223810344533745, 0.1012285362903763,
+	};
+	private static final double MAX_QUADRATURE_SPAN = Math.PI/16;
+
+	final double[] exposedArea;
+	final double totalArea;
+	final double volume;
+
+	SurfaceCoverage(double[] exposedArea, double totalArea, double volume) {
+		this.exposedArea = exposedArea;
+		this.totalArea = totalArea;
+		this.volume = volume;
+	}
+
+	@Override public String toString() {
+		return String.format("SurfaceCoverage [%d spheres, totalArea=%s, volume=%s]", exposedArea.length, totalArea, volume);
+	}
+
+	double getExposedFraction(Sphere[] spheres, int i) {
+		double fullArea = 4*Math.PI*spheres[i].radius*spheres[i].radius;
+		return exposedArea[i]/fullArea;
+	}
+
+	static SurfaceCoverage compute(Sphere[] spheres, SphereGrid grid, ParallelEngine engine) {
+		return compute(spheres, spheres.length > 1 ? OverlapEdgeCircle.computeAll(spheres, grid, engine) : new Vector<>(), grid, engine);
+	}
+
+	static SurfaceCoverage compute(Sphere[] spheres, Vector<OverlapEdgeCircle> circles, SphereGrid grid, ParallelEngine engine) {
+		IndexList[] circlesOfSphere = new IndexList[spheres.length];
+		for (int i=0; i<spheres.length; i++)
+			circlesOfSphere[i] = new IndexList();
+		for (int c=0; c<circles.size(); c++) {
+			OverlapEdgeCircle circle = circles.get(c);
+			circlesOfSphere[circle.index1].add(c);
+			circlesOfSphere[circle.index2].add(c);
+		}
+
+		double[] exposedArea = new double[spheres.length];
+		double[] volumeParts = new double[spheres.length];
+		engine.forEach(spheres.length, i->{
+			Sphere sp = spheres[i];
+			double[] vectorArea = new double[3];
+			exposedArea[i] = computeExposedArea(spheres, i, circles, circlesOfSphere[i], grid, vectorArea);
+			volumeParts[i] = sp.radius*exposedArea[i] + sp.center.x*vectorArea[0] + sp.center.y*vectorArea[1] + sp.center.z*vectorArea[2];
+		});
+
+		// summed up in index order --> same result for any thread count
+		double totalArea = 0;
+		double volume = 0;
+		for (int i=0; i<spheres.length; i++) {
+			totalArea += exposedArea[i];
+			volume += volumeParts[i];
+		}
+		return new SurfaceCoverage(exposedArea, totalArea, volume/3);
+	}
+
+	private static double computeExposedArea(Sphere[] spheres, int i, Vector<OverlapEdgeCircle> circles, IndexList circleIndices, SphereGrid grid, double[] vectorArea) {
+		Sphere sp = spheres[i];
+		double[] pole = choosePole(sp, circles, circleIndices);
+		double[] w1 = new double[3];
+		double[] w2 = new double[3];
+		computePerpendicular(pole, w1, w2);
+
+		double sum = 0;
+		for (int k=0; k<circleIndices.size(); k++) {
+			OverlapEdgeCircle circle = circles.get(circleIndices.get(k));
+			double direction = getBoundaryDirection(circle, i);
+			for (int a=0; a<circle.getArcCount(); a++) {
+				double t0 = circle.getArcMin(a);
+				double t1 = circle.getArcMax(a);
+				sum += direction * integrateArc(sp, circle, t0, t1, pole, w1, w2);
+				addVectorArea(circle, t0, t1, direction, vectorArea);
+			}
+		}
+
+		double area = sp.radius*sp.radius*sum;
+		if (isExposed(spheres, i, grid, sp.center.x-sp.radius*pole[0], sp.center.y-sp.radius*pole[1], sp.center.z-sp.radius*pole[2]))
+			area += 4*Math.PI*sp.radius*sp.radius;
+		return area;
+	}
+
+	static double getBoundaryDirection(OverlapEdgeCircle circle, int sphereIndex) {
+		// the exposed region has to be on the left side of the boundary (seen from outside)
+		// sphere 2 is exposed on the side the normal points to, sphere 1 on the other side
+		double[] y = toArray(circle.axesCross.yAxis.x, circle.axesCross.yAxis.y, circle.axesCross.yAxis.z);
+		double[] z = toArray(circle.axesCross.zAxis.x, circle.axesCross.zAxis.y, circle.axesCross.zAxis.z);
+		double handedness = (y[1]*z[2]-y[2]*z[1])*circle.normal.x + (y[2]*z[0]-y[0]*z[2])*circle.normal.y + (y[0]*z[1]-y[1]*z[0])*circle.normal.z;
+		double direction = handedness<0 ? -1 : 1;
+		return sphereIndex==circle.index2 ? direction : -direction;
+	}
+
+	private static double integrateArc(Sphere sp, OverlapEdgeCircle circle, double t0, double t1, double[] u, double[] w1, double[] w2) {
+		// ∫ (1-cos θ) dφ = ∫ (P1*P2' - P2*P1') / (1 + q·u) dt
+		// q(t) = point on circle relative to the sphere center (unit length), P1 = q·w1, P2 = q·w2
+		double[] y = toArray(circle.axesCross.yAxis.x, circle.axesCross.yAxis.y, circle.axesCross.yAxis.z);
+		double[] z = toArray(circle.axesCross.zAxis.x, circle.axesCross.zAxis.y, circle.axesCross.zAxis.z);
+		double[] p = toArray(circle.pos.x-sp.center.x, circle.pos.y-sp.center.y, circle.pos.z-sp.center.z);
+		double a = circle.radius;
+		double R = sp.radius;
+
+		// all needed dot products of the circle frame with u, w1, w2
+		double pU = dot(p,u), yU = dot(y,u), zU = dot(z,u);
+		double pW1 = dot(p,w1), yW1 = dot(y,w1), zW1 = dot(z,w1);
+		double pW2 = dot(p,w2), yW2 = dot(y,w2), zW2 = dot(z,w2);
+
+		int nPieces = Math.max(1, (int) Math.ceil((t1-t0)/MAX_QUADRATURE_SPAN));
+		double pieceSpan = (t1-t0)/nPieces;
+		double sum = 0;
+		for (int piece=0; piece<nPieces; piece++) {
+			double mid = t0 + (piece+0.5)*pieceSpan;
+			for (int n=0; n<GL_NODES.length; n++) {
+				double t = mid + GL_NODES[n]*pieceSpan/2;
+				double cos = Math.cos(t), sin = Math.sin(t);
+				double qU  = (pU  + a*(cos*yU  + sin*zU ))/R;
+				double p1  = (pW1 + a*(cos*yW1 + sin*zW1))/R;
+				double p2  = (pW2 + a*(cos*yW2 + sin*zW2))/R;
+				double p1d = a*(-sin*yW1 + cos*zW1)/R;
+				double p2d = a*(-sin*yW2 + cos*zW2)/R;
+				sum += GL_WEIGHTS[n] * (p1*p2d - p2*p1d)/(1+qU);
+			}
+		}
+		return sum*pieceSpan/2;
+	}
+
+	private static void addVectorArea(OverlapEdgeCircle circle, double t0, double t1, double direction, double[] vectorArea) {
+		// 1/2 ∫ x × dx  with  x(t) = pos + a*(cos t * Y + sin t * Z)
+		//   = 1/2 * ( a * pos × [ (cos t1 - cos t0)*Y + (sin t1 - sin t0)*Z ]  +  a² * (Y × Z) * (t1-t0) )
+		double a = circle.radius;
+		double dCos = Math.cos(t1)-Math.cos(t0);
+		double dSin = Math.sin(t1)-Math.sin(t0);
+		double[] y = toArray(circle.axesCross.yAxis.x, circle.axesCross.yAxis.y, circle.axesCross.yAxis.z);
+		double[] z = toArray(circle.axesCross.zAxis.x, circle.axesCross.zAxis.y, circle.axesCross.zAxis.z);
+		double vx = a*(dCos*y[0] + dSin*z[0]);
+		double vy = a*(dCos*y[1] + dSin*z[1]);
+		double vz = a*(dCos*y[2] + dSin*z[2]);
+		double px = circle.pos.x, py = circle.pos.y, pz = circle.pos.z;
+		double a2 = a*a*(t1-t0);
+		vectorArea[0] += direction*0.5*( py*vz-pz*vy + a2*(y[1]*z[2]-y[2]*z[1]) );
+		vectorArea[1] += direction*0.5*( pz*vx-px*vz + a2*(y[2]*z[0]-y[0]*z[2]) );
+		vectorArea[2] += direction*0.5*( px*vy-py*vx + a2*(y[0]*z[1]-y[1]*z[0]) );
+	}
+
+	private static double[] choosePole(Sphere sp, Vector<OverlapEdgeCircle> circles, IndexList circleIndices) {
+		// the pole and its antipole should be as far away as possible from every boundary circle
+		// candidates: the 13 directions of a 3x3x3 cube (the opposite directions are checked as antipoles)
+		double[] best = null;
+		double bestDistance = -1;
+		for (int x=-1; x<=1; x++)
+			for (int y=-1; y<=1; y++)
+				for (int z=0; z<=1; z++) {
+					if (z==0 && (y<0 || (y==0 && x<=0))) continue;
+					double length = Math.sqrt(x*x+y*y+z*z);
+					double[] u = toArray(x/length, y/length, z/length);
+					double distance = Double.POSITIVE_INFINITY;
+					for (int k=0; k<circleIndices.size(); k++) {
+						OverlapEdgeCircle circle = circles.get(circleIndices.get(k));
+						double h = (circle.pos.x-sp.center.x)*circle.normal.x + (circle.pos.y-sp.center.y)*circle.normal.y + (circle.pos.z-sp.center.z)*circle.normal.z;
+						double coneAngle = Math.acos(Math.max(-1, Math.min(1, h/sp.radius)));
+						double poleAngle = Math.acos(Math.max(-1, Math.min(1, u[0]*circle.normal.x + u[1]*circle.normal.y + u[2]*circle.normal.z)));
+						distance = Math.min(distance, Math.abs(poleAngle-coneAngle));
+						distance = Math.min(distance, Math.abs(Math.PI-poleAngle-coneAngle));
+					}
+					if (distance > bestDistance) {
+						bestDistance = distance;
+						best = u;
+					}
+				}
+		return best;
+	}
+
+	private static boolean isExposed(Sphere[] spheres, int i, SphereGrid grid, double x, double y, double z) {
+		boolean[] isCovered = new boolean[] { false };
+		grid.forEachIntersecting(i, j->{
+			if (!isCovered[0] && spheres[j].isInside(x, y, z))
+				isCovered[0] = true;
+		});
+		return !isCovered[0];
+	}
+
+	private static void computePerpendicular(double[] u, double[] w1, double[] w2) {
+		// w1 = u × (axis with smallest component of u), w2 = u × w1
+		double ax = Math.abs(u[0]), ay = Math.abs(u[1]), az = Math.abs(u[2]);
+		if (ax<=ay && ax<=az) { w1[0] = 0; w1[1] = u[2]; w1[2] = -u[1]; }
+		else if (ay<=az)      { w1[0] = -u[2]; w1[1] = 0; w1[2] = u[0]; }
+		else                  { w1[0] = u[1]; w1[1] = -u[0]; w1[2] = 0; }
+		double length = Math.sqrt(dot(w1,w1));
+		w1[0] /= length; w1[1] /= length; w1[2] /= length;
+		w2[0] = u[1]*w1[2]-u[2]*w1[1];
+		w2[1] = u[2]*w1[0]-u[0]*w1[2];
+		w2[2] = u[0]*w1[1]-u[1]*w1[0];
+	}
+
+	private static double[] toArray(double x, double y, double z) {
+		return new double[] { x, y, z };
+	}
+
+	private static double dot(double[] a, double[] b) {
+		return a[0]*b[0] + a[1]*b[1] + a[2]*b[2];
+	}
+}
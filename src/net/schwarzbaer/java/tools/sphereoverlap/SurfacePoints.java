@@ -0,0 +1,36 @@
+package net.schwarzbaer.java.tools.sphereoverlap;
+
+import net.schwarzbaer.java.lib.geometry.spacial.ConstPoint3d;
+
+class SurfacePoints {
+
+	// sampled surface points of one sphere: center + radius * unit vector of a shared template
+	// nothing is stored per sphere, points are computed on demand and normals are the template vectors
+
+	final SphereTemplates.Template template;
+	private final double centerX, centerY, centerZ, radius;
+
+	SurfacePoints(ConstPoint3d center, double radius, SphereTemplates.Template template) {
+		this.template = template;
+		this.radius = radius;
+		centerX = center.x;
+		centerY = center.y;
+		centerZ = center.z;
+	}
+
+	int size() {
+		return template.size();
+	}
+
+	double getX(int i) { return centerX + radius*template.x[i]; }
+	double getY(int i) { return centerY + radius*template.y[i]; }
+	double getZ(int i) { return centerZ + radius*template.z[i]; }
+
+	ConstPoint3d getPoint(int i) {
+		return new ConstPoint3d(getX(i), getY(i), getZ(i));
+	}
+
+	ConstPoint3d getNormal(int i) {
+		return new ConstPoint3d(template.x[i], template.y[i], template.z[i]);
+	}
+}
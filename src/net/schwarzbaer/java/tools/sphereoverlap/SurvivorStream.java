@@ -0,0 +1,57 @@
+package net.schwarzbaer.java.tools.sphereoverlap;
+
+import java.io.IOException;
+import java.util.BitSet;
+
+import net.schwarzbaer.java.tools.sphereoverlap.SphereOverlap.Sphere;
+
+class SurvivorStream {
+
+	// surviving points without covered masks of the spheres:
+	// the points of a sphere are generated from its template, tested against the neighbouring spheres (same test as Sphere.markCovered)
+	// and handed to a sink one by one -> only a mask for the current sphere is kept, nothing between spheres
+
+	interface Sink {
+		void accept(int sphereIndex, double x, double y, double z) throws IOException;
+	}
+
+	private final Sphere[] spheres;
+	private final SphereGrid grid;
+	private final IndexList neighbours;
+	private final BitSet covered; // of the current sphere
+
+	SurvivorStream(Sphere[] spheres, SphereGrid grid) {
+		this.spheres = spheres;
+		this.grid = grid;
+		neighbours = new IndexList();
+		covered = new BitSet();
+	}
+
+	void forEach(Sink sink) throws IOException {
+		for (int i=0; i<spheres.length; i++)
+			forEach(i, sink);
+	}
+
+	void forEach(int sphereIndex, Sink sink) throws IOException {
+		Sphere sphere = spheres[sphereIndex];
+		neighbours.clear();
+		grid.forEachIntersecting(sphereIndex, neighbours::add);
+
+		SurfacePoints surface = sphere.surface;
+		double[] ux = surface.template.x, uy = surface.template.y, uz = surface.template.z;
+		covered.clear();
+		int culled = 0;
+		for (int j=0; j<neighbours.size(); j++) {
+			Sphere other = spheres[neighbours.get(j)];
+			double dx = sphere.center.x-other.center.x;
+			double dy = sphere.center.y-other.center.y;
+			double dz = sphere.center.z-other.center.z;
+			double limit = (other.radius*other.radius - sphere.radius*sphere.radius - (dx*dx+dy*dy+dz*dz)) / (2*sphere.radius);
+			culled += CullingKernel.INSTANCE.markCovered(ux, uy, uz, dx, dy, dz, limit, covered);
+		}
+		OverlapMetrics.count(OverlapMetrics.Counter.POINTS_CULLED, culled);
+
+		for (int k=covered.nextClearBit(0); k<ux.length; k=covered.nextClearBit(k+1))
+			sink.accept(sphereIndex, surface.getX(k), surface.getY(k), surface.getZ(k));
+	}
+}
@@ -0,0 +1,43 @@
+package net.schwarzbaer.java.tools.sphereoverlap;
+
+import java.util.BitSet;
+
+import jdk.incubator.vector.DoubleVector;
+import jdk.incubator.vector.VectorMask;
+import jdk.incubator.vector.VectorOperators;
+import jdk.incubator.vector.VectorSpecies;
+
+class VectorCullingKernel implements CullingKernel {
+
+	// CullingKernel with the Vector API: one sphere against a batch of template points per instruction
+	// only loaded by CullingKernel, if the module jdk.incubator.vector is available
+	// same operations in the same order as the scalar kernel (no FMA) -> bitwise the same results
+
+	private static final VectorSpecies<Double> SPECIES = DoubleVector.SPECIES_PREFERRED;
+
+	@Override public int markCovered(double[] ux, double[] uy, double[] uz, double dx, double dy, double dz, double limit, BitSet covered) {
+		int n = 0;
+		int k = 0;
+		int upperBound = SPECIES.loopBound(ux.length);
+		for (; k<upperBound; k+=SPECIES.length()) {
+			DoubleVector x = DoubleVector.fromArray(SPECIES, ux, k);
+			DoubleVector y = DoubleVector.fromArray(SPECIES, uy, k);
+			DoubleVector z = DoubleVector.fromArray(SPECIES, uz, k);
+			VectorMask<Double> isInside = x.mul(dx).add(y.mul(dy)).add(z.mul(dz)).compare(VectorOperators.LT, limit);
+			if (!isInside.anyTrue()) continue;
+			for (long bits = isInside.toLong(); bits!=0; bits &= bits-1) {
+				int i = k + Long.numberOfTrailingZeros(bits);
+				if (!covered.get(i)) {
+					covered.set(i);
+					n++;
+				}
+			}
+		}
+		for (; k<ux.length; k++)
+			if (dx*ux[k] + dy*uy[k] + dz*uz[k] < limit && !covered.get(k)) {
+				covered.set(k);
+				n++;
+			}
+		return n;
+	}
+}
@@ -0,0 +1,255 @@
+package net.schwarzbaer.java.tools.sphereoverlap;
+
+import java.awt.Color;
+import java.io.Closeable;
+import java.io.File;
+import java.io.IOException;
+import java.io.OutputStreamWriter;
+import java.io.PrintWriter;
+import java.math.BigDecimal;
+import java.math.RoundingMode;
+import java.nio.ByteBuffer;
+import java.nio.channels.Channels;
+import java.nio.channels.FileChannel;
+import java.nio.charset.StandardCharsets;
+import java.nio.file.StandardOpenOption;
+import java.util.Arrays;
+import java.util.function.Consumer;
+import java.util.regex.Matcher;
+import java.util.regex.Pattern;
+
+import net.schwarzbaer.java.tools.sphereoverlap.SphereOverlap.Sphere;
+
+class VrmlStreamWriter implements Closeable {
+
+	// writes VRML97 text incrementally through one reusable buffer into a file channel
+	// numbers are formatted without String.format, with the precision of a "%1.2f" like format string (same digits as String.format)
+
+	private static final Pattern FIXED_POINT_FORMAT = Pattern.compile("%[-+ 0#,(]*\\d*\\.(\\d+)f");
+	private static final int BUFFER_SIZE = 1<<16;
+	static final int FACE_CORNERS = 5;
+
+	private final FileChannel channel;
+	private final ByteBuffer buffer;
+	private final int decimals;
+	private final double scale;
+	private final char[] digits;
+
+	VrmlStreamWriter(File file, String pointCoordFormat) throws IOException {
+		channel = FileChannel.open(file.toPath(), StandardOpenOption.CREATE, StandardOpenOption.WRITE, StandardOpenOption.TRUNCATE_EXISTING);
+		buffer = ByteBuffer.allocateDirect(BUFFER_SIZE);
+		decimals = parseDecimals(pointCoordFormat);
+		scale = Math.pow(10, decimals);
+		digits = new char[20];
+	}
+
+	static int parseDecimals(String format) {
+		Matcher m = FIXED_POINT_FORMAT.matcher(format);
+		if (!m.find()) return 6; // default precision of %f
+		return Math.min(Integer.parseInt(m.group(1)), 15);
+	}
+
+	static void writePointFaces(File file, Sphere[] spheres, double pointSize, String pointCoordFormat, Color diffuseColor, Consumer<PrintWriter> writeExtra) {
+		try (VrmlStreamWriter out = new VrmlStreamWriter(file, pointCoordFormat)) {
+			out.write("#VRML V2.0 utf8\n");
+			if (writeExtra!=null) out.writeText(writeExtra);
+			out.writePointFaceShape(spheres, pointSize, diffuseColor);
+		} catch (IOException e) {
+			System.err.printf("IOException while writing \"%s\": %s%n", file.getAbsolutePath(), e.getMessage());
+		}
+	}
+
+	static void writeSurvivingPointFaces(File file, Sphere[] spheres, SphereGrid grid, double pointSize, String pointCoordFormat, Color diffuseColor, int[] survivorCounts, Consumer<PrintWriter> writeExtra) {
+		// points are culled while they are written (SurvivorStream), the spheres need no covered masks
+		// survivorCounts (per sphere) is filled before writeExtra is called, so the extra nodes come after the shape
+		try (VrmlStreamWriter out = new VrmlStreamWriter(file, pointCoordFormat)) {
+			out.write("#VRML V2.0 utf8\n");
+			out.writeFaceShapeStart(diffuseColor);
+			double[] corners = new double[FACE_CORNERS*3];
+			Arrays.fill(survivorCounts, 0);
+			new SurvivorStream(spheres, grid).forEach((i,x,y,z)->{
+				computePointFace(x, y, z, spheres[i], pointSize, corners);
+				out.writeFaceCorners(corners);
+				survivorCounts[i]++;
+			});
+			long nFaces = 0;
+			for (int n : survivorCounts) nFaces += n;
+			out.writeFaceShapeEnd(nFaces);
+			if (writeExtra!=null) out.writeText(writeExtra);
+		} catch (IOException e) {
+			System.err.printf("IOException while writing \"%s\": %s%n", file.getAbsolutePath(), e.getMessage());
+		}
+	}
+
+	void writePointFaceShape(Sphere[] spheres, double pointSize, Color diffuseColor) throws IOException {
+		writeFaceShapeStart(diffuseColor);
+
+		// 1st pass: corners of each face, sphere by sphere
+		long nFaces = 0;
+		double[] corners = new double[FACE_CORNERS*3];
+		for (Sphere sphere : spheres) {
+			SurfacePoints surface = sphere.surface;
+			for (int k=sphere.covered.nextClearBit(0); k<surface.size(); k=sphere.covered.nextClearBit(k+1)) {
+				computePointFace(surface.getX(k), surface.getY(k), surface.getZ(k), sphere, pointSize, corners);
+				writeFaceCorners(corners);
+				nFaces++;
+			}
+		}
+
+		writeFaceShapeEnd(nFaces);
+	}
+
+	// a face set shape in 3 steps: start, corners of each face, end (writes the indices)
+
+	void writeFaceShapeStart(Color diffuseColor) throws IOException {
+		write("Shape {\n");
+		write("\tappearance Appearance { material Material { diffuseColor ");
+		writeColor(diffuseColor);
+		write(" specularColor 1 1 1 } }\n");
+		write("\tgeometry IndexedFaceSet {\n");
+		write("\t\tsolid FALSE\n");
+		write("\t\tcoord Coordinate { point [\n");
+	}
+
+	void writeFaceCorners(double[] corners) throws IOException {
+		for (int c=0; c<FACE_CORNERS; c++) {
+			write("\t\t\t");
+			write(corners[c*3]); write(' ');
+			write(corners[c*3+1]); write(' ');
+			write(corners[c*3+2]); write(",\n");
+		}
+	}
+
+	void writeFaceShapeEnd(long nFaces) throws IOException {
+		write("\t\t] }\n");
+
+		// 2nd pass: indices are consecutive, so they don't need the points again
+		write("\t\tcoordIndex [\n");
+		for (long f=0; f<nFaces; f++) {
+			write("\t\t\t");
+			for (int c=0; c<FACE_CORNERS; c++) {
+				write(f*FACE_CORNERS+c); write(' ');
+			}
+			write("-1,\n");
+		}
+		write("\t\t]\n");
+		write("\t}\n");
+		write("}\n");
+	}
+
+	static void computePointFace(double x, double y, double z, Sphere sphere, double pointSize, double[] corners) {
+		// regular polygon around the point, perpendicular to the sphere normal, counter-clockwise seen from outside
+		double nx = x-sphere.center.x;
+		double ny = y-sphere.center.y;
+		double nz = z-sphere.center.z;
+		double length = Math.sqrt(nx*nx+ny*ny+nz*nz);
+		nx /= length; ny /= length; nz /= length;
+
+		// a = n x (axis with smallest component of n), b = n x a
+		double ax, ay, az;
+		if (Math.abs(nx) <= Math.abs(ny) && Math.abs(nx) <= Math.abs(nz)) { ax = 0; ay = nz; az = -ny; }
+		else if (Math.abs(ny) <= Math.abs(nz))                            { ax = -nz; ay = 0; az = nx; }
+		else                                                              { ax = ny; ay = -nx; az = 0; }
+		double aLength = Math.sqrt(ax*ax+ay*ay+az*az);
+		ax /= aLength; ay /= aLength; az /= aLength;
+		double bx = ny*az-nz*ay;
+		double by = nz*ax-nx*az;
+		double bz = nx*ay-ny*ax;
+
+		int n = corners.length/3;
+		for (int c=0; c<n; c++) {
+			double angle = c*2*Math.PI/n;
+			double cos = Math.cos(angle)*pointSize;
+			double sin = Math.sin(angle)*pointSize;
+			corners[c*3  ] = x + ax*cos + bx*sin;
+			corners[c*3+1] = y + ay*cos + by*sin;
+			corners[c*3+2] = z + az*cos + bz*sin;
+		}
+	}
+
+	void writeText(Consumer<PrintWriter> writer) throws IOException {
+		flush();
+		PrintWriter out = new PrintWriter(new OutputStreamWriter(Channels.newOutputStream(channel), StandardCharsets.UTF_8));
+		writer.accept(out);
+		out.flush(); // not closed, that would close the channel
+	}
+
+	void writeColor(Color color) throws IOException {
+		float[] rgb = color.getRGBColorComponents(null);
+		writeFixed(rgb[0], 3); write(' ');
+		writeFixed(rgb[1], 3); write(' ');
+		writeFixed(rgb[2], 3);
+	}
+
+	void write(String str) throws IOException {
+		for (int i=0; i<str.length(); i++)
+			write(str.charAt(i));
+	}
+
+	void write(char ch) throws IOException {
+		if (!buffer.hasRemaining()) flush();
+		buffer.put((byte) ch); // only ASCII is written through this method
+	}
+
+	void write(long value) throws IOException {
+		if (value<0) {
+			if (value==Long.MIN_VALUE) { write(Long.toString(value)); return; }
+			write('-');
+			value = -value;
+		}
+		int n = 0;
+		do {
+			digits[n++] = (char) ('0' + value%10);
+			value /= 10;
+		} while (value>0);
+		while (n>0) write(digits[--n]);
+	}
+
+	void write(double value) throws IOException {
+		writeFixed(value, decimals);
+	}
+
+	private void writeFixed(double value, int decimals) throws IOException {
+		double scale = decimals==this.decimals ? this.scale : Math.pow(10, decimals);
+		double scaled = Math.abs(value)*scale;
+		if (Double.isNaN(value) || Double.isInfinite(value)) {
+			write(Double.toString(value));
+			return;
+		}
+		// String.format rounds the digits of Double.toString half up, Math.round rounds the binary product
+		// -> both agree, unless the product is near a tie (within its rounding error) or too large for an exact fraction
+		double scaledFraction = scaled - Math.floor(scaled);
+		if (scaled >= 1L<<52 || Math.abs(scaledFraction-0.5) <= 4*Math.ulp(scaled)) {
+			if (Double.doubleToRawLongBits(value)<0) write('-');
+			write(new BigDecimal(Double.toString(Math.abs(value))).setScale(decimals, RoundingMode.HALF_UP).toPlainString());
+			return;
+		}
+		long rounded = Math.round(scaled);
+		if (Double.doubleToRawLongBits(value)<0) write('-'); // like String.format, also for values rounded to "-0.00"
+		long factor = (long) scale;
+		write(rounded/factor);
+		if (decimals>0) {
+			write('.');
+			long fraction = rounded%factor;
+			for (long f=factor/10; f>0; f/=10) {
+				write((char) ('0' + fraction/f));
+				fraction %= f;
+			}
+		}
+	}
+
+	void flush() throws IOException {
+		buffer.flip();
+		while (buffer.hasRemaining())
+			channel.write(buffer);
+		buffer.clear();
+	}
+
+	@Override public void close() throws IOException {
+		try {
+			flush();
+		} finally {
+			channel.close();
+		}
+	}
+}
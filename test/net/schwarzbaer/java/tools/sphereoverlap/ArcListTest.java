@@ -0,0 +1,128 @@
+package net.schwarzbaer.java.tools.sphereoverlap;
+
+import static org.junit.jupiter.api.Assertions.assertEquals;
+import static org.junit.jupiter.api.Assertions.assertThrows;
+
+import java.util.Random;
+
+import org.junit.jupiter.api.Test;
+
+import net.schwarzbaer.java.tools.sphereoverlap.OverlapEdgeCircle.Arc;
+import net.schwarzbaer.java.tools.sphereoverlap.OverlapEdgeCircle.ArcList;
+import net.schwarzbaer.java.tools.sphereoverlap.OverlapEdgeCircle.ArcSubstractionResult;
+
+class ArcListTest {
+
+	// ArcList.subtract (in place, primitive) against ArcSubstractionResult.compute (reference implementation)
+
+	@Test
+	void wrapAround() {
+		check(5, 7, -0.5, 0.8);
+		check(5, 7, 6.5, 8);
+		check(0.5, 1.5, 6, 7);
+		check(-1, 1, 6, 6.5);
+	}
+
+	@Test
+	void touchingEnds() {
+		check(1, 2, 2, 3);
+		check(1, 2, 0, 1);
+		check(1, 2, 1-2*Math.PI, 2-2*Math.PI);
+	}
+
+	@Test
+	void fullCover() {
+		check(1, 2, 0.5, 2.5);
+		check(1, 2, 1, 2);
+		check(1, 2, 1, 3);
+		check(1, 2, 0, 2);
+	}
+
+	@Test
+	void splitIntoTwo() {
+		check(0, 3, 1, 2);
+		check(0, 6, -1, 1);
+		check(0, 6, 5, 7);
+	}
+
+	@Test
+	void random() {
+		Random random = new Random(1);
+		for (int i=0; i<100000; i++) {
+			double[] v = new double[4];
+			for (int k=0; k<4; k++) {
+				v[k] = random.nextDouble()*4*Math.PI - Math.PI;
+				// every 4th value on a multiple of PI/8 -> equal and touching ends
+				if (random.nextInt(4)==0) v[k] = Math.round(v[k]/(Math.PI/8))*(Math.PI/8);
+			}
+			double baseMin  = Math.min(v[0], v[1]), baseMax  = Math.max(v[0], v[1]);
+			double otherMin = Math.min(v[2], v[3]), otherMax = Math.max(v[2], v[3]);
+			// arcs of an edge circle are shorter than 2PI
+			if (baseMin==baseMax || otherMin==otherMax || baseMax-baseMin>=2*Math.PI || otherMax-otherMin>=2*Math.PI) continue;
+			check(baseMin, baseMax, otherMin, otherMax);
+		}
+	}
+
+	@Test
+	void inPlace() {
+		// several arcs in one list, each one like the single subtraction
+		ArcList list = new ArcList();
+		list.add(0, 1);
+		list.add(2, 4);
+		list.add(5, 6);
+		list.subtract(0.5, 2.5);
+		assertEquals(3, list.size());
+		assertArc(0  , 0.5, list, 0);
+		assertArc(2.5, 4  , list, 1);
+		assertArc(5  , 6  , list, 2);
+		list.subtract(3, 3.5);
+		assertEquals(4, list.size());
+		assertArc(2.5, 3  , list, 1);
+		assertArc(3.5, 4  , list, 2);
+		list.subtract(-1, 7);
+		assertEquals(0, list.size());
+	}
+
+	private static void check(double baseMin, double baseMax, double otherMin, double otherMax) {
+		String message = String.format("[%s,%s] - [%s,%s]", baseMin, baseMax, otherMin, otherMax);
+		ArcSubstractionResult expected;
+		try {
+			expected = ArcSubstractionResult.compute(new Arc(baseMin, baseMax), new Arc(otherMin, otherMax));
+		} catch (IllegalArgumentException e) {
+			// degenerate result arc
+			assertThrows(IllegalArgumentException.class, ()->ArcList.subtract(baseMin, baseMax, otherMin, otherMax, new double[4], 0), message);
+			return;
+		}
+
+		double[] out = new double[4];
+		int n = ArcList.subtract(baseMin, baseMax, otherMin, otherMax, out, 0);
+		ArcList list = new ArcList();
+		list.add(baseMin, baseMax);
+		list.subtract(otherMin, otherMax);
+		assertEquals(n, list.size(), message);
+
+		if (expected.removeArc) {
+			assertEquals(0, n, message);
+		} else if (expected.changeNothing) {
+			assertEquals(1, n, message);
+			assertArc(baseMin, baseMax, out, 0, list, message);
+		} else {
+			assertEquals(expected.result2==null ? 1 : 2, n, message);
+			assertArc(expected.result1.min, expected.result1.max, out, 0, list, message);
+			if (expected.result2!=null)
+				assertArc(expected.result2.min, expected.result2.max, out, 1, list, message);
+		}
+	}
+
+	private static void assertArc(double min, double max, double[] out, int i, ArcList list, String message) {
+		assertEquals(min, out[i*2  ], message);
+		assertEquals(max, out[i*2+1], message);
+		assertEquals(min, list.min(i), message);
+		assertEquals(max, list.max(i), message);
+	}
+
+	private static void assertArc(double min, double max, ArcList list, int i) {
+		assertEquals(min, list.min(i));
+		assertEquals(max, list.max(i));
+	}
+}
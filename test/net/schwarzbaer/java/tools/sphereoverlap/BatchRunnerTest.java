@@ -0,0 +1,29 @@
+package net.schwarzbaer.java.tools.sphereoverlap;
+
+import static org.junit.jupiter.api.Assertions.assertEquals;
+import static org.junit.jupiter.api.Assertions.assertThrows;
+
+import org.junit.jupiter.api.Test;
+
+import net.schwarzbaer.java.tools.sphereoverlap.SphereOverlap.Sphere;
+
+class BatchRunnerTest {
+
+	// labels of manifest lines are output file names
+
+	@Test
+	void validLabels() {
+		for (String label : new String[] { "A", "DebugCase 1", "Random Layout (optimized)", "a.b", "..a" })
+			assertEquals(label, parse(label+" ; - ; 1 ; 0xFF8000 ; PLY").testCase.label);
+	}
+
+	@Test
+	void invalidLabels() {
+		for (String label : new String[] { ".", "..", "../x", "x/y", "x\\y", "C:x", "/tmp/x" })
+			assertThrows(IllegalArgumentException.class, ()->parse(label+" ; - ; 1 ; 0xFF8000 ; PLY"), label);
+	}
+
+	private static BatchRunner.Entry parse(String line) {
+		return BatchRunner.parseEntry(1, line, name->()->new Sphere[0]);
+	}
+}
@@ -0,0 +1,154 @@
+package net.schwarzbaer.java.tools.sphereoverlap;
+
+import static org.junit.jupiter.api.Assertions.assertEquals;
+import static org.junit.jupiter.api.Assertions.assertTrue;
+
+import java.util.Arrays;
+import java.util.Random;
+import java.util.Vector;
+
+import org.junit.jupiter.api.Test;
+
+import net.schwarzbaer.java.tools.sphereoverlap.SphereOverlap.Sphere;
+
+class BoundaryArrangementTest {
+
+	// BoundaryArrangement (merged angle ranges, shared vertices) against OverlapEdgeCircle.computeAll (cut-out per sphere)
+
+	private static final ParallelEngine ENGINE = new ParallelEngine(2);
+
+	@Test
+	void randomSpheres() {
+		for (int seed=1; seed<=5; seed++) {
+			Sphere[] spheres = Sphere.createRandomSpheres(new Random(seed), 150, 10, 30, 200, 200, 200, 100);
+			SphereGrid grid = new SphereGrid(spheres);
+			BoundaryArrangement arrangement = BoundaryArrangement.build(spheres, grid, ENGINE);
+			String message = "seed "+seed;
+			checkArcs(arrangement, OverlapEdgeCircle.computeAll(spheres, grid, ENGINE), message);
+			checkVertices(spheres, arrangement, message);
+			checkLoops(spheres, arrangement, message);
+			checkLineSet(arrangement, message);
+		}
+	}
+
+	private static void checkArcs(BoundaryArrangement arrangement, Vector<OverlapEdgeCircle> expected, String message) {
+		assertEquals(expected.size(), arrangement.circles.size(), message+", number of edge circles");
+		for (int c=0; c<expected.size(); c++) {
+			OverlapEdgeCircle expectedCircle = expected.get(c);
+			OverlapEdgeCircle circle = arrangement.circles.get(c);
+			String circleMessage = String.format("%s, edge circle %d-%d", message, expectedCircle.index1, expectedCircle.index2);
+			assertEquals(expectedCircle.index1, circle.index1, circleMessage);
+			assertEquals(expectedCircle.index2, circle.index2, circleMessage);
+			assertEquals(expectedCircle.isFullCircle(), circle.isFullCircle(), circleMessage);
+			assertEquals(expectedCircle.getArcCount(), circle.getArcCount(), circleMessage);
+			// same arcs, but maybe shifted by 2PI or in another order
+			double[] expectedArcs = getNormalizedArcs(expectedCircle);
+			double[] arcs = getNormalizedArcs(circle);
+			for (int k=0; k<arcs.length; k++)
+				assertEquals(expectedArcs[k], arcs[k], 1e-12, circleMessage);
+		}
+	}
+
+	private static double[] getNormalizedArcs(OverlapEdgeCircle circle) {
+		// min in [0,2PI) and length of each arc, sorted by min
+		double[][] arcs = new double[circle.getArcCount()][];
+		for (int a=0; a<arcs.length; a++) {
+			double min = circle.getArcMin(a) % (2*Math.PI);
+			if (min<0) min += 2*Math.PI;
+			arcs[a] = new double[] { min, circle.getArcMax(a)-circle.getArcMin(a) };
+		}
+		Arrays.sort(arcs, (a1,a2)->Double.compare(a1[0], a2[0]));
+		double[] result = new double[arcs.length*2];
+		for (int a=0; a<arcs.length; a++) {
+			result[a*2  ] = arcs[a][0];
+			result[a*2+1] = arcs[a][1];
+		}
+		return result;
+	}
+
+	private static void checkVertices(Sphere[] spheres, BoundaryArrangement arrangement, String message) {
+		// each triple point is on its 3 spheres and ends one arc of each of its 3 circles
+		int[] degree = new int[arrangement.getVertexCount()];
+		for (int arc=0; arc<arrangement.getArcCount(); arc++)
+			if (arrangement.getArcMinVertex(arc)>=0) {
+				degree[arrangement.getArcMinVertex(arc)]++;
+				degree[arrangement.getArcMaxVertex(arc)]++;
+			}
+		assertTrue(arrangement.getVertexCount()>0, message+", no vertices");
+		for (int v=0; v<degree.length; v++) {
+			assertEquals(3, degree[v], message+", degree of vertex "+v);
+			for (int k=0; k<3; k++) {
+				Sphere sp = spheres[arrangement.getVertexSphere(v, k)];
+				double dx = arrangement.getX(v)-sp.center.x, dy = arrangement.getY(v)-sp.center.y, dz = arrangement.getZ(v)-sp.center.z;
+				assertEquals(sp.radius, Math.sqrt(dx*dx+dy*dy+dz*dz), 1e-9, message+", vertex "+v);
+			}
+		}
+	}
+
+	private static void checkLoops(Sphere[] spheres, BoundaryArrangement arrangement, String message) {
+		// arcs of a sphere run with its exposed region on their left (SurfaceCoverage.getBoundaryDirection)
+		// each loop is closed: an arc starts at the end of the previous one, and each arc is in one loop of both spheres of its circle
+		assertEquals(0, arrangement.openLoopCount, message+", open loops");
+		int[] count = new int[arrangement.getArcCount()];
+		for (int s=0; s<spheres.length; s++)
+			for (int start=arrangement.getLoopStart(s); start<arrangement.getLoopEnd(s); ) {
+				int end = start;
+				while (arrangement.loops.get(end)>=0) end++;
+				String loopMessage = String.format("%s, sphere %d, loop at %d", message, s, start);
+				for (int k=start; k<end; k++) {
+					int entry = arrangement.loops.get(k);
+					int arc = entry/2;
+					OverlapEdgeCircle circle = arrangement.circles.get(arrangement.getArcCircle(arc));
+					assertTrue(circle.index1==s || circle.index2==s, loopMessage);
+					assertEquals(SurfaceCoverage.getBoundaryDirection(circle, s) < 0, (entry&1)!=0, loopMessage);
+					count[arc]++;
+
+					if (circle.isFullCircle())
+						assertEquals(1, end-start, loopMessage+", full circle");
+					else {
+						int next = arrangement.loops.get(k+1<end ? k+1 : start);
+						assertEquals(getEndVertex(arrangement, entry), getStartVertex(arrangement, next), loopMessage);
+					}
+				}
+				start = end+1;
+			}
+		for (int arc=0; arc<count.length; arc++)
+			assertEquals(2, count[arc], message+", loops with arc "+arc);
+	}
+
+	private static int getStartVertex(BoundaryArrangement arrangement, int entry) {
+		return (entry&1)!=0 ? arrangement.getArcMaxVertex(entry/2) : arrangement.getArcMinVertex(entry/2);
+	}
+
+	private static int getEndVertex(BoundaryArrangement arrangement, int entry) {
+		return (entry&1)!=0 ? arrangement.getArcMinVertex(entry/2) : arrangement.getArcMaxVertex(entry/2);
+	}
+
+	private static void checkLineSet(BoundaryArrangement arrangement, String message) {
+		// polylines along the loops: same segments as one polyline per arc, but fewer and longer polylines
+		ArcTessellation tessellation = ArcTessellation.fixed(OverlapEdgeCircle.ARC_SEGMENTS);
+		EdgeLineSet lines = EdgeLineSet.create(arrangement, tessellation);
+		EdgeLineSet arcLines = EdgeLineSet.create(arrangement.circles, tessellation);
+		assertEquals(arcLines.getEdgeCount(), lines.getEdgeCount(), message+", edges");
+		assertEquals(getLength(arcLines), getLength(lines), 1e-9*getLength(arcLines), message+", length of all edges");
+		assertTrue(getPolylineCount(lines) < getPolylineCount(arcLines), message+", polylines");
+	}
+
+	private static double getLength(EdgeLineSet lines) {
+		double length = 0;
+		for (int k=0; k+1<lines.polylines.size(); k++) {
+			int v1 = lines.polylines.get(k), v2 = lines.polylines.get(k+1);
+			if (v1<0 || v2<0) continue;
+			double dx = lines.getX(v1)-lines.getX(v2), dy = lines.getY(v1)-lines.getY(v2), dz = lines.getZ(v1)-lines.getZ(v2);
+			length += Math.sqrt(dx*dx+dy*dy+dz*dz);
+		}
+		return length;
+	}
+
+	private static int getPolylineCount(EdgeLineSet lines) {
+		int n = 0;
+		for (int k=0; k<lines.polylines.size(); k++)
+			if (lines.polylines.get(k)<0) n++;
+		return n;
+	}
+}
@@ -0,0 +1,41 @@
+package net.schwarzbaer.java.tools.sphereoverlap;
+
+import static org.junit.jupiter.api.Assertions.assertEquals;
+import static org.junit.jupiter.api.Assertions.assertThrows;
+
+import org.junit.jupiter.api.Test;
+
+import net.schwarzbaer.java.tools.sphereoverlap.SphereOverlap.Sphere;
+
+class CoverageIndexTest {
+
+	private static final CoverageIndex INDEX = CoverageIndex.build(new Sphere[] { new Sphere(0, 0, 0, 1, 100), new Sphere(1.5, 0, 0, 1, 100) }, new ParallelEngine(1));
+
+	@Test
+	void depth() {
+		assertEquals(2, INDEX.getDepth(0.75, 0, 0));
+		assertEquals(1, INDEX.getDepth(-0.5, 0, 0));
+		assertEquals(0, INDEX.getDepth(5, 0, 0));
+		assertEquals(0, INDEX.getDepth(Double.NaN, 0, 0));
+	}
+
+	@Test
+	void nearestExposedPoint() {
+		CoverageIndex.ExposedPoint point = INDEX.getNearestExposedPoint(-3, 0, 0);
+		assertEquals(0, point.sphereIndex);
+		assertEquals(-1, point.x, 1e-12);
+		assertEquals(2, point.distance, 1e-12);
+
+		// inside of both spheres -> on the edge circle
+		point = INDEX.getNearestExposedPoint(0.75, 0, 0);
+		assertEquals(0.75, point.x, 1e-12);
+		assertEquals(Math.sqrt(1-0.75*0.75), point.distance, 1e-12);
+	}
+
+	@Test
+	void notFinite() {
+		assertThrows(IllegalArgumentException.class, ()->INDEX.getNearestExposedPoint(Double.NaN, 0, 0));
+		assertThrows(IllegalArgumentException.class, ()->INDEX.getNearestExposedPoint(0, Double.POSITIVE_INFINITY, 0));
+		assertThrows(IllegalArgumentException.class, ()->INDEX.getNearestExposedPoints(new double[] { 0, 0, 0, 0, 0, Double.NEGATIVE_INFINITY }));
+	}
+}
@@ -0,0 +1,67 @@
+package net.schwarzbaer.java.tools.sphereoverlap;
+
+import static org.junit.jupiter.api.Assertions.assertEquals;
+
+import java.util.Arrays;
+import java.util.BitSet;
+import java.util.Random;
+
+import org.junit.jupiter.api.Test;
+
+class CullingKernelTest {
+
+	// covered masks of both kernels against a brute-force test of each template point
+	// template lengths with tails, that aren't a multiple of any vector length
+
+	private static final int[] LENGTHS = { 0, 1, 7, 257, 4000 };
+
+	@Test
+	void vectorKernel() {
+		check(new VectorCullingKernel());
+	}
+
+	@Test
+	void scalarKernel() {
+		check(new CullingKernel.Scalar());
+	}
+
+	private static void check(CullingKernel kernel) {
+		SphereTemplates.Template template = SphereTemplates.get(4000);
+		Random random = new Random(1);
+		for (int n : LENGTHS) {
+			double[] ux = Arrays.copyOf(template.x, Math.min(n, template.size()));
+			double[] uy = Arrays.copyOf(template.y, ux.length);
+			double[] uz = Arrays.copyOf(template.z, ux.length);
+			for (int i=0; i<200; i++) {
+				// sphere (c,r) and an overlapping sphere (co,ro)
+				double r  = 20 + random.nextDouble()*30;
+				double ro = 20 + random.nextDouble()*30;
+				double distance = random.nextDouble()*(r+ro);
+				double[] c = { random.nextGaussian()*100, random.nextGaussian()*100, random.nextGaussian()*100 };
+				double[] dir = { random.nextGaussian(), random.nextGaussian(), random.nextGaussian() };
+				double length = Math.sqrt(dir[0]*dir[0] + dir[1]*dir[1] + dir[2]*dir[2]);
+				double[] co = { c[0]+dir[0]/length*distance, c[1]+dir[1]/length*distance, c[2]+dir[2]/length*distance };
+
+				// same limit as Sphere.markCovered
+				double dx = c[0]-co[0], dy = c[1]-co[1], dz = c[2]-co[2];
+				double limit = (ro*ro - r*r - (dx*dx+dy*dy+dz*dz)) / (2*r);
+
+				BitSet covered = new BitSet();
+				if (i%2==1) covered.set(0, ux.length/2); // some points are already covered
+				BitSet expected = (BitSet) covered.clone();
+				int expectedCount = 0;
+				for (int k=0; k<ux.length; k++) {
+					double px = c[0]+r*ux[k]-co[0], py = c[1]+r*uy[k]-co[1], pz = c[2]+r*uz[k]-co[2];
+					if (!expected.get(k) && px*px+py*py+pz*pz < ro*ro) {
+						expected.set(k);
+						expectedCount++;
+					}
+				}
+
+				String message = String.format("%s, %d points, sphere pair %d", kernel.getClass().getSimpleName(), ux.length, i);
+				assertEquals(expectedCount, kernel.markCovered(ux, uy, uz, dx, dy, dz, limit, covered), message);
+				assertEquals(expected, covered, message);
+			}
+		}
+	}
+}
@@ -0,0 +1,40 @@
+package net.schwarzbaer.java.tools.sphereoverlap;
+
+import static org.junit.jupiter.api.Assertions.assertEquals;
+
+import java.util.BitSet;
+
+import org.junit.jupiter.api.Test;
+
+import net.schwarzbaer.java.tools.sphereoverlap.SphereOverlap.Sphere;
+import net.schwarzbaer.java.tools.sphereoverlap.SphereOverlap.TestCase;
+
+class MarkCoveredTest {
+
+	// Sphere.markCovered tests  (c-co)·u < (ro²-r²-|c-co|²)/2r  instead of Sphere.isInside
+	// -> covered masks of removeOverlap against isInside of each point and each other sphere
+
+	private static final ParallelEngine ENGINE = new ParallelEngine(2);
+
+	@Test
+	void fixedTestCases() {
+		for (TestCase tc : SphereOverlap.createTestCases()) {
+			Sphere[] spheres = tc.isRandom() ? tc.createSpheres(1) : tc.createSpheres();
+			SphereOverlap.removeOverlap(spheres, new SphereGrid(spheres), ENGINE);
+			for (int i=0; i<spheres.length; i++)
+				assertEquals(getInsideMask(spheres, i), spheres[i].covered, tc.label+", sphere "+i);
+		}
+	}
+
+	private static BitSet getInsideMask(Sphere[] spheres, int i) {
+		BitSet mask = new BitSet();
+		SurfacePoints surface = spheres[i].surface;
+		for (int k=0; k<surface.size(); k++)
+			for (int j=0; j<spheres.length; j++)
+				if (j!=i && spheres[j].isInside(surface.getX(k), surface.getY(k), surface.getZ(k))) {
+					mask.set(k);
+					break;
+				}
+		return mask;
+	}
+}
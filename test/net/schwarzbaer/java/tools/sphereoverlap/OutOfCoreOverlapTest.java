@@ -0,0 +1,76 @@
+package net.schwarzbaer.java.tools.sphereoverlap;
+
+import static org.junit.jupiter.api.Assertions.assertEquals;
+import static org.junit.jupiter.api.Assertions.assertTrue;
+
+import java.io.BufferedInputStream;
+import java.io.File;
+import java.io.IOException;
+import java.io.InputStream;
+import java.nio.file.Files;
+import java.util.HashMap;
+import java.util.Random;
+import java.util.regex.Matcher;
+import java.util.regex.Pattern;
+
+import org.junit.jupiter.api.Test;
+
+import net.schwarzbaer.java.tools.sphereoverlap.SphereOverlap.Sphere;
+
+class OutOfCoreOverlapTest {
+
+	// merged PLY file of many small chunks against removeOverlap and computeAll of the whole sphere set
+	// -> a sphere, that is missing in a halo, gives more surviving points, a sphere pair in two chunks (or in none) other edges
+
+	private static final ParallelEngine ENGINE = new ParallelEngine(2);
+	private static final double POINT_SIZE = 1;
+
+	@Test
+	void smallChunks() throws IOException {
+		File folder = Files.createTempDirectory("OutOfCoreOverlapTest").toFile();
+		try {
+			File sphereFile = new File(folder, "spheres.bin");
+			SphereFile.writeRandom(sphereFile, new Random(1), 3000, 20, 50, 600, 200);
+			Sphere[] spheres = SphereFile.open(sphereFile).createSpheres();
+			SphereGrid grid = new SphereGrid(spheres);
+			SphereOverlap.removeOverlap(spheres, grid, ENGINE);
+			long nFaces = 0;
+			for (Sphere sphere : spheres)
+				nFaces += sphere.getSurvivingPointCount();
+			EdgeLineSet edges = EdgeLineSet.create(OverlapEdgeCircle.computeAll(spheres, grid, ENGINE), ArcTessellation.fromSystemProperty(POINT_SIZE));
+
+			File output = new File(folder, "spheres.ply");
+			OutOfCoreOverlap.run(sphereFile, output, POINT_SIZE, 20000, ENGINE);
+			HashMap<String,Long> header = readHeader(output);
+			assertTrue(header.get("chunks")>8, "number of chunks: "+header.get("chunks"));
+			assertEquals(nFaces, header.get("face").longValue(), "faces");
+			assertEquals(edges.getEdgeCount(), header.get("edge").longValue(), "edges");
+			assertTrue(header.get("vertex") > nFaces*5, "vertices: corners of the faces and edge vertices");
+		} finally {
+			File[] files = folder.listFiles();
+			if (files!=null)
+				for (File file : files) file.delete();
+			folder.delete();
+		}
+	}
+
+	private static HashMap<String,Long> readHeader(File file) throws IOException {
+		// element counts and the number of chunks (from the comment)
+		HashMap<String,Long> header = new HashMap<>();
+		Pattern elementPattern = Pattern.compile("element (\\w+) (\\d+)");
+		Pattern chunksPattern = Pattern.compile("comment .* in (\\d+) chunks .*");
+		try (InputStream in = new BufferedInputStream(Files.newInputStream(file.toPath()))) {
+			StringBuilder line = new StringBuilder();
+			for (int b; (b = in.read())>=0; ) {
+				if (b!='\n') { line.append((char) b); continue; }
+				if (line.toString().equals("end_header")) break;
+				Matcher m = elementPattern.matcher(line);
+				if (m.matches()) header.put(m.group(1), Long.parseLong(m.group(2)));
+				m = chunksPattern.matcher(line);
+				if (m.matches()) header.put("chunks", Long.parseLong(m.group(1)));
+				line.setLength(0);
+			}
+		}
+		return header;
+	}
+}
@@ -0,0 +1,72 @@
+package net.schwarzbaer.java.tools.sphereoverlap;
+
+import static org.junit.jupiter.api.Assertions.assertEquals;
+
+import java.util.Random;
+import java.util.Vector;
+
+import org.junit.jupiter.api.Test;
+
+import net.schwarzbaer.java.tools.sphereoverlap.SphereOverlap.Sphere;
+
+class OverlapModelTest {
+
+	// incremental updates of OverlapModel against a complete computation (removeOverlap, OverlapEdgeCircle.computeAll) of the same spheres
+
+	private static final ParallelEngine ENGINE = new ParallelEngine(2);
+
+	@Test
+	void randomChanges() {
+		Random random = new Random(1);
+		OverlapModel model = new OverlapModel(Sphere.createRandomSpheres(random, 40, 10, 30, 150, 150, 150, 500), ENGINE);
+		check(model, "initial");
+
+		for (int step=0; step<300; step++) {
+			Sphere[] spheres = model.getSpheres();
+			int operation = spheres.length<5 ? 0 : random.nextInt(3);
+			switch (operation) {
+			case 0:
+				model.add(Sphere.createRandomSpheres(random, 1, 10, 30, 150, 150, 150, 500)[0]);
+				break;
+			case 1:
+				Sphere sphere = spheres[random.nextInt(spheres.length)];
+				// small moves keep most of the neighbours, large ones change them
+				double distance = random.nextBoolean() ? 5 : 80;
+				model.move(sphere, sphere.center.x + (random.nextDouble()-0.5)*distance, sphere.center.y + (random.nextDouble()-0.5)*distance, sphere.center.z + (random.nextDouble()-0.5)*distance);
+				break;
+			default:
+				model.remove(spheres[random.nextInt(spheres.length)]);
+			}
+			check(model, "step "+step+", operation "+operation);
+		}
+	}
+
+	private static void check(OverlapModel model, String message) {
+		Sphere[] spheres = model.getSpheres();
+		Sphere[] copies = new Sphere[spheres.length];
+		for (int i=0; i<spheres.length; i++)
+			copies[i] = new Sphere(spheres[i].center.x, spheres[i].center.y, spheres[i].center.z, spheres[i].radius, spheres[i].nPoints);
+		SphereGrid grid = new SphereGrid(copies);
+		SphereOverlap.removeOverlap(copies, grid, ENGINE);
+		Vector<OverlapEdgeCircle> expected = OverlapEdgeCircle.computeAll(copies, grid, ENGINE);
+
+		for (int i=0; i<spheres.length; i++)
+			assertEquals(copies[i].covered, spheres[i].covered, message+", covered points of sphere "+i);
+
+		Vector<OverlapEdgeCircle> circles = model.getCircles();
+		assertEquals(expected.size(), circles.size(), message+", number of edge circles");
+		for (int c=0; c<circles.size(); c++) {
+			OverlapEdgeCircle circle = circles.get(c);
+			OverlapEdgeCircle expectedCircle = expected.get(c);
+			String circleMessage = String.format("%s, edge circle %d-%d", message, expectedCircle.index1, expectedCircle.index2);
+			assertEquals(expectedCircle.index1, circle.index1, circleMessage);
+			assertEquals(expectedCircle.index2, circle.index2, circleMessage);
+			assertEquals(expectedCircle.isFullCircle(), circle.isFullCircle(), circleMessage);
+			assertEquals(expectedCircle.getArcCount(), circle.getArcCount(), circleMessage);
+			for (int a=0; a<circle.getArcCount(); a++) {
+				assertEquals(expectedCircle.getArcMin(a), circle.getArcMin(a), circleMessage);
+				assertEquals(expectedCircle.getArcMax(a), circle.getArcMax(a), circleMessage);
+			}
+		}
+	}
+}
@@ -0,0 +1,42 @@
+package net.schwarzbaer.java.tools.sphereoverlap;
+
+import static org.junit.jupiter.api.Assertions.assertArrayEquals;
+import static org.junit.jupiter.api.Assertions.assertEquals;
+import static org.junit.jupiter.api.Assertions.assertThrows;
+
+import java.io.BufferedReader;
+import java.io.IOException;
+import java.io.StringReader;
+
+import org.junit.jupiter.api.Test;
+
+class OverlapServerTest {
+
+	// sphere lines of a "spheres" request: wrong values are an error of the request, the following request starts behind its lines
+
+	@Test
+	void validSpheres() throws IOException {
+		BufferedReader in = createReader("0 0 0 1 100", "1.5 -2 3e2 0.5 0", "ping");
+		assertArrayEquals(new double[] { 0,0,0,1,100, 1.5,-2,300,0.5,0 }, OverlapServer.readSpheres(in, 2), 0);
+		assertEquals("ping", in.readLine());
+	}
+
+	@Test
+	void wrongSpheres() throws IOException {
+		String[] wrongLines = {
+			"0 0 0 1 1e12", "0 0 0 1 100.5", "0 0 0 1 -1", "0 0 0 1 NaN", "0 0 0 1 2147483647", // nPoints
+			"0 0 0 0 100", "0 0 0 -1 100", "0 0 0 NaN 100", "0 0 0 Infinity 100",              // radius
+			"NaN 0 0 1 100", "0 Infinity 0 1 100", "0 0 -Infinity 1 100",                      // center
+			"0 0 0 1",
+		};
+		for (String wrongLine : wrongLines) {
+			BufferedReader in = createReader("0 0 0 1 100", wrongLine, "0 0 0 1 100", "ping");
+			assertThrows(IllegalArgumentException.class, ()->OverlapServer.readSpheres(in, 3), wrongLine);
+			assertEquals("ping", in.readLine(), wrongLine);
+		}
+	}
+
+	private static BufferedReader createReader(String... lines) {
+		return new BufferedReader(new StringReader(String.join("\n", lines)+"\n"));
+	}
+}
@@ -0,0 +1,112 @@
+package net.schwarzbaer.java.tools.sphereoverlap;
+
+import static org.junit.jupiter.api.Assertions.assertArrayEquals;
+import static org.junit.jupiter.api.Assertions.assertEquals;
+import static org.junit.jupiter.api.Assertions.assertFalse;
+import static org.junit.jupiter.api.Assertions.assertNotEquals;
+import static org.junit.jupiter.api.Assertions.assertNotNull;
+import static org.junit.jupiter.api.Assertions.assertNull;
+
+import java.io.DataOutputStream;
+import java.io.File;
+import java.io.IOException;
+import java.nio.file.Files;
+import java.util.Random;
+import java.util.Vector;
+import java.util.zip.DeflaterOutputStream;
+
+import org.junit.jupiter.api.Test;
+
+import net.schwarzbaer.java.tools.sphereoverlap.SphereOverlap.OutputFormat;
+import net.schwarzbaer.java.tools.sphereoverlap.SphereOverlap.Sphere;
+
+class ResultCacheTest {
+
+	private static final ParallelEngine ENGINE = new ParallelEngine(2);
+
+	@Test
+	void roundTrip() throws IOException {
+		File folder = Files.createTempDirectory("ResultCacheTest").toFile();
+		try {
+			ResultCache cache = createCache(folder);
+			Sphere[] spheres = createSpheres();
+			SphereGrid grid = new SphereGrid(spheres);
+			SphereOverlap.removeOverlap(spheres, grid, ENGINE);
+			Vector<OverlapEdgeCircle> circles = OverlapEdgeCircle.computeAll(spheres, grid, ENGINE);
+			SurfaceCoverage coverage = SurfaceCoverage.compute(spheres, circles, grid, ENGINE);
+			String key = ResultCache.getKey(spheres, OutputFormat.PLY);
+			cache.store(key, spheres, circles, coverage);
+
+			Sphere[] loaded = createSpheres();
+			ResultCache.Entry entry = cache.load(key, loaded);
+			assertNotNull(entry);
+			for (int i=0; i<spheres.length; i++)
+				assertEquals(spheres[i].covered, loaded[i].covered);
+			assertEquals(circles.size(), entry.circles.size());
+			for (int c=0; c<circles.size(); c++) {
+				assertEquals(circles.get(c).index1, entry.circles.get(c).index1);
+				assertEquals(circles.get(c).index2, entry.circles.get(c).index2);
+				assertEquals(circles.get(c).getArcCount(), entry.circles.get(c).getArcCount());
+			}
+			assertArrayEquals(coverage.exposedArea, entry.coverage.exposedArea, 0);
+			assertEquals(coverage.volume, entry.coverage.volume);
+		} finally {
+			deleteFolder(folder);
+		}
+	}
+
+	@Test
+	void key() {
+		Sphere[] spheres = createSpheres();
+		assertEquals(ResultCache.getKey(spheres, OutputFormat.PLY), ResultCache.getKey(createSpheres(), OutputFormat.PLY));
+		assertNotEquals(ResultCache.getKey(spheres, OutputFormat.PLY), ResultCache.getKey(spheres, OutputFormat.VRML));
+		Sphere[] otherPoints = createSpheres();
+		otherPoints[0] = new Sphere(spheres[0].center.x, spheres[0].center.y, spheres[0].center.z, spheres[0].radius, spheres[0].nPoints+1);
+		assertNotEquals(ResultCache.getKey(spheres, OutputFormat.PLY), ResultCache.getKey(otherPoints, OutputFormat.PLY));
+	}
+
+	@Test
+	void maskTooLong() throws IOException {
+		// an entry with a huge word count is a miss (and deleted), nothing is allocated for it
+		File folder = Files.createTempDirectory("ResultCacheTest").toFile();
+		try {
+			ResultCache cache = createCache(folder);
+			Sphere[] spheres = createSpheres();
+			String key = ResultCache.getKey(spheres, OutputFormat.PLY);
+			File file = new File(folder, key+".bin");
+			try (DataOutputStream out = new DataOutputStream(new DeflaterOutputStream(Files.newOutputStream(file.toPath())))) {
+				out.writeInt(ResultCache.MAGIC);
+				out.writeInt(ResultCache.VERSION);
+				out.writeUTF(key);
+				out.writeInt(spheres.length);
+				out.writeInt(0);
+				out.writeInt(Integer.MAX_VALUE);
+			}
+			assertNull(cache.load(key, spheres));
+			assertFalse(file.exists());
+		} finally {
+			deleteFolder(folder);
+		}
+	}
+
+	private static ResultCache createCache(File folder) {
+		String previous = System.setProperty(ResultCache.PROPERTY, folder.getAbsolutePath());
+		try {
+			return ResultCache.fromSystemProperty();
+		} finally {
+			if (previous==null) System.clearProperty(ResultCache.PROPERTY);
+			else System.setProperty(ResultCache.PROPERTY, previous);
+		}
+	}
+
+	private static Sphere[] createSpheres() {
+		return Sphere.createRandomSpheres(new Random(1), 30, 10, 30, 100, 100, 100, 500);
+	}
+
+	private static void deleteFolder(File folder) {
+		File[] files = folder.listFiles();
+		if (files!=null)
+			for (File file : files) file.delete();
+		folder.delete();
+	}
+}
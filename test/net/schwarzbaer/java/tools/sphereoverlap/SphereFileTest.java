@@ -0,0 +1,37 @@
+package net.schwarzbaer.java.tools.sphereoverlap;
+
+import static org.junit.jupiter.api.Assertions.assertEquals;
+import static org.junit.jupiter.api.Assertions.assertThrows;
+
+import java.io.File;
+import java.io.IOException;
+
+import org.junit.jupiter.api.Test;
+
+class SphereFileTest {
+
+	// records of a sphere file are checked like the values of the Sphere constructor
+
+	@Test
+	void wrongRecords() throws IOException {
+		File file = File.createTempFile("SphereFileTest", ".bin");
+		try {
+			try (SphereFile.Writer out = new SphereFile.Writer(file)) {
+				out.add(0, 0, 0, 1, 100);
+				out.add(0, 0, 0, 1, Integer.MAX_VALUE);
+				out.add(0, 0, 0, 0, 100);
+				out.add(Double.NaN, 0, 0, 1, 100);
+			}
+			SphereFile spheres = SphereFile.open(file);
+			assertEquals(4, spheres.size());
+			assertEquals(100, spheres.createSphere(0).nPoints);
+			for (int i=1; i<4; i++) {
+				int i_ = i;
+				assertThrows(IllegalArgumentException.class, ()->spheres.createSphere(i_), "sphere "+i);
+			}
+			assertThrows(IllegalArgumentException.class, ()->spheres.createSpheres());
+		} finally {
+			file.delete();
+		}
+	}
+}
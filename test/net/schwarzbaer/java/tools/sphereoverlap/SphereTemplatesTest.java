@@ -0,0 +1,46 @@
+package net.schwarzbaer.java.tools.sphereoverlap;
+
+import static org.junit.jupiter.api.Assertions.assertSame;
+
+import java.util.Vector;
+import java.util.concurrent.ExecutorService;
+import java.util.concurrent.Executors;
+import java.util.concurrent.Future;
+
+import org.junit.jupiter.api.Test;
+
+import net.schwarzbaer.java.tools.sphereoverlap.SphereOverlap.Sphere;
+
+class SphereTemplatesTest {
+
+	// spheres with the same number of points share one template, also if it's evicted from the LRU list in the meantime
+
+	@Test
+	void sharedAfterEviction() {
+		Sphere sphere = new Sphere(0, 0, 0, 1, 123);
+		// more points in total than the LRU list holds (default limit)
+		long points = 0;
+		for (int n=5000; points <= 1<<22; n++) {
+			Sphere other = new Sphere(0, 0, 0, 1, n);
+			points += other.surface.size();
+		}
+		assertSame(sphere.surface.template, new Sphere(5, 5, 5, 2, 123).surface.template);
+	}
+
+	@Test
+	void sharedByParallelCallers() throws Exception {
+		ExecutorService executor = Executors.newFixedThreadPool(4);
+		try {
+			for (int n=300; n<320; n++) {
+				int n_ = n;
+				Vector<Future<SphereTemplates.Template>> results = new Vector<>();
+				for (int t=0; t<8; t++)
+					results.add(executor.submit(()->SphereTemplates.get(n_)));
+				for (Future<SphereTemplates.Template> result : results)
+					assertSame(results.get(0).get(), result.get(), "nPoints "+n);
+			}
+		} finally {
+			executor.shutdown();
+		}
+	}
+}
@@ -0,0 +1,100 @@
+package net.schwarzbaer.java.tools.sphereoverlap;
+
+import static org.junit.jupiter.api.Assertions.assertEquals;
+
+import java.util.Random;
+
+import org.junit.jupiter.api.Test;
+
+import net.schwarzbaer.java.tools.sphereoverlap.SphereOverlap.Sphere;
+
+class SurfaceCoverageTest {
+
+	// exposed areas and union volume against closed formulas (lens, containment) and against sampled coverage (triple overlap)
+
+	private static final ParallelEngine ENGINE = new ParallelEngine(2);
+
+	@Test
+	void lens() {
+		double r1 = 1.0, r2 = 0.7, d = 1.2;
+		Sphere[] spheres = { new Sphere(0, 0, 0, r1, 1000), new Sphere(d, 0, 0, r2, 1000) };
+		SurfaceCoverage coverage = SurfaceCoverage.compute(spheres, new SphereGrid(spheres), ENGINE);
+
+		// covered caps: height h1 on sphere 1, h2 on sphere 2
+		double h1 = (r2-r1+d)*(r2+r1-d)/(2*d);
+		double h2 = (r1-r2+d)*(r1+r2-d)/(2*d);
+		double area1 = 4*Math.PI*r1*r1 - 2*Math.PI*r1*h1;
+		double area2 = 4*Math.PI*r2*r2 - 2*Math.PI*r2*h2;
+		double lens = Math.PI*(r1+r2-d)*(r1+r2-d)*(d*d + 2*d*r2 - 3*r2*r2 + 2*d*r1 + 6*r1*r2 - 3*r1*r1)/(12*d);
+		double volume = 4/3.0*Math.PI*(r1*r1*r1 + r2*r2*r2) - lens;
+
+		// Gauss-Legendre quadrature of the arcs -> not exact
+		assertEquals(area1, coverage.exposedArea[0], 1e-6);
+		assertEquals(area2, coverage.exposedArea[1], 1e-6);
+		assertEquals(area1+area2, coverage.totalArea, 1e-6);
+		assertEquals(volume, coverage.volume, 1e-6);
+	}
+
+	@Test
+	void containment() {
+		Sphere[] spheres = { new Sphere(0, 0, 0, 2, 1000), new Sphere(0.5, 0.3, -0.2, 1, 1000) };
+		SurfaceCoverage coverage = SurfaceCoverage.compute(spheres, new SphereGrid(spheres), ENGINE);
+		assertEquals(16*Math.PI, coverage.exposedArea[0], 1e-9);
+		assertEquals(0, coverage.exposedArea[1], 1e-9);
+		assertEquals(16*Math.PI, coverage.totalArea, 1e-9);
+		assertEquals(32/3.0*Math.PI, coverage.volume, 1e-9);
+	}
+
+	@Test
+	void disjoint() {
+		Sphere[] spheres = { new Sphere(0, 0, 0, 1, 1000), new Sphere(3, 0, 0, 1, 1000) };
+		SurfaceCoverage coverage = SurfaceCoverage.compute(spheres, new SphereGrid(spheres), ENGINE);
+		assertEquals(8*Math.PI, coverage.totalArea, 1e-9);
+		assertEquals(8/3.0*Math.PI, coverage.volume, 1e-9);
+	}
+
+	@Test
+	void tripleOverlap() {
+		Sphere[] spheres = { new Sphere(0, 0, 0, 1, 1000), new Sphere(1.2, 0, 0, 0.9, 1000), new Sphere(0.6, 0.9, 0.3, 0.8, 1000) };
+		SurfaceCoverage coverage = SurfaceCoverage.compute(spheres, new SphereGrid(spheres), ENGINE);
+		Random random = new Random(1);
+
+		// exposed area: fraction of uniformly distributed surface points outside of the other spheres
+		int nSamples = 400000;
+		double totalArea = 0;
+		for (int i=0; i<spheres.length; i++) {
+			Sphere sp = spheres[i];
+			int nExposed = 0;
+			for (int s=0; s<nSamples; s++) {
+				double x = random.nextGaussian(), y = random.nextGaussian(), z = random.nextGaussian();
+				double f = sp.radius/Math.sqrt(x*x+y*y+z*z);
+				if (!isInsideOther(spheres, i, sp.center.x+x*f, sp.center.y+y*f, sp.center.z+z*f)) nExposed++;
+			}
+			double fullArea = 4*Math.PI*sp.radius*sp.radius;
+			double area = fullArea*nExposed/nSamples;
+			assertEquals(area, coverage.exposedArea[i], fullArea*0.004, "sphere "+i);
+			totalArea += area;
+		}
+		assertEquals(totalArea, coverage.totalArea, totalArea*0.003);
+
+		// volume: fraction of uniformly distributed points in the bounding box inside of any sphere
+		double minX = -1, maxX = 2.1, minY = -1, maxY = 1.7, minZ = -1, maxZ = 1.1;
+		int nInside = 0;
+		int nVolumeSamples = 2000000;
+		for (int s=0; s<nVolumeSamples; s++) {
+			double x = minX + random.nextDouble()*(maxX-minX);
+			double y = minY + random.nextDouble()*(maxY-minY);
+			double z = minZ + random.nextDouble()*(maxZ-minZ);
+			if (isInsideOther(spheres, -1, x, y, z)) nInside++;
+		}
+		double volume = (maxX-minX)*(maxY-minY)*(maxZ-minZ)*nInside/nVolumeSamples;
+		assertEquals(volume, coverage.volume, volume*0.005);
+	}
+
+	private static boolean isInsideOther(Sphere[] spheres, int i, double x, double y, double z) {
+		for (int j=0; j<spheres.length; j++)
+			if (j!=i && spheres[j].isInside(x, y, z))
+				return true;
+		return false;
+	}
+}
@@ -0,0 +1,74 @@
+package net.schwarzbaer.java.tools.sphereoverlap;
+
+import static org.junit.jupiter.api.Assertions.assertArrayEquals;
+import static org.junit.jupiter.api.Assertions.assertEquals;
+
+import java.awt.Color;
+import java.io.File;
+import java.io.IOException;
+import java.nio.file.Files;
+import java.util.Vector;
+
+import org.junit.jupiter.api.Test;
+
+import net.schwarzbaer.java.tools.sphereoverlap.SphereOverlap.Sphere;
+import net.schwarzbaer.java.tools.sphereoverlap.SphereOverlap.TestCase;
+
+class SurvivorStreamTest {
+
+	// lazy culling (SurvivorStream) against removeOverlap and the covered masks
+
+	private static final ParallelEngine ENGINE = new ParallelEngine(2);
+
+	@Test
+	void fixedTestCases() {
+		for (TestCase tc : SphereOverlap.createTestCases()) {
+			Sphere[] spheres = tc.isRandom() ? tc.createSpheres(1) : tc.createSpheres();
+			SphereGrid grid = new SphereGrid(spheres);
+			Vector<double[]> streamed = new Vector<>();
+			try {
+				new SurvivorStream(spheres, grid).forEach((i,x,y,z)->streamed.add(new double[] { i, x, y, z }));
+			} catch (IOException e) {
+				throw new IllegalStateException(e); // the sink doesn't throw
+			}
+
+			SphereOverlap.removeOverlap(spheres, grid, ENGINE);
+			Vector<double[]> expected = new Vector<>();
+			for (int i=0; i<spheres.length; i++) {
+				int i_ = i;
+				SurfacePoints surface = spheres[i].surface;
+				spheres[i].forEachSurvivingPoint(k->expected.add(new double[] { i_, surface.getX(k), surface.getY(k), surface.getZ(k) }));
+			}
+
+			assertEquals(expected.size(), streamed.size(), tc.label+", surviving points");
+			for (int k=0; k<expected.size(); k++)
+				assertArrayEquals(expected.get(k), streamed.get(k), 0, tc.label+", surviving point "+k);
+		}
+	}
+
+	@Test
+	void sameFile() throws IOException {
+		// without extra nodes both VRML writers write the same bytes, the survivor counts are those of the masks
+		File folder = Files.createTempDirectory("SurvivorStreamTest").toFile();
+		File lazyFile = new File(folder, "lazy.wrl");
+		File maskFile = new File(folder, "masks.wrl");
+		try {
+			for (TestCase tc : SphereOverlap.createTestCases()) {
+				Sphere[] spheres = tc.isRandom() ? tc.createSpheres(1) : tc.createSpheres();
+				SphereGrid grid = new SphereGrid(spheres);
+				int[] survivorCounts = new int[spheres.length];
+				VrmlStreamWriter.writeSurvivingPointFaces(lazyFile, spheres, grid, 1, "%1.2f", Color.ORANGE, survivorCounts, null);
+				SphereOverlap.removeOverlap(spheres, grid, ENGINE);
+				VrmlStreamWriter.writePointFaces(maskFile, spheres, 1, "%1.2f", Color.ORANGE, null);
+
+				for (int i=0; i<spheres.length; i++)
+					assertEquals(spheres[i].getSurvivingPointCount(), survivorCounts[i], tc.label+", sphere "+i);
+				assertArrayEquals(Files.readAllBytes(maskFile.toPath()), Files.readAllBytes(lazyFile.toPath()), tc.label);
+			}
+		} finally {
+			lazyFile.delete();
+			maskFile.delete();
+			folder.delete();
+		}
+	}
+}
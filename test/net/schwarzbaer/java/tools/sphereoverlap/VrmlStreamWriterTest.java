@@ -0,0 +1,75 @@
+package net.schwarzbaer.java.tools.sphereoverlap;
+
+import static org.junit.jupiter.api.Assertions.assertEquals;
+
+import java.io.File;
+import java.io.IOException;
+import java.nio.charset.StandardCharsets;
+import java.nio.file.Files;
+import java.util.List;
+import java.util.Locale;
+import java.util.Random;
+
+import org.junit.jupiter.api.Test;
+
+class VrmlStreamWriterTest {
+
+	// numbers written by VrmlStreamWriter against String.format with the same format string
+
+	@Test
+	void ties() throws IOException {
+		double[] values = { 1.005, 2.675, 1.115, 0.125, 0.375, 2.5, 0.5, 1.5, -0.5, -1.005, 1.0049999999999999, 1.0050000000000001, 0.0005, 0.0015, 1e-7, -0.001, -0.0 };
+		for (int decimals=0; decimals<=6; decimals++)
+			check(values, decimals);
+
+		// all values with a 5 after the last written digit
+		Random random = new Random(1);
+		for (int decimals=0; decimals<=6; decimals++) {
+			double[] ties = new double[2000];
+			for (int i=0; i<ties.length; i++) {
+				long digits = random.nextInt(2000000)-1000000;
+				ties[i] = Double.parseDouble(String.format(Locale.ENGLISH, "%d5E-%d", digits, decimals+1));
+			}
+			check(ties, decimals);
+		}
+	}
+
+	@Test
+	void random() throws IOException {
+		Random random = new Random(2);
+		for (int decimals=0; decimals<=8; decimals++) {
+			double[] values = new double[5000];
+			for (int i=0; i<values.length; i++)
+				switch (i%3) {
+				case 0: values[i] = (random.nextDouble()-0.5)*1000; break;
+				case 1: values[i] = (random.nextDouble()-0.5)*Math.pow(10, random.nextInt(40)-20); break;
+				default: values[i] = Double.longBitsToDouble(random.nextLong());
+				}
+			check(values, decimals);
+		}
+	}
+
+	@Test
+	void large() throws IOException {
+		check(new double[] { 1e15, 123456789012345.67, 4503599627370495.5, 1e17, 1e20, -1.2345e22, Double.MAX_VALUE, Double.NaN, Double.POSITIVE_INFINITY, Double.NEGATIVE_INFINITY }, 2);
+	}
+
+	private static void check(double[] values, int decimals) throws IOException {
+		String format = "%1."+decimals+"f";
+		File file = File.createTempFile("VrmlStreamWriterTest", ".wrl");
+		try {
+			try (VrmlStreamWriter out = new VrmlStreamWriter(file, format)) {
+				for (double value : values) {
+					out.write(value);
+					out.write('\n');
+				}
+			}
+			List<String> lines = Files.readAllLines(file.toPath(), StandardCharsets.UTF_8);
+			assertEquals(values.length, lines.size());
+			for (int i=0; i<values.length; i++)
+				assertEquals(String.format(Locale.ENGLISH, format, values[i]), lines.get(i), String.format("%s with \"%s\"", values[i], format));
+		} finally {
+			file.delete();
+		}
+	}
+}